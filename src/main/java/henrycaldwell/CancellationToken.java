@@ -0,0 +1,59 @@
+package henrycaldwell;
+
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Asks a long running edit to stop early. The edit checks the token once per row of every seam search and once per
+ * seam, so it stops within about one row of work after cancel is called or the deadline passes, and then rolls back
+ * whatever it had already changed.
+ */
+public class CancellationToken {
+    // Whether cancel has been called.
+    private volatile boolean cancelled;
+    // The System.nanoTime after which the token counts as cancelled, or Long.MAX_VALUE for no deadline.
+    private final long deadline;
+    // Whether the token has a deadline at all.
+    private final boolean hasDeadline;
+
+    /**
+     * Initializes a token that is only cancelled by calling cancel.
+     */
+    public CancellationToken() {
+        this.deadline = Long.MAX_VALUE;
+        this.hasDeadline = false;
+    }
+
+    /**
+     * Initializes a token that cancels itself once a time budget has been used up.
+     * @param budget How long the edit may run.
+     */
+    public CancellationToken(Duration budget) {
+        this.deadline = System.nanoTime() + budget.toNanos();
+        this.hasDeadline = true;
+    }
+
+    /**
+     * Asks the edit holding this token to stop.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return True if cancel has been called or the deadline has passed.
+     */
+    public boolean isCancelled() {
+        return cancelled || (hasDeadline && System.nanoTime() - deadline >= 0);
+    }
+
+    /**
+     * Stops the running edit if the token is cancelled.
+     * @throws CancellationException If cancel has been called or the deadline has passed.
+     */
+    public void throwIfCancelled() {
+        if (isCancelled()) {
+            throw new CancellationException(cancelled ? "The edit was cancelled." : "The edit ran past its time budget.");
+        }
+    }
+}
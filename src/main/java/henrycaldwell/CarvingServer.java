@@ -0,0 +1,610 @@
+package henrycaldwell;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.List;
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * Serves seam carving over local HTTP. Each loaded image is a session backed by its own ServiceLayer, and sessions
+ * are kept in a memory-bounded least recently used cache. Evicted sessions stay journaled on disk and are resumed on
+ * their next request.
+ *
+ * Endpoints, all answering with JSON except for the image:
+ * POST /sessions?path=...[&subsample=n][&region=x,y,w,h] loads an image, or a subsampled preview or region of it, and
+ * returns the session id. The path is resolved against the image root of the server, and images outside it are refused
+ * with 403.
+ * POST /sessions/{id}/seam?criterion=energy|blue|red|green finds and returns a seam as one column per row.
+ * POST /sessions/{id}/remove removes the last found seam.
+ * POST /sessions/{id}/undo undoes the last edit.
+ * POST /sessions/{id}/resize?width=...[&budgetMs=n] carves or enlarges to the given width, rolling back and answering
+ * 503 if that takes longer than the budget.
+ * GET /sessions/{id}/image returns the current image as a PNG.
+ * DELETE /sessions/{id} closes the session and deletes its files.
+ */
+public class CarvingServer {
+    // Rough heap cost of one pixel of a loaded session: its node and its share of the image buffers.
+    private static final long BYTES_PER_PIXEL = 72;
+    // Rough heap cost of one seam pixel kept for undo or redo: its node, its place in the seam list, and its column
+    // and color in the journaled edit.
+    private static final long BYTES_PER_HISTORY_PIXEL = 56;
+
+    // The underlying HTTP server.
+    private final HttpServer server;
+    // Runs each request on its own thread, virtual when the runtime supports it.
+    private final ExecutorService executor;
+    // The sessions, loaded or evicted to disk.
+    private final SessionCache sessions;
+    // The real path of the only directory images may be loaded from.
+    private final Path imageRoot;
+
+    /**
+     * Initializes a server. It does not accept requests until started.
+     * @param port The port to listen on, or 0 for any free port.
+     * @param imageRoot The directory images are loaded from. Paths in requests are resolved against it and may not
+     *                  leave it.
+     * @param sessionDirectory The directory evicted sessions are kept in.
+     * @param maxBytes The estimated heap the loaded sessions may take up combined.
+     * @throws IOException If the port can not be bound or the image root does not exist.
+     */
+    public CarvingServer(int port, Path imageRoot, Path sessionDirectory, long maxBytes) throws IOException {
+        this.imageRoot = imageRoot.toRealPath();
+        this.server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        this.executor = newRequestExecutor();
+        this.sessions = new SessionCache(sessionDirectory, maxBytes);
+
+        server.createContext("/sessions", this::handle);
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Launches the server from the command line.
+     * @param args Optionally the port to listen on, 8080 by default, and the directory images are loaded from, the
+     *             working directory by default.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = (args.length > 0) ? Integer.parseInt(args[0]) : 8080;
+        Path imageRoot = Paths.get((args.length > 1) ? args[1] : ".");
+        CarvingServer carvingServer = new CarvingServer(port, imageRoot, Paths.get("target/server-sessions"), Runtime.getRuntime().maxMemory() / 2);
+        carvingServer.start();
+        System.out.println("Serving seam carving on http://localhost:" + carvingServer.getPort() + "/sessions");
+        System.out.println("Loading images from " + carvingServer.imageRoot);
+    }
+
+    /**
+     * Starts accepting requests.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests and closes all sessions, keeping them on disk.
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+        sessions.closeAll();
+    }
+
+    /**
+     * Returns the port the server listens on.
+     * @return The port.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Creates an executor that runs every request on a new virtual thread, falling back to a cached thread pool on
+     * runtimes without virtual threads.
+     * @return The executor.
+     */
+    private static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Routes a request to the matching operation and writes its response.
+     * @param exchange The request and its response.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String[] parts = exchange.getRequestURI().getPath().split("/");
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            String method = exchange.getRequestMethod();
+
+            if (parts.length == 2 && method.equals("POST")) {
+                createSession(exchange, query);
+            } else if (parts.length == 3 && method.equals("DELETE")) {
+                if (sessions.delete(parts[2])) {
+                    respond(exchange, 200, "{}");
+                } else {
+                    respond(exchange, 404, error("Unknown session: " + parts[2]));
+                }
+            } else if (parts.length == 4) {
+                Session session = sessions.get(parts[2]);
+
+                if (session == null) {
+                    respond(exchange, 404, error("Unknown session: " + parts[2]));
+                } else {
+                    handleSessionRequest(exchange, session, method + " " + parts[3], query);
+                }
+            } else {
+                respond(exchange, 404, error("Unknown endpoint."));
+            }
+        } catch (IllegalArgumentException e) {
+            respond(exchange, 400, error(e.getMessage()));
+        } catch (RuntimeException e) {
+            respond(exchange, 500, error(String.valueOf(e.getMessage())));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Loads an image into a new session.
+     * @param exchange The request and its response.
+     * @param query The query parameters, holding the image path and optionally the subsampling and region.
+     */
+    private void createSession(HttpExchange exchange, Map<String, String> query) throws IOException {
+        String filePath = query.get("path");
+
+        if (filePath == null) {
+            throw new IllegalArgumentException("The file does not exist or is not accessible: " + filePath);
+        }
+
+        Path imagePath = resolveImage(filePath);
+
+        if (imagePath == null) {
+            respond(exchange, 403, error("Only images under the image root can be loaded."));
+            return;
+        }
+
+        Session session = sessions.create(imagePath.toString(), parseLoader(query.get("subsample"), query.get("region")));
+        String json;
+
+        synchronized (session) {
+            json = "{\"id\":\"" + session.id + "\"," + dimensions(sessions.load(session)) + "}";
+        }
+
+        respond(exchange, 200, json);
+    }
+
+    /**
+     * Resolves a requested image path against the image root, following symbolic links.
+     * @param filePath The requested path, relative to the image root or absolute.
+     * @return The real path of the image, or null if it lies outside the image root.
+     * @throws IllegalArgumentException If the path is invalid or the image does not exist.
+     */
+    private Path resolveImage(String filePath) throws IOException {
+        Path imagePath = imageRoot.resolve(filePath).normalize();
+
+        if (!imagePath.startsWith(imageRoot)) {
+            return null;
+        }
+        if (!Files.isRegularFile(imagePath)) {
+            throw new IllegalArgumentException("The file does not exist or is not accessible: " + filePath);
+        }
+
+        imagePath = imagePath.toRealPath();
+        return imagePath.startsWith(imageRoot) ? imagePath : null;
+    }
+
+    /**
+     * Builds the loader for a new session from its query parameters.
+     * @param subsample Only every n-th column and row is read, or null to read every pixel.
+     * @param region The part of the image to read as x,y,width,height, or null to read all of it.
+     * @return The loader.
+     */
+    private ImageLoader parseLoader(String subsample, String region) {
+        try {
+            int subsampling = (subsample != null) ? Integer.parseInt(subsample) : 1;
+            Rectangle bounds = null;
+
+            if (region != null) {
+                String[] values = region.split(",");
+
+                if (values.length != 4) {
+                    throw new IllegalArgumentException("The region must be given as x,y,width,height.");
+                }
+
+                bounds = new Rectangle(Integer.parseInt(values[0].trim()), Integer.parseInt(values[1].trim()),
+                        Integer.parseInt(values[2].trim()), Integer.parseInt(values[3].trim()));
+            }
+
+            return new ImageLoader(subsampling, bounds);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid subsampling or region: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs an operation on a session. Operations on one session run one at a time.
+     * @param exchange The request and its response.
+     * @param session The session to operate on.
+     * @param operation The request method and the operation name.
+     * @param query The query parameters.
+     */
+    private void handleSessionRequest(HttpExchange exchange, Session session, String operation, Map<String, String> query) throws IOException {
+        int status = 200;
+        String json;
+        byte[] png = null;
+
+        synchronized (session) {
+            ServiceLayer service = sessions.load(session);
+            int historySize = service.getEditHistory().size();
+
+            switch (operation) {
+                case "POST seam":
+                    findSeam(service, query.get("criterion"));
+                    List<PixelNode> seam = service.getLastFoundSeam();
+                    json = (seam == null) ? error("Only one column remains.")
+                            : "{\"seam\":" + Arrays.toString(service.getImageRep().locateSeams(Collections.singletonList(seam))[0]) + "}";
+                    status = (seam == null) ? 409 : 200;
+                    break;
+                case "POST remove":
+                    service.removeSeam();
+                    status = (service.getEditHistory().size() > historySize) ? 200 : 409;
+                    json = (status == 200) ? "{" + dimensions(service) + "}" : error("No seam has been found yet.");
+                    break;
+                case "POST undo":
+                    service.undoLastEdit();
+                    status = (service.getEditHistory().size() < historySize) ? 200 : 409;
+                    json = (status == 200) ? "{" + dimensions(service) + "}" : error("Nothing left to undo.");
+                    break;
+                case "POST resize":
+                    try {
+                        resize(service, parseWidth(query.get("width")), parseBudget(query.get("budgetMs")));
+                        json = "{" + dimensions(service) + "}";
+                    } catch (CancellationException e) {
+                        status = 503;
+                        json = error("The resize did not finish within its budget and was rolled back.");
+                    }
+                    break;
+                case "GET image":
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    ImageIO.write(service.getImageRep().getImage(), "png", out);
+                    png = out.toByteArray();
+                    json = null;
+                    break;
+                default:
+                    status = 404;
+                    json = error("Unknown endpoint.");
+            }
+        }
+
+        sessions.touch(session);
+
+        if (png != null) {
+            exchange.getResponseHeaders().set("Content-Type", "image/png");
+            exchange.sendResponseHeaders(200, png.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(png);
+            }
+        } else {
+            respond(exchange, status, json);
+        }
+    }
+
+    /**
+     * Finds and highlights the seam for a criterion, defaulting to the lowest energy seam.
+     * @param service The service layer of the session.
+     * @param criterion energy, blue, red or green.
+     */
+    private void findSeam(ServiceLayer service, String criterion) {
+        if ("blue".equals(criterion)) {
+            service.findAndHighlightSeam(SeamScorer.bluest(), Color.BLUE);
+        } else if ("red".equals(criterion)) {
+            service.findAndHighlightSeam(SeamScorer.reddest(), Color.RED);
+        } else if ("green".equals(criterion)) {
+            service.findAndHighlightSeam(SeamScorer.greenest(), Color.GREEN);
+        } else {
+            service.findAndHighlightSeam(SeamScorer.lowestEnergy(), Color.RED);
+        }
+    }
+
+    /**
+     * Carves or enlarges an image to a target width.
+     * @param service The session's service layer.
+     * @param width The target width.
+     * @param budget Stops and rolls back the resize once used up, or null for no limit.
+     * @throws CancellationException If the resize ran past its budget.
+     */
+    private void resize(ServiceLayer service, int width, CancellationToken budget) {
+        int currentWidth = service.getImageRep().getPixels().getWidth();
+
+        if (width < currentWidth) {
+            service.removeLowestEnergySeams(currentWidth - width, null, budget);
+        } else if (width > currentWidth) {
+            service.enlargeToWidth(width, null, budget);
+        }
+    }
+
+    /**
+     * Parses the time budget parameter of a resize request.
+     * @param budgetMs The parameter value in milliseconds, or null for no limit.
+     * @return A token that cancels itself once the budget is used up, or null.
+     */
+    private CancellationToken parseBudget(String budgetMs) {
+        if (budgetMs == null) {
+            return null;
+        }
+
+        try {
+            long budget = Long.parseLong(budgetMs);
+
+            if (budget < 1) {
+                throw new IllegalArgumentException("The budget must be positive.");
+            }
+
+            return new CancellationToken(Duration.ofMillis(budget));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid budget: " + budgetMs);
+        }
+    }
+
+    /**
+     * Parses the width parameter of a resize request.
+     * @param width The parameter value.
+     * @return The width.
+     */
+    private int parseWidth(String width) {
+        try {
+            int parsed = Integer.parseInt(width);
+
+            if (parsed < 1) {
+                throw new IllegalArgumentException("The width must be positive.");
+            }
+
+            return parsed;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid width: " + width);
+        }
+    }
+
+    private static String dimensions(ServiceLayer service) {
+        return "\"width\":" + service.getImageRep().getPixels().getWidth() + ",\"height\":" + service.getImageRep().getPixels().getHeight();
+    }
+
+    private static String error(String message) {
+        return "{\"error\":\"" + message.replace("\\", "\\\\").replace("\"", "\\\"") + "\"}";
+    }
+
+    /**
+     * Splits a raw query string into decoded parameters.
+     * @param rawQuery The raw query, or null.
+     * @return The parameters by name.
+     */
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+
+        if (rawQuery != null) {
+            for (String parameter : rawQuery.split("&")) {
+                int split = parameter.indexOf('=');
+
+                if (split > 0) {
+                    query.put(URLDecoder.decode(parameter.substring(0, split), StandardCharsets.UTF_8),
+                            URLDecoder.decode(parameter.substring(split + 1), StandardCharsets.UTF_8));
+                }
+            }
+        }
+
+        return query;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * A session's service layer, loaded or not, together with the store its edits are journaled to.
+     */
+    private static class Session {
+        // The id clients refer to the session by.
+        final String id;
+        // Where the session is journaled and evicted to.
+        final SessionStore store;
+        // The loaded service layer, or null while the session is evicted.
+        volatile ServiceLayer service;
+
+        Session(String id, SessionStore store) {
+            this.id = id;
+            this.store = store;
+        }
+    }
+
+    /**
+     * Keeps the most recently used sessions loaded within a memory budget, evicting the rest to disk.
+     * A session's own lock is always taken before the cache's lock, never the other way around.
+     */
+    private static class SessionCache {
+        // The directory each session's store is created in.
+        private final Path directory;
+        // The estimated heap the loaded sessions may take up combined.
+        private final long maxBytes;
+        // Every session, loaded or not.
+        private final Map<String, Session> all = new ConcurrentHashMap<>();
+        // The estimated size of each loaded session, from least to most recently used.
+        private final LinkedHashMap<Session, Long> loaded = new LinkedHashMap<>(16, 0.75f, true);
+        // The sum of the estimated sizes of the loaded sessions.
+        private long loadedBytes;
+
+        SessionCache(Path directory, long maxBytes) {
+            this.directory = directory;
+            this.maxBytes = maxBytes;
+        }
+
+        /**
+         * Loads an image into a new session and starts journaling it.
+         * @param filePath The image path.
+         * @param imageLoader Decides which part of the image is decoded and at what resolution.
+         * @return The new, loaded session.
+         */
+        Session create(String filePath, ImageLoader imageLoader) {
+            String id = UUID.randomUUID().toString();
+            Session session = new Session(id, new SessionStore(directory.resolve(id)));
+
+            synchronized (session) {
+                session.service = new ServiceLayer(filePath, imageLoader);
+                session.service.getImageRep().setPreviewSaving(false);
+                session.service.startSession(session.store);
+                all.put(id, session);
+            }
+
+            touch(session);
+            return session;
+        }
+
+        Session get(String id) {
+            return all.get(id);
+        }
+
+        /**
+         * Returns a session's service layer, resuming it from disk if it was evicted. Must hold the session's lock.
+         * @param session The session.
+         * @return The loaded service layer.
+         */
+        ServiceLayer load(Session session) {
+            if (session.service == null) {
+                session.service = new ServiceLayer(session.store);
+                session.service.getImageRep().setPreviewSaving(false);
+            }
+
+            return session.service;
+        }
+
+        /**
+         * Marks a session as just used and updates its size, including the seams its undo and redo histories keep,
+         * then evicts the least recently used sessions until the loaded sessions fit in the budget. The session itself
+         * is never evicted here. The size is read under the session's lock, so no request edits it meanwhile.
+         * @param session The session that was used.
+         */
+        void touch(Session session) {
+            List<Session> victims = new ArrayList<>();
+
+            synchronized (session) {
+                synchronized (this) {
+                    ServiceLayer service = session.service;
+
+                    if (service != null && all.containsKey(session.id)) {
+                        long bytes = BYTES_PER_PIXEL * service.getImageRep().getPixels().getWidth() * service.getImageRep().getPixels().getHeight()
+                                + BYTES_PER_HISTORY_PIXEL * service.getHistoryPixels();
+                        Long previous = loaded.put(session, bytes);
+                        loadedBytes += bytes - ((previous != null) ? previous : 0);
+                    }
+
+                    Iterator<Map.Entry<Session, Long>> iterator = loaded.entrySet().iterator();
+                    while (loadedBytes > maxBytes && iterator.hasNext()) {
+                        Map.Entry<Session, Long> entry = iterator.next();
+
+                        if (entry.getKey() != session) {
+                            loadedBytes -= entry.getValue();
+                            victims.add(entry.getKey());
+                            iterator.remove();
+                        }
+                    }
+                }
+            }
+
+            for (Session victim : victims) {
+                synchronized (victim) {
+                    if (!isLoaded(victim) && victim.service != null) {
+                        victim.service.closeSession();
+                        victim.service = null;
+                    }
+                }
+            }
+        }
+
+        private synchronized boolean isLoaded(Session session) {
+            return loaded.containsKey(session);
+        }
+
+        /**
+         * Closes a session and deletes its files.
+         * @param id The session id.
+         * @return True if the session existed and was deleted, false if there is no session with that id.
+         */
+        boolean delete(String id) throws IOException {
+            Session session = all.remove(id);
+
+            if (session == null) {
+                return false;
+            }
+
+            synchronized (session) {
+                synchronized (this) {
+                    Long bytes = loaded.remove(session);
+                    loadedBytes -= (bytes != null) ? bytes : 0;
+                }
+
+                if (session.service != null) {
+                    session.service.closeSession();
+                    session.service = null;
+                }
+
+                Path sessionDirectory = directory.resolve(id);
+                if (Files.isDirectory(sessionDirectory)) {
+                    try (Stream<Path> files = Files.list(sessionDirectory)) {
+                        for (Path file : (Iterable<Path>) files::iterator) {
+                            Files.deleteIfExists(file);
+                        }
+                    }
+
+                    Files.deleteIfExists(sessionDirectory);
+                }
+            }
+
+            return true;
+        }
+
+        /**
+         * Closes every loaded session, leaving them resumable on disk.
+         */
+        void closeAll() {
+            for (Session session : all.values()) {
+                synchronized (session) {
+                    if (session.service != null) {
+                        session.service.closeSession();
+                        session.service = null;
+                    }
+                }
+            }
+
+            synchronized (this) {
+                loaded.clear();
+                loadedBytes = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package henrycaldwell;
+
+import javax.imageio.ImageIO;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Runs the console commands non-interactively from a script, without printing the menu or saving a preview after
+ * every step. Commands are separated by whitespace and lines starting with # are ignored:
+ * load (path) loads an image, save (path) writes the current image, and any run of the menu letters B, E, D, U and R
+ * may be repeated with *N, such as ed*200 to find and delete 200 seams or u*5 to undo five times.
+ * Consecutive find and delete pairs are fused into one run of seam removals that takes as many disjoint seams as it can
+ * from each energy pass, skips the highlighted preview and redraws the image only once at the end, consecutive undos
+ * or redos into a single jump through the history, and the time spent in each phase is printed once the script
+ * finishes. Each removed seam is still its own edit, so u*5 undoes five seams just as in the console.
+ * Repetitions are kept as counts rather than expanded, so ed*2000000000 takes no more memory than ed*2, and a repeated
+ * run that does not fuse into a single step is run as a loop over its fused letters.
+ */
+public class CommandScript {
+    // The commands after fusing find and delete pairs, undos and redos, with their repeat counts.
+    private final List<Step> steps;
+    // Where progress and timings are printed.
+    private final PrintStream out;
+    // Time spent and work done per phase, in the order the phases first ran.
+    private final Map<String, long[]> phases = new LinkedHashMap<>();
+    // The service layer of the loaded image.
+    private ServiceLayer editingService;
+
+    /**
+     * Initializes a script from a list of commands.
+     * @param tokens The commands and their arguments.
+     * @param out Where progress and timings are printed.
+     */
+    public CommandScript(List<String> tokens, PrintStream out) {
+        this.steps = fuse(expand(tokens));
+        this.out = out;
+    }
+
+    /**
+     * Reads a script from a file.
+     * @param scriptPath The path to the script.
+     * @param out Where progress and timings are printed.
+     * @return The script.
+     * @throws IOException If the script can not be read.
+     */
+    public static CommandScript fromFile(Path scriptPath, PrintStream out) throws IOException {
+        List<String> tokens = new ArrayList<>();
+
+        for (String line : Files.readAllLines(scriptPath)) {
+            if (!line.trim().startsWith("#")) {
+                tokens.addAll(Arrays.asList(line.trim().split("\\s+")));
+            }
+        }
+
+        tokens.removeIf(String::isEmpty);
+        return new CommandScript(tokens, out);
+    }
+
+    /**
+     * Runs every command of the script in order, then prints the phase timings.
+     */
+    public void run() {
+        for (Step step : steps) {
+            run(step);
+        }
+
+        printTimings();
+    }
+
+    /**
+     * Runs one step, or every step of a repeated run as many times as it is repeated.
+     * @param step The step to run.
+     */
+    private void run(Step step) {
+        if (step.kind.equals("repeat")) {
+            for (int r = 0; r < step.count; r++) {
+                for (Step bodyStep : step.body) {
+                    run(bodyStep);
+                }
+            }
+            return;
+        }
+
+        long start = System.nanoTime();
+
+        if (!step.kind.equals("load") && editingService == null) {
+            throw new IllegalStateException("No image has been loaded. The script must start with load (path).");
+        }
+
+        switch (step.kind) {
+            case "load":
+                if (!new File(step.argument).isFile()) {
+                    throw new IllegalArgumentException("The file does not exist or is not accessible: " + step.argument);
+                }
+
+                editingService = new ServiceLayer(step.argument);
+                editingService.getImageRep().setPreviewSaving(false);
+                break;
+            case "save":
+                try {
+                    ImageIO.write(editingService.getImageRep().getImage(), "png", new File(step.argument));
+                } catch (IOException e) {
+                    System.err.println("Error saving the image: " + e.getMessage());
+                }
+                break;
+            case "remove":
+                editingService.removeLowestEnergySeam(step.count);
+                break;
+            case "b":
+                editingService.findAndHighlightSeam(false);
+                break;
+            case "e":
+                editingService.findAndHighlightSeam(true);
+                break;
+            case "d":
+                for (int r = 0; r < step.count; r++) {
+                    editingService.removeSeam();
+
+                    // Deletes without a new highlight only repeat the same message.
+                    if (r > 0 && editingService.getLastFoundSeam() == null) {
+                        break;
+                    }
+                }
+                break;
+            case "u":
+                editingService.undoTo(Math.max(0, editingService.getEditHistory().size() - step.count));
+                break;
+            case "r":
+                editingService.redoTo(editingService.getEditHistory().size() + Math.min(step.count, editingService.getRedoHistory().size()));
+                break;
+            default:
+                throw new IllegalStateException("Unknown step: " + step.kind);
+        }
+
+        long[] phase = phases.computeIfAbsent(step.kind, kind -> new long[2]);
+        phase[0] += step.count;
+        phase[1] += System.nanoTime() - start;
+    }
+
+    /**
+     * Prints how many times each phase ran and how long it took in total.
+     */
+    private void printTimings() {
+        out.println("Phase timings:");
+
+        for (Map.Entry<String, long[]> phase : phases.entrySet()) {
+            out.printf("  %-6s x%-6d %10.1f ms%n", phase.getKey(), phase.getValue()[0], phase.getValue()[1] / 1e6);
+        }
+    }
+
+    /**
+     * Turns the commands into steps without expanding repetitions. A single repeated letter becomes one step with the
+     * repeat count, and a repeated run of several letters is fused once and then either multiplied into a single
+     * removal, undo or redo step or kept as a repeated run of its fused steps.
+     * @param tokens The commands and their arguments.
+     * @return The steps, with one step per load, save or letter of an unrepeated run.
+     */
+    private static List<Step> expand(List<String> tokens) {
+        List<Step> expanded = new ArrayList<>();
+
+        for (int i = 0; i < tokens.size(); i++) {
+            String token = tokens.get(i).toLowerCase();
+
+            if (token.equals("load") || token.equals("save")) {
+                if (i + 1 == tokens.size()) {
+                    throw new IllegalArgumentException(token + " must be followed by a path.");
+                }
+
+                expanded.add(new Step(token, 1, tokens.get(++i)));
+                continue;
+            }
+
+            String letters = token;
+            int repeat = 1;
+            int star = token.indexOf('*');
+
+            if (star >= 0) {
+                letters = token.substring(0, star);
+
+                try {
+                    repeat = Integer.parseInt(token.substring(star + 1));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid repeat count in command: " + token);
+                }
+            }
+
+            if (letters.isEmpty() || !letters.matches("[bedur]+")) {
+                throw new IllegalArgumentException("Invalid command: " + token);
+            }
+
+            if (repeat <= 0) {
+                continue;
+            }
+
+            if (letters.length() == 1) {
+                expanded.add(new Step(letters, repeat, null));
+                continue;
+            }
+
+            List<Step> once = new ArrayList<>();
+            for (char letter : letters.toCharArray()) {
+                once.add(new Step(String.valueOf(letter), 1, null));
+            }
+
+            if (repeat == 1) {
+                expanded.addAll(once);
+                continue;
+            }
+
+            List<Step> body = fuse(once);
+            Step only = body.get(0);
+
+            if (body.size() == 1 && isFind(only.kind)) {
+                expanded.add(only);
+            } else if (body.size() == 1 && !only.kind.equals("d")) {
+                expanded.add(new Step(only.kind, saturatedProduct(only.count, repeat), null));
+            } else {
+                expanded.add(new Step(repeat, body));
+            }
+        }
+
+        return expanded;
+    }
+
+    /**
+     * Fuses lowest energy find and delete pairs into removal steps and merges neighbouring removal, undo or redo steps.
+     * A find followed by another find or by a removal is dropped, since each replaces the highlighted seam.
+     * @param expanded The steps before fusing.
+     * @return The fused steps.
+     */
+    private static List<Step> fuse(List<Step> expanded) {
+        List<Step> pending = new ArrayList<>(expanded);
+        List<Step> fused = new ArrayList<>();
+
+        for (int i = 0; i < pending.size(); i++) {
+            Step step = pending.get(i);
+            Step next = (i + 1 < pending.size()) ? pending.get(i + 1) : null;
+
+            if (!isFind(step.kind)) {
+                append(fused, step);
+            } else if (next != null && (isFind(next.kind) || next.kind.equals("remove"))) {
+                continue;
+            } else if (step.kind.equals("e") && next != null && next.kind.equals("d")) {
+                append(fused, new Step("remove", 1, null));
+
+                if (next.count > 1) {
+                    pending.set(i + 1, new Step("d", next.count - 1, null));
+                } else {
+                    i++;
+                }
+            } else {
+                append(fused, new Step(step.kind, 1, null));
+            }
+        }
+
+        return fused;
+    }
+
+    /**
+     * Adds a step to the fused steps, merging it into the last one if both are removals, undos or redos.
+     * @param fused The fused steps so far.
+     * @param step The step to add.
+     */
+    private static void append(List<Step> fused, Step step) {
+        Step last = fused.isEmpty() ? null : fused.get(fused.size() - 1);
+
+        if (last != null && last.kind.equals(step.kind) && isMergeable(step.kind)) {
+            fused.set(fused.size() - 1, new Step(step.kind, saturatedSum(last.count, step.count), null));
+        } else {
+            fused.add(step);
+        }
+    }
+
+    /**
+     * @param a A count.
+     * @param b Another count.
+     * @return Their sum, or Integer.MAX_VALUE if it does not fit, which removes, undoes or redoes everything there is.
+     */
+    private static int saturatedSum(int a, int b) {
+        return (int) Math.min(Integer.MAX_VALUE, (long) a + b);
+    }
+
+    /**
+     * @param a A count.
+     * @param b Another count.
+     * @return Their product, or Integer.MAX_VALUE if it does not fit.
+     */
+    private static int saturatedProduct(int a, int b) {
+        return (int) Math.min(Integer.MAX_VALUE, (long) a * b);
+    }
+
+    private static boolean isMergeable(String kind) {
+        return kind.equals("remove") || kind.equals("u") || kind.equals("r");
+    }
+
+    private static boolean isFind(String kind) {
+        return kind.equals("e") || kind.equals("b");
+    }
+
+    /**
+     * A single step of the script: what to do, how many times, and its path argument or the steps of a repeated run if
+     * it has one.
+     */
+    private static class Step {
+        final String kind;
+        final int count;
+        final String argument;
+        final List<Step> body;
+
+        Step(String kind, int count, String argument) {
+            this.kind = kind;
+            this.count = count;
+            this.argument = argument;
+            this.body = null;
+        }
+
+        Step(int count, List<Step> body) {
+            this.kind = "repeat";
+            this.count = count;
+            this.argument = null;
+            this.body = body;
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package henrycaldwell;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Caches decoded pixels and energy maps on disk, keyed by a hash of the source file's contents.
+ * Entries are memory-mapped back in, validated against a checksum, and evicted least recently used first once the
+ * cache grows past its size limit.
+ */
+public class GridCache {
+    // Identifies a cache entry file.
+    private static final int MAGIC = 0x53475244;
+    // The version of the entry layout, bumped whenever the layout or the energy calculation changes.
+    private static final int VERSION = 1;
+    // Magic, version, width and height followed by the payload checksum.
+    private static final int HEADER_SIZE = 24;
+    // The file name suffix of cache entries.
+    private static final String ENTRY_SUFFIX = ".grid";
+
+    // The directory holding the cache entries.
+    private final Path directory;
+    // The total size the cache entries may take up before the least recently used are evicted.
+    private final long maxBytes;
+
+    /**
+     * Initializes a cache stored in the given directory.
+     * @param directory The directory to store entries in, created when the first entry is written.
+     * @param maxBytes The size limit of all entries combined.
+     */
+    public GridCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Computes the cache key of a file from its contents.
+     * @param filePath The path to the file.
+     * @return The hex encoded SHA-256 hash of the file.
+     * @throws IOException If the file can not be read.
+     */
+    public String keyFor(String filePath) throws IOException {
+        MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+
+        try (InputStream in = Files.newInputStream(Path.of(filePath))) {
+            byte[] buffer = new byte[1 << 16];
+            int read;
+
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(String.format("%02x", b));
+        }
+
+        return key.toString();
+    }
+
+    /**
+     * Loads a cached image representation, skipping decoding and the energy pass.
+     * @param key The cache key of the source file.
+     * @return The cached ImageRepresentation, or null if there is no valid entry for the key.
+     */
+    public ImageRepresentation get(String key) {
+        Path entry = entryPath(key);
+
+        if (!Files.isRegularFile(entry)) {
+            return null;
+        }
+
+        ImageRepresentation imageRep = null;
+        boolean invalid = false;
+
+        try (FileChannel channel = FileChannel.open(entry, StandardOpenOption.READ)) {
+            long size = channel.size();
+
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                return null;
+            }
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            try {
+                int width = buffer.getInt(8);
+                int height = buffer.getInt(12);
+
+                if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || width <= 0 || height <= 0
+                        || size != entrySize(width, height) || buffer.getLong(16) != checksum(buffer)) {
+                    invalid = true;
+                } else {
+                    int pixelCount = width * height;
+                    PixelBuffer image = new PixelBuffer(width, height);
+                    int[] pixels = image.getPixels();
+                    double[] energies = new double[pixelCount];
+
+                    buffer.position(HEADER_SIZE);
+                    buffer.asIntBuffer().get(pixels);
+                    buffer.position(HEADER_SIZE + 4 * pixelCount);
+                    buffer.asDoubleBuffer().get(energies);
+
+                    imageRep = new ImageRepresentation(image, energies);
+                }
+            } finally {
+                unmap(buffer);
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading the grid cache: " + e.getMessage());
+            return null;
+        }
+
+        try {
+            if (invalid) {
+                System.err.println("Discarding invalid grid cache entry: " + entry);
+                Files.deleteIfExists(entry);
+            } else {
+                Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            }
+        } catch (IOException e) {
+            System.err.println("Error updating the grid cache: " + e.getMessage());
+        }
+
+        return imageRep;
+    }
+
+    /**
+     * Stores the pixels and energies of an image representation, then evicts old entries if the cache is too large.
+     * @param key The cache key of the source file.
+     * @param imageRep The freshly loaded image representation to store.
+     */
+    public void put(String key, ImageRepresentation imageRep) {
+        PixelBuffer image = imageRep.getPixels();
+        int width = image.getWidth();
+        int height = image.getHeight();
+        long size = entrySize(width, height);
+
+        if (size > Integer.MAX_VALUE || size > maxBytes) {
+            return;
+        }
+
+        Path entry = entryPath(key);
+        Path tempEntry = null;
+
+        try {
+            Files.createDirectories(directory);
+            tempEntry = Files.createTempFile(directory, key, ENTRY_SUFFIX + ".tmp");
+
+            try (FileChannel channel = FileChannel.open(tempEntry, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+                try {
+                    buffer.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height).putLong(0);
+
+                    buffer.asIntBuffer().put(image.getPixels(), 0, width * height);
+                    buffer.position(buffer.position() + 4 * width * height);
+
+                    buffer.asDoubleBuffer().put(imageRep.getEnergies());
+                    buffer.putLong(16, checksum(buffer));
+                    buffer.force();
+                } finally {
+                    unmap(buffer);
+                }
+            }
+
+            Files.move(tempEntry, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            evict();
+        } catch (IOException e) {
+            System.err.println("Error writing the grid cache: " + e.getMessage());
+
+            try {
+                if (tempEntry != null) {
+                    Files.deleteIfExists(tempEntry);
+                }
+            } catch (IOException ignored) {
+                // The leftover file has a unique name and is not read back as an entry.
+            }
+        }
+    }
+
+    /**
+     * Releases the mapping of an entry right away instead of when the buffer is garbage collected, so the file can be
+     * moved or deleted on every platform. The buffer must not be used afterwards. Runtimes without the unsupported
+     * cleaner API leave the mapping to the garbage collector.
+     * @param buffer The mapped entry.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(theUnsafe.get(null), buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // The mapping is released once the buffer is garbage collected.
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache fits within its size limit.
+     * @throws IOException If the cache directory can not be listed.
+     */
+    private void evict() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        long totalSize = 0;
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + ENTRY_SUFFIX)) {
+            for (Path entry : stream) {
+                entries.add(entry);
+                totalSize += Files.size(entry);
+            }
+        }
+
+        entries.sort(Comparator.comparingLong(GridCache::lastModified));
+
+        for (Path entry : entries) {
+            if (totalSize <= maxBytes) {
+                break;
+            }
+
+            totalSize -= Files.size(entry);
+            Files.deleteIfExists(entry);
+        }
+    }
+
+    /**
+     * Reads the last modified time of an entry, which is refreshed whenever the entry is read.
+     * @param entry The entry file.
+     * @return The last modified time in milliseconds, or 0 if it can not be read.
+     */
+    private static long lastModified(Path entry) {
+        try {
+            return Files.getLastModifiedTime(entry).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Computes the checksum of an entry's payload.
+     * @param buffer The whole entry.
+     * @return The CRC32 of everything after the header.
+     */
+    private static long checksum(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().position(HEADER_SIZE).limit(buffer.capacity()));
+        return crc.getValue();
+    }
+
+    /**
+     * Computes the size of an entry holding an image of the given dimensions.
+     * @param width Image width.
+     * @param height Image height.
+     * @return Entry size in bytes.
+     */
+    private static long entrySize(int width, int height) {
+        return HEADER_SIZE + 12L * width * height;
+    }
+
+    /**
+     * Resolves the file of the entry for a key.
+     * @param key The cache key.
+     * @return Path of the entry file.
+     */
+    private Path entryPath(String key) {
+        return directory.resolve(key + ENTRY_SUFFIX);
+    }
+}
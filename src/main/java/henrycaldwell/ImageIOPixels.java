@@ -0,0 +1,116 @@
+package henrycaldwell;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Adapts AWT images to the pixel interfaces of the carving core. This is the only place where pixels cross between
+ * BufferedImage and plain int arrays, so code that never calls it never loads AWT.
+ */
+public class ImageIOPixels {
+    // The color model of TYPE_INT_RGB images.
+    private static final DirectColorModel RGB_MODEL = new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF);
+
+    private ImageIOPixels() {
+    }
+
+    /**
+     * Wraps an image as a pixel source. INT_RGB and INT_ARGB images without padding are shared rather than copied,
+     * and other images are read row by row through getRGB.
+     * @param image The image to read.
+     * @return The pixels of the image.
+     */
+    public static PixelSource of(BufferedImage image) {
+        int[] pixels = directPixels(image);
+
+        if (pixels != null && pixelOffset(image, 0, 0) == 0
+                && ((SinglePixelPackedSampleModel) image.getRaster().getSampleModel()).getScanlineStride() == image.getWidth()) {
+            return new PixelBuffer(image.getWidth(), image.getHeight(), pixels);
+        }
+
+        return new PixelSource() {
+            @Override
+            public int getWidth() {
+                return image.getWidth();
+            }
+
+            @Override
+            public int getHeight() {
+                return image.getHeight();
+            }
+
+            @Override
+            public void readRow(int y, int[] row, int offset) {
+                if (pixels != null) {
+                    System.arraycopy(pixels, pixelOffset(image, 0, y), row, offset, image.getWidth());
+                } else {
+                    image.getRGB(0, y, image.getWidth(), 1, row, offset, image.getWidth());
+                }
+            }
+        };
+    }
+
+    /**
+     * Views a pixel buffer as an INT_RGB image without copying it, so changes to either show in both.
+     * @param pixels The pixels to view.
+     * @return The image.
+     */
+    public static BufferedImage toImage(PixelBuffer pixels) {
+        int width = pixels.getWidth();
+        int height = pixels.getHeight();
+        DataBufferInt dataBuffer = new DataBufferInt(pixels.getPixels(), width * height);
+        WritableRaster raster = Raster.createPackedRaster(dataBuffer, width, height, width, RGB_MODEL.getMasks(), null);
+
+        return new BufferedImage(RGB_MODEL, raster, false, null);
+    }
+
+    /**
+     * Creates a sink that encodes images into a file.
+     * @param file The file to write.
+     * @param format The ImageIO format name, such as "png".
+     * @return The sink.
+     */
+    public static PixelSink fileSink(File file, String format) {
+        return (width, height, pixels) -> ImageIO.write(toImage(new PixelBuffer(width, height, pixels)), format, file);
+    }
+
+    /**
+     * Returns the pixel array behind an INT_RGB or INT_ARGB image, so its rows can be read without any color
+     * conversion. Other image types are read through getRGB instead.
+     * @param image The image to read.
+     * @return The packed pixels, or null if the image is not backed by one.
+     */
+    private static int[] directPixels(BufferedImage image) {
+        int type = image.getType();
+
+        if ((type != BufferedImage.TYPE_INT_ARGB && type != BufferedImage.TYPE_INT_RGB)
+                || !(image.getRaster().getDataBuffer() instanceof DataBufferInt)
+                || !(image.getRaster().getSampleModel() instanceof SinglePixelPackedSampleModel)) {
+            return null;
+        }
+
+        return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+
+    /**
+     * Finds where a pixel is stored in the array returned by directPixels.
+     * @param image The image.
+     * @param x The column of the pixel.
+     * @param y The row of the pixel.
+     * @return The index of the pixel in the array.
+     */
+    private static int pixelOffset(BufferedImage image, int x, int y) {
+        WritableRaster raster = image.getRaster();
+        SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+
+        return raster.getDataBuffer().getOffset()
+                + sampleModel.getOffset(x - raster.getSampleModelTranslateX(), y - raster.getSampleModelTranslateY());
+    }
+}
@@ -0,0 +1,453 @@
+package henrycaldwell;
+
+import org.w3c.dom.Node;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Decodes images with an ImageReader, optionally reading only a region of the file and only every n-th pixel of it.
+ * Pixels that are skipped are never decoded, so previews of huge files start quickly. The result is always an
+ * INT_ARGB image, converted once here, so the grid can be built straight from its pixel array.
+ */
+public class ImageLoader {
+    // Only every n-th column and row of the source is read, or every pixel if 1.
+    private final int subsampling;
+    // The part of the source to read, or null to read all of it.
+    private final Rectangle region;
+
+    /**
+     * Initializes a loader that reads every pixel of the whole image.
+     */
+    public ImageLoader() {
+        this(1, null);
+    }
+
+    /**
+     * Initializes a loader that reads a region of the image, skipping pixels.
+     * @param subsampling Only every n-th column and row is read, or every pixel if 1.
+     * @param region The part of the image to read, in source pixels, or null to read all of it.
+     */
+    public ImageLoader(int subsampling, Rectangle region) {
+        if (subsampling < 1) {
+            throw new IllegalArgumentException("The subsampling must be at least 1.");
+        }
+
+        this.subsampling = subsampling;
+        this.region = (region != null) ? new Rectangle(region) : null;
+    }
+
+    /**
+     * Decodes an image file.
+     * @param filePath The path to the image file.
+     * @return The decoded pixels as an INT_ARGB image.
+     * @throws IOException If the file can not be read or decoded.
+     */
+    public BufferedImage load(String filePath) throws IOException {
+        try (ImageInputStream input = openInput(filePath)) {
+            ImageReader reader = openReader(input, filePath);
+
+            try {
+                return toIntArgb(reader.read(0, readParam(reader)));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Starts decoding an image file on a background thread and returns its rows as they are decoded, so the 'grid'
+     * can be built while the rest of the file is still being decoded. Rows are handed over in strips through a
+     * bounded queue, which holds the decoder back if the 'grid' falls too far behind. Only formats whose reader
+     * writes every row once and in order, non-interlaced PNG and baseline JPEG, are streamed. Any other file is
+     * decoded in full before this returns, since nothing could be built before it is done anyway, and comes back as
+     * a PixelBuffer so the 'grid' can be built in parallel bands.
+     * @param filePath The path to the image file.
+     * @return The rows of the decoded image, with the size load would return. A StreamingPixelSource must be closed
+     *         if its rows are not all read.
+     * @throws IOException If the file can not be opened, its format is not supported or a file that is not streamed
+     *                     can not be decoded. Decoding errors of a streamed file are thrown by awaitRows.
+     */
+    public PixelSource stream(String filePath) throws IOException {
+        ImageInputStream input = openInput(filePath);
+        ImageReader reader = null;
+        boolean streaming = false;
+
+        try {
+            reader = openReader(input, filePath);
+            ImageReadParam param = readParam(reader);
+
+            if (!writesRowsInOrder(reader.getImageMetadata(0))) {
+                return ImageIOPixels.of(toIntArgb(reader.read(0, param)));
+            }
+
+            Rectangle bounds = (param.getSourceRegion() != null) ? param.getSourceRegion() : new Rectangle(0, 0, reader.getWidth(0), reader.getHeight(0));
+            int width = (bounds.width + subsampling - 1) / subsampling;
+            int height = (bounds.height + subsampling - 1) / subsampling;
+            DecodingSource source = new DecodingSource(new PixelBuffer(width, height));
+
+            source.start(reader, param, input);
+            streaming = true;
+            return source;
+        } finally {
+            if (!streaming) {
+                if (reader != null) {
+                    reader.dispose();
+                }
+                input.close();
+            }
+        }
+    }
+
+    /**
+     * Opens an image file for reading.
+     * @param filePath The path to the image file.
+     * @return The opened input.
+     * @throws IOException If the file can not be opened.
+     */
+    private static ImageInputStream openInput(String filePath) throws IOException {
+        ImageInputStream input = ImageIO.createImageInputStream(new File(filePath));
+
+        if (input == null) {
+            throw new IOException("The file can not be opened: " + filePath);
+        }
+
+        return input;
+    }
+
+    /**
+     * Finds a reader for an opened image file.
+     * @param input The opened file.
+     * @param filePath The path to the image file, for error messages.
+     * @return The reader, reading from the input.
+     * @throws IOException If the format is not supported.
+     */
+    private static ImageReader openReader(ImageInputStream input, String filePath) throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            throw new IOException("Unsupported image format: " + filePath);
+        }
+
+        ImageReader reader = readers.next();
+        reader.setInput(input, true, true);
+        return reader;
+    }
+
+    /**
+     * Sets up the region and subsampling of a read.
+     * @param reader The reader of the file.
+     * @return The read parameters.
+     * @throws IOException If the region lies outside the image.
+     */
+    private ImageReadParam readParam(ImageReader reader) throws IOException {
+        ImageReadParam param = reader.getDefaultReadParam();
+
+        if (region != null) {
+            Rectangle bounds = new Rectangle(0, 0, reader.getWidth(0), reader.getHeight(0)).intersection(region);
+
+            if (bounds.isEmpty()) {
+                throw new IOException("The region lies outside the image: " + region);
+            }
+
+            param.setSourceRegion(bounds);
+        }
+
+        if (subsampling > 1) {
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        }
+
+        return param;
+    }
+
+    /**
+     * Decides from the metadata of an image whether its reader writes every row exactly once and from the top down,
+     * so rows can be used as soon as they are reported. Interlaced PNG and progressive JPEG files are written in
+     * several passes instead.
+     * @param metadata The metadata of the image, or null.
+     * @return True for non-interlaced PNG and baseline JPEG files.
+     */
+    private static boolean writesRowsInOrder(IIOMetadata metadata) {
+        if (metadata == null || metadata.getNativeMetadataFormatName() == null) {
+            return false;
+        }
+
+        String format = metadata.getNativeMetadataFormatName();
+        Node root = metadata.getAsTree(format);
+
+        if (format.equals("javax_imageio_png_1.0")) {
+            Node header = findNode(root, "IHDR");
+            return header != null && "none".equals(attribute(header, "interlaceMethod"));
+        } else if (format.equals("javax_imageio_jpeg_image_1.0")) {
+            Node frame = findNode(root, "sof");
+            return frame != null && !"2".equals(attribute(frame, "process"));
+        }
+
+        return false;
+    }
+
+    /**
+     * Finds the first node with a name in a metadata tree, depth first.
+     * @param node The root of the tree.
+     * @param name The node name.
+     * @return The node, or null if there is none.
+     */
+    private static Node findNode(Node node, String name) {
+        if (name.equals(node.getNodeName())) {
+            return node;
+        }
+
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            Node found = findNode(child, name);
+
+            if (found != null) {
+                return found;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @param node A metadata node.
+     * @param name The attribute name.
+     * @return The value of the attribute, or null if the node does not have it.
+     */
+    private static String attribute(Node node, String name) {
+        Node attribute = node.getAttributes().getNamedItem(name);
+        return (attribute != null) ? attribute.getNodeValue() : null;
+    }
+
+    /**
+     * Converts an image to INT_ARGB, unless it already is.
+     * @param image The decoded image.
+     * @return An INT_ARGB image with the same pixels.
+     */
+    static BufferedImage toIntArgb(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB) {
+            return image;
+        }
+
+        BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        int[] row = new int[image.getWidth()];
+
+        for (int y = 0; y < image.getHeight(); y++) {
+            image.getRGB(0, y, row.length, 1, row, 0, row.length);
+            converted.setRGB(0, y, row.length, 1, row, 0, row.length);
+        }
+
+        return converted;
+    }
+
+    /**
+     * The rows of an image being decoded on another thread. The decoder copies finished rows into the buffer and
+     * then queues the number of rows ready from the top, one strip at a time, or a negative number if decoding failed.
+     * Closing the source aborts the reader and interrupts the decoder, which then releases the reader and the file.
+     */
+    private static class DecodingSource implements StreamingPixelSource, IIOReadUpdateListener {
+        // The number of rows handed over at a time.
+        private static final int STRIP_ROWS = 16;
+        // The number of strips the decoder may run ahead of the reader.
+        private static final int QUEUED_STRIPS = 8;
+
+        private final PixelBuffer pixels;
+        private final BlockingQueue<Integer> strips = new ArrayBlockingQueue<>(QUEUED_STRIPS);
+        // The thread decoding the image, set before it starts.
+        private Thread decoder;
+        // Whether the reading thread has stopped waiting for rows.
+        private volatile boolean closed;
+        // The rows copied into the buffer and the rows queued, both written by the decoder thread only.
+        private int copiedRows, queuedRows;
+        // The rows ready so far, as seen by the reading thread.
+        private int readyRows;
+        // Why decoding failed, set before the failure is queued.
+        private volatile IOException failure;
+
+        DecodingSource(PixelBuffer pixels) {
+            this.pixels = pixels;
+        }
+
+        /**
+         * Starts decoding the image on a daemon thread.
+         * @param reader The reader of the file, which must write every row once and in order.
+         * @param param The region and subsampling to read.
+         * @param input The opened file.
+         */
+        void start(ImageReader reader, ImageReadParam param, ImageInputStream input) {
+            decoder = new Thread(() -> decode(reader, param, input), "image-decoder");
+            decoder.setDaemon(true);
+            decoder.start();
+        }
+
+        /**
+         * Decodes the image, then closes the reader and its input. Runs on the decoder thread.
+         * @param reader The reader of the file.
+         * @param param The region and subsampling to read.
+         * @param input The opened file.
+         */
+        private void decode(ImageReader reader, ImageReadParam param, ImageInputStream input) {
+            try {
+                reader.addIIOReadUpdateListener(this);
+                BufferedImage image = reader.read(0, param);
+
+                if (image.getWidth() != pixels.getWidth() || image.getHeight() != pixels.getHeight()) {
+                    throw new IOException("The decoded image is " + image.getWidth() + "x" + image.getHeight()
+                            + " rather than " + pixels.getWidth() + "x" + pixels.getHeight() + ".");
+                }
+
+                copyRows(image, pixels.getHeight());
+                queue(pixels.getHeight());
+            } catch (IOException e) {
+                fail(e);
+            } catch (RuntimeException e) {
+                fail(new IOException("Failed to decode the image: " + e.getMessage(), e));
+            } catch (InterruptedException e) {
+                reader.abort();
+                Thread.currentThread().interrupt();
+            } finally {
+                reader.dispose();
+
+                try {
+                    input.close();
+                } catch (IOException e) {
+                    System.err.println("Error closing the image file: " + e.getMessage());
+                }
+            }
+        }
+
+        @Override
+        public void imageUpdate(ImageReader source, BufferedImage theImage, int minX, int minY, int width, int height,
+                                int periodX, int periodY, int[] bands) {
+            if (closed) {
+                source.abort();
+                return;
+            }
+
+            if (periodX != 1 || periodY != 1 || minX != 0 || width != theImage.getWidth() || minY > copiedRows) {
+                return;
+            }
+
+            copyRows(theImage, Math.min(minY + height, pixels.getHeight()));
+
+            if (copiedRows - queuedRows >= STRIP_ROWS) {
+                try {
+                    queue(copiedRows);
+                } catch (InterruptedException e) {
+                    source.abort();
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        /**
+         * Copies the rows below the ones already copied up to a given row from the decoded image into the buffer.
+         * @param image The image the reader decodes into.
+         * @param endRow The row after the last finished row.
+         */
+        private void copyRows(BufferedImage image, int endRow) {
+            int width = pixels.getWidth();
+
+            for (; copiedRows < endRow; copiedRows++) {
+                image.getRGB(0, copiedRows, width, 1, pixels.getPixels(), copiedRows * width, width);
+            }
+        }
+
+        /**
+         * Hands the copied rows over to the reading thread, waiting while the queue is full.
+         * @param rows The number of rows ready from the top.
+         * @throws InterruptedException If the decoder thread is interrupted while waiting.
+         */
+        private void queue(int rows) throws InterruptedException {
+            if (rows > queuedRows) {
+                strips.put(rows);
+                queuedRows = rows;
+            }
+        }
+
+        /**
+         * Hands a decoding failure over to the reading thread.
+         * @param e The failure.
+         */
+        private void fail(IOException e) {
+            failure = e;
+            strips.clear();
+            strips.offer(-1);
+        }
+
+        @Override
+        public int awaitRows(int rows) throws IOException {
+            while (readyRows <= rows && readyRows < pixels.getHeight()) {
+                int ready;
+
+                try {
+                    ready = strips.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the image to be decoded.", e);
+                }
+
+                if (ready < 0) {
+                    throw failure;
+                }
+
+                readyRows = ready;
+            }
+
+            return readyRows;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            decoder.interrupt();
+        }
+
+        @Override
+        public int getWidth() {
+            return pixels.getWidth();
+        }
+
+        @Override
+        public int getHeight() {
+            return pixels.getHeight();
+        }
+
+        @Override
+        public void readRow(int y, int[] row, int offset) {
+            pixels.readRow(y, row, offset);
+        }
+
+        @Override
+        public void passStarted(ImageReader source, BufferedImage theImage, int pass, int minPass, int maxPass,
+                                int minX, int minY, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void passComplete(ImageReader source, BufferedImage theImage) {
+        }
+
+        @Override
+        public void thumbnailPassStarted(ImageReader source, BufferedImage theThumbnail, int pass, int minPass,
+                                         int maxPass, int minX, int minY, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void thumbnailPassComplete(ImageReader source, BufferedImage theThumbnail) {
+        }
+
+        @Override
+        public void thumbnailUpdate(ImageReader source, BufferedImage theThumbnail, int minX, int minY, int width,
+                                    int height, int periodX, int periodY, int[] bands) {
+        }
+    }
+}
@@ -1,111 +1,467 @@
 package henrycaldwell;
 
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
-import java.awt.Color;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Manages an image's pixel nodes for editing operations such as seam removal.
+ * Seam edits keep the energies up to date themselves by recalculating only the nodes next to the edited seam, and
+ * track which 64x64 tiles of the image they made out of date so that updateImage only redraws those tiles.
+ * Only the image is tracked by tiles. The energies never go out of date, and the cumulative scores of a seam search
+ * are not kept from one search to the next, since a single changed pixel changes the scores of a cone below it that
+ * soon spans every column.
+ * Pixels come in through a PixelSource and are kept in a PixelBuffer, so building, editing and redrawing the 'grid'
+ * never touches AWT. The BufferedImage methods are thin wrappers around ImageIOPixels for callers that have one.
+ * A StreamingPixelSource is consumed while it is still being produced: each row is linked as soon as it is ready, and
+ * the energy of the row above it is calculated right away, since all of that row's neighbors are then known.
  */
 public class ImageRepresentation {
     // The current image being manipulated.
-    private BufferedImage image;
+    private PixelBuffer image;
     // The root node of the pixel node 'grid'. Acts as the entry point to traverse the 'grid'.
     private PixelNode root;
     // Counter for edits made to help manage saved image files.
     private int editCounter;
+    // Whether saveImage writes preview files. Edits are still counted when it does not.
+    private boolean previewSaving = true;
+    // Whether the 'grid' and its energies are built in parallel bands of rows.
+    private final boolean parallel;
+    // Whether the nodes are compact, with energies calculated from whole channel sums and stored as whole steps of
+    // 1 / SeamScorer.ENERGY_SCALE rather than as doubles.
+    private final boolean compactPrecision;
+    // The brightness of every channel sum, so the default energy pass looks it up rather than dividing per neighbor.
+    private static final double[] BRIGHTNESS = new double[3 * 255 + 1];
+    // Images with at least this many pixels are processed in parallel by default.
+    private static final int PARALLEL_THRESHOLD = 1 << 18;
+    // The number of rows in each band. Bands always start at a multiple of this, so results do not depend on the split.
+    private static final int BAND_HEIGHT = 64;
+    // The side length of the square tiles in which out of date parts of the image are tracked.
+    static final int TILE_SIZE = 64;
+    // For every row of tiles, the first tile column whose pixels in the image no longer match the 'grid', or
+    // Integer.MAX_VALUE if none. An edited seam shifts every pixel to its right, so all tiles from there on are out of date.
+    private int[] firstDirtyTiles;
+    // Identifies the state of the 'grid'. Every seam edit moves it to a version never used before.
+    private long version = newVersion();
+    // The last version handed out to any 'grid'.
+    private static final AtomicLong lastVersion = new AtomicLong();
 
     /**
-     * Initializes with an image, setting up nodes and calculating their energies.
+     * Initializes with an image, setting up nodes and calculating their energies. Large images are processed in
+     * parallel horizontal bands. The pixels are copied, so later changes to the image do not reach this one.
      * @param image Image to manipulate.
      */
     public ImageRepresentation(BufferedImage image) {
-        this.image = image;
+        this(copyOf(image));
+    }
+
+    /**
+     * Initializes with pixels from any source, setting up nodes and calculating their energies. Large images are
+     * processed in parallel horizontal bands.
+     * @param source Pixels of the image to manipulate. A PixelBuffer is used as it is, anything else is copied.
+     */
+    public ImageRepresentation(PixelSource source) {
+        this(source, (long) source.getWidth() * source.getHeight() >= PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * Initializes with a copy of an image, choosing whether the grid and energies are built in parallel bands.
+     * @param image Image to manipulate.
+     * @param parallel If true, bands of rows are processed on the common ForkJoinPool.
+     */
+    ImageRepresentation(BufferedImage image, boolean parallel) {
+        this(copyOf(image), parallel);
+    }
+
+    /**
+     * Initializes with pixels from any source, choosing whether the grid and energies are built in parallel bands.
+     * Streaming sources are always built row by row as their rows arrive, and are closed once the 'grid' is built or
+     * building it fails.
+     * @param source Pixels of the image to manipulate.
+     * @param parallel If true, bands of rows are processed on the common ForkJoinPool.
+     * @throws UncheckedIOException If a streaming source fails to produce its rows.
+     */
+    ImageRepresentation(PixelSource source, boolean parallel) {
+        this(source, parallel, false);
+    }
+
+    /**
+     * Initializes with pixels from any source, choosing whether the grid and energies are built in parallel bands and
+     * whether the nodes are compact.
+     * @param source Pixels of the image to manipulate.
+     * @param parallel If true, bands of rows are processed on the common ForkJoinPool.
+     * @param compactPrecision If true, nodes store their energy as whole fixed-point steps calculated from whole
+     * channel sums.
+     * @throws UncheckedIOException If a streaming source fails to produce its rows.
+     */
+    ImageRepresentation(PixelSource source, boolean parallel, boolean compactPrecision) {
+        this.parallel = parallel;
+        this.compactPrecision = compactPrecision;
+
+        if (source instanceof StreamingPixelSource) {
+            this.image = new PixelBuffer(source.getWidth(), source.getHeight());
+
+            try {
+                this.root = initializeNodesAsRowsArrive((StreamingPixelSource) source);
+            } finally {
+                ((StreamingPixelSource) source).close();
+            }
+        } else {
+            this.image = toBuffer(source);
+            this.root = initializeNodes(image);
+            calculateEnergyForNodes();
+        }
+
+        this.firstDirtyTiles = cleanTiles(image.getHeight());
+    }
+
+    /**
+     * Initializes with a copy of an image and energies calculated earlier, skipping the energy pass.
+     * @param image Image to manipulate.
+     * @param energies Energy of every pixel in row-major order, as returned by getEnergies.
+     */
+    public ImageRepresentation(BufferedImage image, double[] energies) {
+        this(copyOf(image), energies);
+    }
+
+    /**
+     * Copies the pixels of an image. ImageIOPixels shares the arrays of packed images, and the buffer is later edited
+     * and read back by updateImage, so it must not belong to the caller.
+     * @param image The image to copy.
+     * @return The copied pixels.
+     */
+    private static PixelBuffer copyOf(BufferedImage image) {
+        return PixelBuffer.copyOf(ImageIOPixels.of(image));
+    }
+
+    /**
+     * Initializes with pixels from any source and energies calculated earlier, skipping the energy pass.
+     * @param source Pixels of the image to manipulate.
+     * @param energies Energy of every pixel in row-major order, as returned by getEnergies.
+     */
+    public ImageRepresentation(PixelSource source, double[] energies) {
+        this.image = toBuffer(source);
+        this.parallel = (long) image.getWidth() * image.getHeight() >= PARALLEL_THRESHOLD;
+        this.compactPrecision = false;
         this.root = initializeNodes(image);
-        calculateEnergyForNodes();
+        this.firstDirtyTiles = cleanTiles(image.getHeight());
+
+        int i = 0;
+        for (PixelNode rowStart = root; rowStart != null; rowStart = rowStart.down) {
+            for (PixelNode node = rowStart; node != null; node = node.right) {
+                node.setEnergy(energies[i++]);
+            }
+        }
     }
 
     /**
-     * Constructs a 'grid' of pixel nodes from an image.
+     * Keeps a pixel buffer as it is and copies any other source into a new one.
+     * @param source The pixels of the image.
+     * @return The pixels as a buffer.
+     */
+    private static PixelBuffer toBuffer(PixelSource source) {
+        return (source instanceof PixelBuffer) ? (PixelBuffer) source : PixelBuffer.copyOf(source);
+    }
+
+    /**
+     * Constructs a 'grid' of pixel nodes from an image. Each band of rows is built on its own, then the last row of
+     * every band is linked to the first row of the next.
      * @param image Image to convert into nodes.
      * @return The root node of the 'grid'.
      */
-    private PixelNode initializeNodes(BufferedImage image) {
-        PixelNode firstNode = null;
-        PixelNode aboveRowFirstNode = null;
+    private PixelNode initializeNodes(PixelBuffer image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        PixelNode[] rowStarts = new PixelNode[height];
+        int[] pixels = image.getPixels();
 
-        for (int y = 0; y < image.getHeight(); y++) {
-            PixelNode prevNode = null;
-            PixelNode rowFirstNode = null;
+        forEachBand(height, (startY, endY) -> {
+            PixelNode aboveRowFirstNode = null;
 
-            for (int x = 0; x < image.getWidth(); x++) {
-                Color color = new Color(image.getRGB(x, y));
-                PixelNode currentNode = new PixelNode(color);
-                currentNode.brightness = br(color);
+            for (int y = startY; y < endY; y++) {
+                int offset = y * width;
+                PixelNode prevNode = null;
 
-                if (x == 0) {
-                    rowFirstNode = currentNode;
-                    if (y == 0) {
-                        firstNode = currentNode;
+                for (int x = 0; x < width; x++) {
+                    PixelNode currentNode = createNode(pixels[offset + x]);
+
+                    if (x == 0) {
+                        rowStarts[y] = currentNode;
                     } else {
-                        aboveRowFirstNode.down = currentNode;
-                        currentNode.up = aboveRowFirstNode;
+                        prevNode.right = currentNode;
+                        currentNode.left = prevNode;
                     }
+
+                    prevNode = currentNode;
+                }
+
+                if (aboveRowFirstNode != null) {
+                    linkRowPair(aboveRowFirstNode, rowStarts[y]);
+                }
+
+                aboveRowFirstNode = rowStarts[y];
+            }
+        });
+
+        for (int y = BAND_HEIGHT; y < height; y += BAND_HEIGHT) {
+            linkRowPair(rowStarts[y - 1], rowStarts[y]);
+        }
+
+        return (height > 0) ? rowStarts[0] : null;
+    }
+
+    /**
+     * Constructs the 'grid' while the rows of a streaming source arrive. Each row is copied into the image, turned into
+     * nodes and linked below the row before it, which completes the neighborhood of that earlier row, so its energy is
+     * calculated before waiting for the next row.
+     * @param source The rows of the image, ready from the top down.
+     * @return The root node of the 'grid'.
+     * @throws UncheckedIOException If the source fails to produce its rows.
+     */
+    private PixelNode initializeNodesAsRowsArrive(StreamingPixelSource source) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getPixels();
+        PixelNode firstRowStart = null, aboveRowFirstNode = null;
+        int readyRows = 0;
+
+        for (int y = 0; y < height; y++) {
+            if (y == readyRows) {
+                try {
+                    readyRows = source.awaitRows(y);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to read row " + y + " of the image.", e);
+                }
+
+                if (readyRows <= y) {
+                    throw new UncheckedIOException(new IOException("The image ended after " + readyRows + " of " + height + " rows."));
+                }
+            }
+
+            source.readRow(y, pixels, y * width);
+            PixelNode rowFirstNode = null, prevNode = null;
+
+            for (int x = 0; x < width; x++) {
+                PixelNode currentNode = createNode(pixels[y * width + x]);
+
+                if (x == 0) {
+                    rowFirstNode = currentNode;
                 } else {
                     prevNode.right = currentNode;
                     currentNode.left = prevNode;
                 }
 
-                if (y > 0 && x > 0) {
-                    PixelNode aboveNode = getAboveNode(aboveRowFirstNode, x);
-                    aboveNode.down = currentNode;
-                    currentNode.up = aboveNode;
-                }
-
                 prevNode = currentNode;
             }
 
+            if (aboveRowFirstNode != null) {
+                linkRowPair(aboveRowFirstNode, rowFirstNode);
+                calculateEnergyForRow(aboveRowFirstNode);
+            } else {
+                firstRowStart = rowFirstNode;
+            }
+
             aboveRowFirstNode = rowFirstNode;
         }
 
-        return firstNode;
+        calculateEnergyForRow(aboveRowFirstNode);
+        return firstRowStart;
     }
 
     /**
-     * Finds the node directly above a specified node in the 'grid'.
-     * @param root Starting node for the search.
-     * @param x Horizontal position of the target node.
-     * @return Node above the specified position.
+     * Updates the energy of every node of a row.
+     * @param rowStart The first node of the row, or null.
      */
-    private PixelNode getAboveNode(PixelNode root, int x) {
-        PixelNode node = root;
-
-        for (int i = 0; i < x; i++) {
-            node = node.right;
+    private void calculateEnergyForRow(PixelNode rowStart) {
+        for (PixelNode node = rowStart; node != null; node = node.right) {
+            updateEnergy(node);
         }
+    }
 
-        return node;
+    /**
+     * Links each node of a row to the node in the same position of the row below it.
+     * @param upper First node of the upper row.
+     * @param lower First node of the lower row.
+     */
+    private void linkRowPair(PixelNode upper, PixelNode lower) {
+        while (upper != null && lower != null) {
+            upper.down = lower;
+            lower.up = upper;
+            upper = upper.right;
+            lower = lower.right;
+        }
     }
 
     /**
-     * Updates energy values for all nodes based on their surroundings.
+     * Updates energy values for all nodes based on their surroundings. Each node's energy only depends on the
+     * brightness of its neighbors, so bands of rows can be scored independently.
      */
     public void calculateEnergyForNodes() {
-        PixelNode rowStart = root;
+        PixelNode[] rowStarts = getRowStarts();
 
-        while (rowStart != null) {
-            PixelNode node = rowStart;
+        forEachBand(rowStarts.length, (startY, endY) -> {
+            for (int y = startY; y < endY; y++) {
+                PixelNode node = rowStarts[y];
 
-            while (node != null) {
-                node.energy = calculateEnergy(node);
-                node = node.right;
+                while (node != null) {
+                    updateEnergy(node);
+                    node = node.right;
+                }
+            }
+        });
+    }
+
+    /**
+     * Collects the energy of every node.
+     * @return Energies in row-major order.
+     */
+    public double[] getEnergies() {
+        double[] energies = new double[calculateWidth() * calculateHeight()];
+        int i = 0;
+
+        for (PixelNode rowStart = root; rowStart != null; rowStart = rowStart.down) {
+            for (PixelNode node = rowStart; node != null; node = node.right) {
+                energies[i++] = node.energy();
+            }
+        }
+
+        return energies;
+    }
+
+    /**
+     * Finds the column of every node of the given seams in the current 'grid'.
+     * @param seams Seams whose nodes are all in the 'grid', each with one node per row.
+     * @return The column of each seam's node in each row, indexed by seam and then row.
+     */
+    public int[][] locateSeams(List<List<PixelNode>> seams) {
+        Map<PixelNode, Integer> seamIndex = new IdentityHashMap<>();
+        int[][] columns = new int[seams.size()][];
+
+        for (int i = 0; i < seams.size(); i++) {
+            columns[i] = new int[seams.get(i).size()];
+
+            for (PixelNode node : seams.get(i)) {
+                seamIndex.put(node, i);
             }
+        }
+
+        int y = 0;
+        for (PixelNode rowStart = root; rowStart != null; rowStart = rowStart.down) {
+            int x = 0;
 
+            for (PixelNode node = rowStart; node != null; node = node.right) {
+                Integer i = seamIndex.get(node);
+
+                if (i != null) {
+                    columns[i][y] = x;
+                }
+
+                x++;
+            }
+
+            y++;
+        }
+
+        return columns;
+    }
+
+    /**
+     * Collects the nodes of the 'grid' row by row.
+     * @return Nodes indexed by row and then column.
+     */
+    PixelNode[][] getNodeRows() {
+        PixelNode[] rowStarts = getRowStarts();
+        PixelNode[][] rows = new PixelNode[rowStarts.length][calculateWidth()];
+
+        for (int y = 0; y < rowStarts.length; y++) {
+            int x = 0;
+
+            for (PixelNode node = rowStarts[y]; node != null; node = node.right) {
+                rows[y][x++] = node;
+            }
+        }
+
+        return rows;
+    }
+
+    /**
+     * Collects the first node of every row in the 'grid'.
+     * @return Row start nodes from top to bottom.
+     */
+    private PixelNode[] getRowStarts() {
+        PixelNode[] rowStarts = new PixelNode[calculateHeight()];
+        PixelNode rowStart = root;
+
+        for (int y = 0; rowStart != null; y++) {
+            rowStarts[y] = rowStart;
             rowStart = rowStart.down;
         }
+
+        return rowStarts;
+    }
+
+    /**
+     * Runs an operation over consecutive bands of rows, in parallel when enabled.
+     * @param height Number of rows to cover.
+     * @param operation Operation to run on each band.
+     */
+    private void forEachBand(int height, BandOperation operation) {
+        if (parallel && height > BAND_HEIGHT) {
+            ForkJoinPool.commonPool().invoke(new BandAction(operation, 0, height));
+        } else {
+            for (int startY = 0; startY < height; startY += BAND_HEIGHT) {
+                operation.apply(startY, Math.min(startY + BAND_HEIGHT, height));
+            }
+        }
+    }
+
+    /**
+     * An operation over the rows of one band, from startY inclusive to endY exclusive.
+     */
+    private interface BandOperation {
+        void apply(int startY, int endY);
+    }
+
+    /**
+     * Splits a range of rows in half until it fits in a single band, then applies the operation to it.
+     */
+    private static class BandAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final BandOperation operation;
+        private final int startY, endY;
+
+        BandAction(BandOperation operation, int startY, int endY) {
+            this.operation = operation;
+            this.startY = startY;
+            this.endY = endY;
+        }
+
+        @Override
+        protected void compute() {
+            if (endY - startY <= BAND_HEIGHT) {
+                operation.apply(startY, endY);
+            } else {
+                int bands = (endY - startY + BAND_HEIGHT - 1) / BAND_HEIGHT;
+                int midY = startY + (bands / 2) * BAND_HEIGHT;
+                invokeAll(new BandAction(operation, startY, midY), new BandAction(operation, midY, endY));
+            }
+        }
+    }
+
+    static {
+        for (int sum = 0; sum < BRIGHTNESS.length; sum++) {
+            BRIGHTNESS[sum] = sum / 3.0;
+        }
     }
 
     /**
@@ -115,15 +471,16 @@ public class ImageRepresentation {
      * @return Calculated energy.
      */
     private double calculateEnergy(PixelNode node) {
-        double leftBrightness = (node.left != null) ? node.left.brightness : node.brightness;
-        double rightBrightness = (node.right != null) ? node.right.brightness : node.brightness;
-        double upBrightness = (node.up != null) ? node.up.brightness : node.brightness;
-        double downBrightness = (node.down != null) ? node.down.brightness : node.brightness;
+        double brightness = br(node.rgb);
+        double leftBrightness = (node.left != null) ? br(node.left.rgb) : brightness;
+        double rightBrightness = (node.right != null) ? br(node.right.rgb) : brightness;
+        double upBrightness = (node.up != null) ? br(node.up.rgb) : brightness;
+        double downBrightness = (node.down != null) ? br(node.down.rgb) : brightness;
 
-        double upperLeftBrightness = (node.up != null && node.up.left != null) ? node.up.left.brightness : node.brightness;
-        double upperRightBrightness = (node.up != null && node.up.right != null) ? node.up.right.brightness : node.brightness;
-        double lowerLeftBrightness = (node.down != null && node.down.left != null) ? node.down.left.brightness : node.brightness;
-        double lowerRightBrightness = (node.down != null && node.down.right != null) ? node.down.right.brightness : node.brightness;
+        double upperLeftBrightness = (node.up != null && node.up.left != null) ? br(node.up.left.rgb) : brightness;
+        double upperRightBrightness = (node.up != null && node.up.right != null) ? br(node.up.right.rgb) : brightness;
+        double lowerLeftBrightness = (node.down != null && node.down.left != null) ? br(node.down.left.rgb) : brightness;
+        double lowerRightBrightness = (node.down != null && node.down.right != null) ? br(node.down.right.rgb) : brightness;
 
         double horizEnergy = (upperLeftBrightness + 2 * leftBrightness + lowerLeftBrightness) - (upperRightBrightness + 2 * rightBrightness + lowerRightBrightness);
         double vertEnergy = (upperLeftBrightness + 2 * upBrightness + upperRightBrightness) - (lowerLeftBrightness + 2 * downBrightness + lowerRightBrightness);
@@ -131,13 +488,95 @@ public class ImageRepresentation {
         return Math.sqrt(horizEnergy * horizEnergy + vertEnergy * vertEnergy);
     }
 
+    /**
+     * Calculates energy for a node in compact precision. The Sobel sums are taken over whole channel sums, which are
+     * three times the brightness, so only the final square root leaves integer arithmetic.
+     * @param node Node to calculate energy for.
+     * @return Calculated energy in whole steps of 1 / SeamScorer.ENERGY_SCALE.
+     */
+    private int calculateEnergySteps(PixelNode node) {
+        int sum = channelSum(node.rgb);
+        int leftSum = (node.left != null) ? channelSum(node.left.rgb) : sum;
+        int rightSum = (node.right != null) ? channelSum(node.right.rgb) : sum;
+        int upSum = (node.up != null) ? channelSum(node.up.rgb) : sum;
+        int downSum = (node.down != null) ? channelSum(node.down.rgb) : sum;
+
+        int upperLeftSum = (node.up != null && node.up.left != null) ? channelSum(node.up.left.rgb) : sum;
+        int upperRightSum = (node.up != null && node.up.right != null) ? channelSum(node.up.right.rgb) : sum;
+        int lowerLeftSum = (node.down != null && node.down.left != null) ? channelSum(node.down.left.rgb) : sum;
+        int lowerRightSum = (node.down != null && node.down.right != null) ? channelSum(node.down.right.rgb) : sum;
+
+        long horizEnergy = (upperLeftSum + 2 * leftSum + lowerLeftSum) - (upperRightSum + 2 * rightSum + lowerRightSum);
+        long vertEnergy = (upperLeftSum + 2 * upSum + upperRightSum) - (lowerLeftSum + 2 * downSum + lowerRightSum);
+
+        return (int) Math.round(Math.sqrt(horizEnergy * horizEnergy + vertEnergy * vertEnergy) * (SeamScorer.ENERGY_SCALE / 3.0));
+    }
+
+    /**
+     * Recalculates the energy of a node and stores it the way nodes of this 'grid' keep it.
+     * @param node Node to update.
+     */
+    private void updateEnergy(PixelNode node) {
+        if (compactPrecision) {
+            ((PixelNode.Compact) node).energySteps = calculateEnergySteps(node);
+        } else {
+            ((PixelNode.Exact) node).energy = calculateEnergy(node);
+        }
+    }
+
+    /**
+     * Creates an unlinked node of the kind this 'grid' is made of.
+     * @param rgb Color of the node as a packed RGB int.
+     * @return The new node.
+     */
+    PixelNode createNode(int rgb) {
+        return compactPrecision ? PixelNode.compactOf(rgb) : PixelNode.of(rgb);
+    }
+
+    /**
+     * Updates the energy of a node and of the nodes above and below it, if there are any.
+     * @param node The middle node, or null.
+     */
+    private void calculateEnergyForColumn(PixelNode node) {
+        if (node != null) {
+            updateEnergy(node);
+
+            if (node.up != null) {
+                updateEnergy(node.up);
+            }
+            if (node.down != null) {
+                updateEnergy(node.down);
+            }
+        }
+    }
+
+    /**
+     * Updates the energy of a node and its eight neighbors, the only nodes whose neighborhood changes when the node is
+     * linked into the 'grid'.
+     * @param node The node in the middle.
+     */
+    private void calculateEnergyAround(PixelNode node) {
+        calculateEnergyForColumn(node.left);
+        calculateEnergyForColumn(node);
+        calculateEnergyForColumn(node.right);
+    }
+
     /**
      * Calculates average brightness of a color.
-     * @param color Color to calculate brightness for.
+     * @param rgb Color to calculate brightness for, as a packed RGB int.
      * @return Average brightness.
      */
-    private double br(Color color) {
-        return (double) ((color.getRed() + color.getGreen() + color.getBlue()) / 3.0);
+    private double br(int rgb) {
+        return BRIGHTNESS[channelSum(rgb)];
+    }
+
+    /**
+     * Adds up the red, green and blue channels of a color.
+     * @param rgb The color as a packed RGB int.
+     * @return The sum of its channels, from 0 to 765.
+     */
+    private static int channelSum(int rgb) {
+        return ((rgb >> 16) & 0xFF) + ((rgb >> 8) & 0xFF) + (rgb & 0xFF);
     }
 
     /**
@@ -145,6 +584,9 @@ public class ImageRepresentation {
      * @param seam List of nodes forming the seam to be removed.
      */
     public void removeSeam(List<PixelNode> seam) {
+        markDirty(seam);
+        version = newVersion();
+
         for (int i = 0; i < seam.size(); i++) {
             PixelNode seamNode = seam.get(i);
             PixelNode nextSeamNode = (i + 1 < seam.size()) ? seam.get(i + 1) : null;
@@ -171,6 +613,11 @@ public class ImageRepresentation {
                 }
             }
         }
+
+        for (PixelNode seamNode : seam) {
+            calculateEnergyForColumn(seamNode.left);
+            calculateEnergyForColumn(seamNode.right);
+        }
     }
 
     /**
@@ -199,27 +646,235 @@ public class ImageRepresentation {
                 setRoot(node);
             }
         }
+
+        markDirty(seam);
+        version = newVersion();
+
+        for (PixelNode node : seam) {
+            calculateEnergyAround(node);
+        }
     }
 
     /**
-     * Creates a copy of the current image.
-     * @return Copy of the current image.
+     * Finds the nodes of a seam from its columns, walking the top row to the first node and then following the links
+     * down, so only the nodes near the seam are visited.
+     * @param columns The column of the seam's node in each row, each within one of the column above.
+     * @return The seam, with one node per row from the top.
      */
-    public BufferedImage deepCopyImage() {
-        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+    List<PixelNode> seamAt(int[] columns) {
+        List<PixelNode> seam = new ArrayList<>();
+        PixelNode node = walk(root, columns[0]);
+        seam.add(node);
 
-        for (int y = 0; y < image.getHeight(); y++) {
-            for (int x = 0; x < image.getWidth(); x++) {
-                int pixelRGB = image.getRGB(x, y);
-                copy.setRGB(x, y, pixelRGB);
+        for (int y = 1; y < columns.length; y++) {
+            node = walk(node.down, columns[y] - columns[y - 1]);
+            seam.add(node);
+        }
+
+        return seam;
+    }
+
+    /**
+     * Links new nodes into the 'grid' as a seam, so that each ends up in the given column of its row. Only the nodes
+     * next to the seam are relinked, and their energies are recalculated as in undoSeam.
+     * @param seam New nodes, one per row from the top.
+     * @param columns The column each node ends up in, each within one of the column above.
+     */
+    void linkSeamAt(List<PixelNode> seam, int[] columns) {
+        int height = seam.size();
+        PixelNode[] lefts = new PixelNode[height];
+        PixelNode[] rights = new PixelNode[height];
+
+        rights[0] = root;
+        for (int x = 0; x < columns[0]; x++) {
+            lefts[0] = rights[0];
+            rights[0] = rights[0].right;
+        }
+
+        for (int y = 1; y < height; y++) {
+            PixelNode above = (rights[y - 1] != null) ? rights[y - 1] : lefts[y - 1];
+            int aboveColumn = (rights[y - 1] != null) ? columns[y - 1] : columns[y - 1] - 1;
+
+            if (columns[y] > 0) {
+                lefts[y] = walk(above.down, columns[y] - 1 - aboveColumn);
+                rights[y] = lefts[y].right;
+            } else {
+                rights[y] = walk(above.down, -aboveColumn);
+            }
+        }
+
+        for (int y = 0; y < height; y++) {
+            PixelNode node = seam.get(y);
+            node.left = lefts[y];
+            node.right = rights[y];
+
+            if (lefts[y] != null) {
+                lefts[y].right = node;
+            }
+
+            if (rights[y] != null) {
+                rights[y].left = node;
+            }
+        }
+
+        if (columns[0] == 0) {
+            root = seam.get(0);
+        }
+
+        for (int y = 0; y + 1 < height; y++) {
+            int first = Math.min(columns[y], columns[y + 1]);
+            int last = Math.max(columns[y], columns[y + 1]);
+            PixelNode upper = walk(seam.get(y), first - columns[y]);
+            PixelNode lower = walk(seam.get(y + 1), first - columns[y + 1]);
+
+            for (int x = first; x <= last; x++) {
+                upper.down = lower;
+                lower.up = upper;
+                upper = upper.right;
+                lower = lower.right;
             }
         }
 
-        return copy;
+        markDirty(seam);
+        version = newVersion();
+
+        for (PixelNode node : seam) {
+            calculateEnergyAround(node);
+        }
     }
 
     /**
-     * Updates the image based on current pixel node 'grid'.
+     * Moves along a row.
+     * @param node The node to start from.
+     * @param steps The number of nodes to move right, or left if negative.
+     * @return The node reached.
+     */
+    private static PixelNode walk(PixelNode node, int steps) {
+        for (; steps > 0; steps--) {
+            node = node.right;
+        }
+
+        for (; steps < 0; steps++) {
+            node = node.left;
+        }
+
+        return node;
+    }
+
+    /**
+     * Removes several pixel-disjoint seams in order. Each seam stays connected as the ones before it are removed.
+     * @param seams Seams to be removed.
+     */
+    public void removeSeams(List<List<PixelNode>> seams) {
+        for (List<PixelNode> seam : seams) {
+            removeSeam(seam);
+        }
+    }
+
+    /**
+     * Restores seams removed together by removeSeams, in reverse order of removal.
+     * @param seams Seams in the order they were removed.
+     */
+    public void undoSeams(List<List<PixelNode>> seams) {
+        for (int i = seams.size() - 1; i >= 0; i--) {
+            undoSeam(seams.get(i));
+        }
+    }
+
+    /**
+     * Duplicates pixel-disjoint seams, inserting a new node to the right of every seam node. Each new node takes the
+     * average color of the seam node and its right neighbor, and vertical links are rebuilt in a single grid pass.
+     * @param seams Seams to duplicate.
+     * @return The inserted seams, in the same order as the seams they duplicate.
+     */
+    public List<List<PixelNode>> insertSeams(List<List<PixelNode>> seams) {
+        List<List<PixelNode>> insertedSeams = new ArrayList<>();
+
+        for (List<PixelNode> seam : seams) {
+            List<PixelNode> insertedSeam = new ArrayList<>();
+
+            for (PixelNode seamNode : seam) {
+                int rgb = (seamNode.right != null) ? average(seamNode.rgb, seamNode.right.rgb) : seamNode.rgb;
+                insertedSeam.add(createNode(rgb));
+            }
+
+            insertedSeams.add(insertedSeam);
+        }
+
+        for (int i = 0; i < seams.size(); i++) {
+            List<PixelNode> seam = seams.get(i);
+            List<PixelNode> insertedSeam = insertedSeams.get(i);
+
+            for (int j = 0; j < seam.size(); j++) {
+                PixelNode seamNode = seam.get(j);
+                PixelNode insertedNode = insertedSeam.get(j);
+
+                insertedNode.left = seamNode;
+                insertedNode.right = seamNode.right;
+
+                if (seamNode.right != null) {
+                    seamNode.right.left = insertedNode;
+                }
+
+                seamNode.right = insertedNode;
+            }
+        }
+
+        linkRows();
+        version = newVersion();
+
+        for (List<PixelNode> insertedSeam : insertedSeams) {
+            markDirty(insertedSeam);
+
+            for (PixelNode node : insertedSeam) {
+                calculateEnergyAround(node);
+            }
+        }
+
+        return insertedSeams;
+    }
+
+    /**
+     * Rebuilds the vertical links of the 'grid' by pairing up the nodes of each row with the row below it.
+     */
+    private void linkRows() {
+        for (PixelNode rowStart = root; rowStart != null && rowStart.down != null; rowStart = rowStart.down) {
+            linkRowPair(rowStart, rowStart.down);
+        }
+    }
+
+    /**
+     * Averages two colors channel by channel.
+     * @param first First color as a packed RGB int.
+     * @param second Second color as a packed RGB int.
+     * @return Average color as a packed RGB int.
+     */
+    private int average(int first, int second) {
+        int red = (((first >> 16) & 0xFF) + ((second >> 16) & 0xFF)) / 2;
+        int green = (((first >> 8) & 0xFF) + ((second >> 8) & 0xFF)) / 2;
+        int blue = ((first & 0xFF) + (second & 0xFF)) / 2;
+        return (red << 16) | (green << 8) | blue;
+    }
+
+    /**
+     * Creates a copy of the current pixels, such as for drawing a preview on.
+     * @return Copy of the current image.
+     */
+    public PixelBuffer copyPixels() {
+        return new PixelBuffer(image.getWidth(), image.getHeight(), image.getPixels().clone());
+    }
+
+    /**
+     * Creates a copy of the current image.
+     * @return Copy of the current image.
+     */
+    public BufferedImage deepCopyImage() {
+        return ImageIOPixels.toImage(copyPixels());
+    }
+
+    /**
+     * Updates the image based on current pixel node 'grid'. Tiles left of every seam edited since the last update are
+     * copied from the previous image, and only the remaining tiles are read from the 'grid'.
      */
     public void updateImage() {
         if (root == null) {
@@ -229,21 +884,94 @@ public class ImageRepresentation {
 
         int newWidth = calculateWidth();
         int newHeight = calculateHeight();
-        BufferedImage updatedImage = new BufferedImage(newWidth, newHeight, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = new int[newWidth * newHeight];
+        int[] previousPixels = image.getPixels();
+        boolean sameHeight = image.getHeight() == newHeight;
         PixelNode rowStart = root;
-        
+
         for (int y = 0; rowStart != null; y++) {
+            int cleanWidth = 0;
+
+            if (sameHeight) {
+                long firstDirtyColumn = (long) firstDirtyTiles[y / TILE_SIZE] * TILE_SIZE;
+                cleanWidth = (int) Math.min(firstDirtyColumn, Math.min(newWidth, image.getWidth()));
+            }
+
+            System.arraycopy(previousPixels, y * image.getWidth(), pixels, y * newWidth, cleanWidth);
+
             PixelNode node = rowStart;
+            for (int x = 0; x < cleanWidth; x++) {
+                node = node.right;
+            }
 
-            for (int x = 0; node != null; x++) {
-                updatedImage.setRGB(x, y, node.color.getRGB());
+            for (int x = cleanWidth; node != null; x++) {
+                pixels[y * newWidth + x] = node.rgb;
                 node = node.right;
             }
 
             rowStart = rowStart.down;
         }
 
-        this.image = updatedImage;
+        this.image = new PixelBuffer(newWidth, newHeight, pixels);
+        this.firstDirtyTiles = cleanTiles(newHeight);
+    }
+
+    /**
+     * Marks the tiles of the image from each node of a seam to the end of its row as out of date.
+     * Must be called while the seam is linked into the 'grid'. The column of the top node is found by walking the
+     * top row, and the column of every other node from whether it lies below, below left or below right of the one
+     * above it.
+     * @param seam The seam, with one node per row from the top.
+     */
+    private void markDirty(List<PixelNode> seam) {
+        int column = 0;
+        for (PixelNode node = root; node != null && node != seam.get(0); node = node.right) {
+            column++;
+        }
+
+        for (int y = 0; y < seam.size() && y < firstDirtyTiles.length * TILE_SIZE; y++) {
+            int tileRow = y / TILE_SIZE;
+            firstDirtyTiles[tileRow] = Math.min(firstDirtyTiles[tileRow], column / TILE_SIZE);
+
+            if (y + 1 < seam.size()) {
+                PixelNode below = seam.get(y).down;
+                PixelNode next = seam.get(y + 1);
+
+                if (below != null && below.left == next) {
+                    column = Math.max(0, column - 1);
+                } else if (below != null && below.right == next) {
+                    column++;
+                } else if (below != next) {
+                    column = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param height The height of the image.
+     * @return The first dirty tile of every row of tiles of an image that matches its 'grid'.
+     */
+    private static int[] cleanTiles(int height) {
+        int[] tiles = new int[(height + TILE_SIZE - 1) / TILE_SIZE];
+        Arrays.fill(tiles, Integer.MAX_VALUE);
+        return tiles;
+    }
+
+    /**
+     * Measures how much of the image the next updateImage has to redraw from the 'grid'. This covers the image only,
+     * since the energies are recalculated as part of every seam edit.
+     * @return The share of the tiles of the image that are out of date, between 0 and 1.
+     */
+    public double getDirtyTileRatio() {
+        int tileColumns = (calculateWidth() + TILE_SIZE - 1) / TILE_SIZE;
+        long dirtyTiles = 0;
+
+        for (int firstDirtyTile : firstDirtyTiles) {
+            dirtyTiles += Math.max(0, tileColumns - Math.min(firstDirtyTile, tileColumns));
+        }
+
+        return (tileColumns == 0) ? 0 : (double) dirtyTiles / ((long) tileColumns * firstDirtyTiles.length);
     }
 
     /**
@@ -282,10 +1010,15 @@ public class ImageRepresentation {
      * Saves the image to a file, naming based on edit count.
      * @param image Image to save.
      */
-    public void saveImage(BufferedImage image) {
+    public void saveImage(PixelBuffer image) {
+        if (!previewSaving) {
+            editCounter++;
+            return;
+        }
+
         try {
             File outputFile = new File("target/previewIMG" + editCounter + ".png");
-            ImageIO.write(image, "png", outputFile);
+            image.writeTo(ImageIOPixels.fileSink(outputFile, "png"));
             System.out.println("Edited image saved successfully to: target/previewIMG.png");
             editCounter++;
         } catch (IOException e) {
@@ -293,6 +1026,76 @@ public class ImageRepresentation {
         }
     }
 
+    /**
+     * @return True if the nodes store their energy as whole fixed-point steps.
+     */
+    public boolean isCompactPrecision() {
+        return compactPrecision;
+    }
+
+    /**
+     * Builds a new 'grid' of the current image in the given precision, keeping the edit counter and preview setting.
+     * Nodes of this 'grid' are not shared, so seams found on it do not belong to the new one.
+     * @param compactPrecision If true, the new nodes store their energy as whole fixed-point steps.
+     * @return The new ImageRepresentation.
+     */
+    public ImageRepresentation withPrecision(boolean compactPrecision) {
+        updateImage();
+
+        ImageRepresentation rebuilt = new ImageRepresentation(copyPixels(), parallel, compactPrecision);
+        rebuilt.editCounter = editCounter;
+        rebuilt.previewSaving = previewSaving;
+        return rebuilt;
+    }
+
+    /**
+     * Sets whether saveImage writes preview files to the target folder.
+     * @param previewSaving False to only count edits.
+     */
+    public void setPreviewSaving(boolean previewSaving) {
+        this.previewSaving = previewSaving;
+    }
+
+    /**
+     * Returns the number of edited images saved so far.
+     * @return Edit counter.
+     */
+    public int getEditCounter() {
+        return editCounter;
+    }
+
+    /**
+     * Sets the number of edited images saved so far, such as when resuming a session.
+     * @param editCounter New edit counter.
+     */
+    public void setEditCounter(int editCounter) {
+        this.editCounter = editCounter;
+    }
+
+    /**
+     * @return A version no 'grid' has had before.
+     */
+    private static long newVersion() {
+        return lastVersion.incrementAndGet();
+    }
+
+    /**
+     * Returns the version of the 'grid', which changes with every seam edit. Results computed from the 'grid' stay
+     * valid for as long as the version is the same.
+     * @return The version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Sets the version of the 'grid', such as when an undo brings it back to a state it had before.
+     * @param version The version of that state.
+     */
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     /**
      * Returns the root node of the pixel 'grid'.
      * @return Root node.
@@ -313,7 +1116,15 @@ public class ImageRepresentation {
      * Retrieves the current manipulated image.
      * @return Current image.
      */
-    public BufferedImage getImage() {
+    public PixelBuffer getPixels() {
         return image;
     }
+
+    /**
+     * Retrieves the current manipulated image as a BufferedImage that shares its pixels.
+     * @return Current image.
+     */
+    public BufferedImage getImage() {
+        return ImageIOPixels.toImage(image);
+    }
 }
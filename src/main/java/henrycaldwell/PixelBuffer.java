@@ -0,0 +1,126 @@
+package henrycaldwell;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * An image held as a plain array of packed RGB ints, row by row without padding.
+ */
+public class PixelBuffer implements PixelSource {
+    // The dimensions of the image.
+    private final int width, height;
+    // The pixels, row by row. The alpha byte is ignored.
+    private final int[] pixels;
+
+    /**
+     * Initializes a black image.
+     * @param width The width of the image in pixels.
+     * @param height The height of the image in pixels.
+     */
+    public PixelBuffer(int width, int height) {
+        this(width, height, new int[width * height]);
+    }
+
+    /**
+     * Initializes an image backed by an existing array, without copying it.
+     * @param width The width of the image in pixels.
+     * @param height The height of the image in pixels.
+     * @param pixels The pixels, row by row.
+     */
+    public PixelBuffer(int width, int height, int[] pixels) {
+        if (width < 0 || height < 0 || pixels.length < width * height) {
+            throw new IllegalArgumentException("The pixel array does not hold a " + width + "x" + height + " image.");
+        }
+
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+    }
+
+    /**
+     * Reads every row of a source into a new buffer, waiting for the rows of a streaming source to arrive. A streaming
+     * source is closed once it is copied or fails.
+     * @param source The pixels to copy.
+     * @return The copy.
+     * @throws UncheckedIOException If a streaming source fails to produce its rows.
+     */
+    public static PixelBuffer copyOf(PixelSource source) {
+        PixelBuffer copy = new PixelBuffer(source.getWidth(), source.getHeight());
+        int readyRows = (source instanceof StreamingPixelSource) ? 0 : copy.height;
+
+        for (int y = 0; y < copy.height; y++) {
+            if (y == readyRows) {
+                try {
+                    int rows = ((StreamingPixelSource) source).awaitRows(y);
+
+                    if (rows <= y) {
+                        throw new IOException("The image ended after " + rows + " of " + copy.height + " rows.");
+                    }
+
+                    readyRows = rows;
+                } catch (IOException e) {
+                    ((StreamingPixelSource) source).close();
+                    throw new UncheckedIOException("Failed to read row " + y + " of the image.", e);
+                }
+            }
+
+            source.readRow(y, copy.pixels, y * copy.width);
+        }
+
+        if (source instanceof StreamingPixelSource) {
+            ((StreamingPixelSource) source).close();
+        }
+
+        return copy;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public void readRow(int y, int[] row, int offset) {
+        System.arraycopy(pixels, y * width, row, offset, width);
+    }
+
+    /**
+     * @param x The column of the pixel.
+     * @param y The row of the pixel.
+     * @return The pixel as a packed RGB int.
+     */
+    public int getRGB(int x, int y) {
+        return pixels[y * width + x];
+    }
+
+    /**
+     * @param x The column of the pixel.
+     * @param y The row of the pixel.
+     * @param rgb The new color as a packed RGB int.
+     */
+    public void setRGB(int x, int y, int rgb) {
+        pixels[y * width + x] = rgb;
+    }
+
+    /**
+     * Returns the array behind the buffer, which changes along with it.
+     * @return The pixels, row by row.
+     */
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    /**
+     * Writes the image to a sink.
+     * @param sink Where to write it.
+     * @throws IOException If the sink can not write it.
+     */
+    public void writeTo(PixelSink sink) throws IOException {
+        sink.write(width, height, pixels);
+    }
+}
@@ -1,24 +1,109 @@
 package henrycaldwell;
 
-import java.awt.Color;
-
 /**
- * Represents a pixel in an image 'grid', storing its color, energy, brightness, and links to adjacent pixels.
+ * Represents a pixel in an image 'grid', storing its color, energy, and links to adjacent pixels.
+ * How the energy is stored depends on the precision of the 'grid': exact nodes keep it as a double, and compact nodes
+ * keep it as a whole number of 1 / SeamScorer.ENERGY_SCALE steps in an int.
  */
-public class PixelNode {
-    // The energy of the pixel, calculated based on the surrounding pixels' brightness.
-    // The brightness of the pixel, calculated as the average of the RGB color components.
-    double energy, brightness;
+public abstract class PixelNode {
     // References to the pixel node directly above, below, left, and right of this one in the 'grid'.
     PixelNode up, down, left, right;
-    // The color of the pixel represented by this node.
-    Color color;
+    // The color of the pixel represented by this node, as an opaque packed ARGB int.
+    int rgb;
 
     /**
      * Initializes a PixelNode with a specific color.
-     * @param color The color of the pixel.
+     * @param rgb The color of the pixel as a packed RGB int. The alpha byte is ignored and the pixel is opaque.
+     */
+    PixelNode(int rgb) {
+        this.rgb = 0xFF000000 | rgb;
+    }
+
+    /**
+     * Creates an unlinked node that stores its energy as a double.
+     * @param rgb The color of the pixel as a packed RGB int.
+     * @return The new node.
+     */
+    public static PixelNode of(int rgb) {
+        return new Exact(rgb);
+    }
+
+    /**
+     * Creates an unlinked node that stores its energy as a whole number of fixed-point steps.
+     * @param rgb The color of the pixel as a packed RGB int.
+     * @return The new node.
+     */
+    public static PixelNode compactOf(int rgb) {
+        return new Compact(rgb);
+    }
+
+    /**
+     * @return The energy of the pixel, calculated based on the surrounding pixels' brightness.
+     */
+    public abstract double energy();
+
+    /**
+     * @return The energy of the pixel in whole steps of 1 / SeamScorer.ENERGY_SCALE, rounded if it is not stored so.
+     */
+    public abstract int energySteps();
+
+    /**
+     * Sets the energy of the pixel. Compact nodes round it to the nearest step.
+     * @param energy The new energy.
+     */
+    public abstract void setEnergy(double energy);
+
+    /**
+     * A node of a 'grid' in the default precision.
      */
-    public PixelNode(Color color) {
-        this.color = color;
+    static final class Exact extends PixelNode {
+        // The energy of the pixel.
+        double energy;
+
+        Exact(int rgb) {
+            super(rgb);
+        }
+
+        @Override
+        public double energy() {
+            return energy;
+        }
+
+        @Override
+        public int energySteps() {
+            return (int) Math.round(energy * SeamScorer.ENERGY_SCALE);
+        }
+
+        @Override
+        public void setEnergy(double energy) {
+            this.energy = energy;
+        }
+    }
+
+    /**
+     * A node of a 'grid' in compact precision. Its energy takes 4 bytes rather than 8.
+     */
+    static final class Compact extends PixelNode {
+        // The energy of the pixel in whole steps of 1 / SeamScorer.ENERGY_SCALE.
+        int energySteps;
+
+        Compact(int rgb) {
+            super(rgb);
+        }
+
+        @Override
+        public double energy() {
+            return (double) energySteps / SeamScorer.ENERGY_SCALE;
+        }
+
+        @Override
+        public int energySteps() {
+            return energySteps;
+        }
+
+        @Override
+        public void setEnergy(double energy) {
+            this.energySteps = (int) Math.round(energy * SeamScorer.ENERGY_SCALE);
+        }
     }
 }
@@ -0,0 +1,17 @@
+package henrycaldwell;
+
+import java.io.IOException;
+
+/**
+ * Interface for anything a carved image can be written to, such as an encoded file.
+ */
+public interface PixelSink {
+    /**
+     * Writes an image.
+     * @param width The width of the image in pixels.
+     * @param height The height of the image in pixels.
+     * @param pixels The packed RGB ints of the image, row by row. The alpha byte is ignored.
+     * @throws IOException If the image can not be written.
+     */
+    void write(int width, int height, int[] pixels) throws IOException;
+}
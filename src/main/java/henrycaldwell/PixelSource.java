@@ -0,0 +1,25 @@
+package henrycaldwell;
+
+/**
+ * Interface for anything an image 'grid' can be built from, read one row of packed RGB ints at a time.
+ * The carving core only reads pixels through this interface, so it never needs AWT.
+ */
+public interface PixelSource {
+    /**
+     * @return The width of the image in pixels.
+     */
+    int getWidth();
+
+    /**
+     * @return The height of the image in pixels.
+     */
+    int getHeight();
+
+    /**
+     * Reads one row of pixels. Rows may be read from several threads at once.
+     * @param y The row to read.
+     * @param row Filled with the packed RGB ints of the row. The alpha byte is ignored.
+     * @param offset Where in the array the row starts.
+     */
+    void readRow(int y, int[] row, int offset);
+}
@@ -0,0 +1,47 @@
+package henrycaldwell;
+
+/**
+ * Interface for being told how far a long running edit has come.
+ */
+public interface ProgressListener {
+    /**
+     * Reports the progress of an edit.
+     * @param done The amount of work done so far.
+     * @param total The total amount of work.
+     */
+    void onProgress(int done, int total);
+
+    /**
+     * Reports the progress of an edit along with an estimate of the time it still needs, which is the time taken so
+     * far scaled by the share of work still left. Reports to onProgress unless overridden.
+     * @param done The amount of work done so far.
+     * @param total The total amount of work.
+     * @param remainingNanos The estimated time until the edit is done, in nanoseconds.
+     */
+    default void onProgress(int done, int total, long remainingNanos) {
+        onProgress(done, total);
+    }
+
+    /**
+     * Reports how many rows the current seam search has scored. Ignored unless overridden.
+     * @param rows The rows scored so far.
+     * @param totalRows The rows of the image.
+     */
+    default void onRowsScored(int rows, int totalRows) {
+    }
+
+    /**
+     * Estimates the time an edit still needs from the time it has taken so far.
+     * @param elapsedNanos The time since the edit started, in nanoseconds.
+     * @param done The amount of work done so far.
+     * @param total The total amount of work.
+     * @return The estimated remaining time in nanoseconds, or Long.MAX_VALUE if nothing is done yet.
+     */
+    static long estimateRemainingNanos(long elapsedNanos, int done, int total) {
+        if (done <= 0) {
+            return Long.MAX_VALUE;
+        }
+
+        return (long) ((double) elapsedNanos * (total - done) / done);
+    }
+}
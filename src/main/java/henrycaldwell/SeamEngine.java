@@ -0,0 +1,955 @@
+package henrycaldwell;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Finds the best vertical seams of an image grid for any SeamScorer with one dynamic programming pass.
+ * The pass walks the node links row by row and keeps the cumulative scores of the current and previous row in
+ * primitive arrays indexed by column, using long arithmetic for integral scorers and double arithmetic otherwise.
+ * Each pixel only remembers which of its three upper neighbours its best path came from, so the buffers are reused
+ * across searches and a search allocates nothing but the returned seams.
+ * Predecessors are preferred in the order left, up, right and the leftmost best seam end wins ties.
+ * A search reports every scored row to the watching listener, if any, and stops with a CancellationException at the
+ * end of the first row after the watching token is cancelled.
+ */
+public class SeamEngine {
+    // The column offset (-1, 0 or 1) of the predecessor of every pixel below the top row, in row-major order.
+    private byte[] edgeTo = new byte[0];
+    // The cumulative scores of the previous and current row for integral scorers, negated when maximizing.
+    private long[] integralCosts = new long[0], nextIntegralCosts = new long[0];
+    // The cumulative scores of the previous and current row for other scorers, negated when maximizing.
+    private double[] costs = new double[0], nextCosts = new double[0];
+    // The predecessor offsets and the cumulative scores of the previous and current row of every scorer of a fused
+    // pass, indexed by scorer first.
+    private byte[][] fusedEdgeTo = new byte[0][];
+    private double[][] fusedCosts = new double[0][], fusedNextCosts = new double[0][];
+    private long[][] fusedIntegralCosts = new long[0][], fusedNextIntegralCosts = new long[0][];
+    // The pixels already taken by a seam while selecting several disjoint seams, in row-major order.
+    private boolean[] claimed = new boolean[0];
+    // The column of every row of the seam being followed back.
+    private int[] seamColumns = new int[0];
+    // The columns of the last row ordered from the best to the worst seam ending there, and the scratch space used
+    // while ordering them.
+    private int[] seamEnds = new int[0], seamEndsScratch = new int[0];
+    // The dimensions of the grid of the last pass.
+    private int width, height;
+    // The first node of the last row of the grid of the last pass.
+    private PixelNode lastRowStart;
+    // Whether the last pass used integer arithmetic.
+    private boolean integral;
+    // Told about every scored row, or null.
+    private ProgressListener rowListener;
+    // Checked after every scored row, or null.
+    private CancellationToken cancellationToken;
+    // The cumulative score of a pixel no path of a banded search reaches.
+    private static final long UNREACHABLE = Long.MAX_VALUE;
+
+    /**
+     * Sets who is told about the rows scored by the following searches and what may stop them.
+     * @param listener Told about every scored row, or null.
+     * @param token Checked after every scored row, or null.
+     */
+    public void watch(ProgressListener listener, CancellationToken token) {
+        this.rowListener = listener;
+        this.cancellationToken = token;
+    }
+
+    /**
+     * Finds the best seam of the grid.
+     * @param root The root PixelNode of the grid.
+     * @param scorer How pixels are scored and whether the lowest or highest total wins.
+     * @return The seam from top to bottom, or an empty list if the grid is empty.
+     */
+    public List<PixelNode> findSeam(PixelNode root, SeamScorer scorer) {
+        if (root == null) {
+            return new ArrayList<>();
+        }
+
+        score(root, scorer);
+        int bestColumn = 0;
+
+        for (int x = 1; x < width; x++) {
+            if (isLower(x, bestColumn)) {
+                bestColumn = x;
+            }
+        }
+
+        return backtrack(bestColumn, false);
+    }
+
+    /**
+     * Finds the best seam for each of several scorers in a single pass over the grid. Every pixel is visited once and
+     * scored for all scorers in turn, so the links and colors of the grid are loaded once however many scorers there
+     * are. Each seam is the same as findSeam would return for its scorer.
+     * @param root The root PixelNode of the grid.
+     * @param scorers How pixels are scored and whether the lowest or highest total wins, for each seam.
+     * @return The seam of each scorer from top to bottom, in the order of the scorers, or empty lists if the grid is
+     * empty.
+     */
+    public List<List<PixelNode>> findSeams(PixelNode root, List<SeamScorer> scorers) {
+        List<List<PixelNode>> seams = new ArrayList<>();
+
+        if (root == null) {
+            for (int k = 0; k < scorers.size(); k++) {
+                seams.add(new ArrayList<>());
+            }
+            return seams;
+        }
+
+        width = 0;
+        height = 0;
+        for (PixelNode node = root; node != null; node = node.right) {
+            width++;
+        }
+        for (lastRowStart = root; lastRowStart.down != null; lastRowStart = lastRowStart.down) {
+            height++;
+        }
+        height++;
+
+        SeamScorer[] fusedScorers = scorers.toArray(new SeamScorer[0]);
+        int count = fusedScorers.length;
+        int[] signs = new int[count];
+        boolean[] integrals = new boolean[count];
+
+        for (int k = 0; k < count; k++) {
+            signs[k] = fusedScorers[k].isMaximizing() ? -1 : 1;
+            integrals[k] = fusedScorers[k].isIntegral();
+        }
+
+        ensureFusedCapacity(count);
+
+        int x = 0;
+        for (PixelNode node = root; node != null; node = node.right, x++) {
+            for (int k = 0; k < count; k++) {
+                if (integrals[k]) {
+                    fusedIntegralCosts[k][x] = signs[k] * fusedScorers[k].scoreWhole(node);
+                } else {
+                    fusedCosts[k][x] = signs[k] * fusedScorers[k].scoreNode(node);
+                }
+            }
+        }
+        finishRow(1);
+
+        int index = width;
+        for (PixelNode rowStart = root.down; rowStart != null; rowStart = rowStart.down) {
+            x = 0;
+
+            for (PixelNode node = rowStart; node != null; node = node.right, x++, index++) {
+                for (int k = 0; k < count; k++) {
+                    if (integrals[k]) {
+                        long[] previous = fusedIntegralCosts[k];
+                        int offset = bestAbove(previous, x, width);
+
+                        fusedNextIntegralCosts[k][x] = signs[k] * fusedScorers[k].scoreWhole(node) + previous[x + offset];
+                        fusedEdgeTo[k][index] = (byte) offset;
+                    } else {
+                        double[] previous = fusedCosts[k];
+                        int offset = bestAbove(previous, x, width);
+
+                        fusedNextCosts[k][x] = signs[k] * fusedScorers[k].scoreNode(node) + previous[x + offset];
+                        fusedEdgeTo[k][index] = (byte) offset;
+                    }
+                }
+            }
+
+            double[][] previous = fusedCosts;
+            fusedCosts = fusedNextCosts;
+            fusedNextCosts = previous;
+            long[][] previousIntegral = fusedIntegralCosts;
+            fusedIntegralCosts = fusedNextIntegralCosts;
+            fusedNextIntegralCosts = previousIntegral;
+            finishRow(index / width);
+        }
+
+        for (int k = 0; k < count; k++) {
+            int bestColumn = 0;
+
+            for (x = 1; x < width; x++) {
+                if (integrals[k] ? fusedIntegralCosts[k][x] < fusedIntegralCosts[k][bestColumn] : fusedCosts[k][x] < fusedCosts[k][bestColumn]) {
+                    bestColumn = x;
+                }
+            }
+
+            PixelNode end = lastRowStart;
+            for (x = 0; x < bestColumn; x++) {
+                end = end.right;
+            }
+
+            seams.add(backtrack(end, bestColumn, false, fusedEdgeTo[k]));
+        }
+
+        return seams;
+    }
+
+    /**
+     * Finds the best seam by splitting the grid into bands of rows that are searched in parallel, for tall and narrow
+     * grids whose rows are too short to split. Each band first works out the best path from every column of its top
+     * row to every column of its bottom row. These transfers are then chained from the top band down with min-plus
+     * products, keeping for every band the entry and exit column of the best path overall, and the path through each
+     * band between those two columns is finally traced again in parallel.
+     * The transfers take width times the work of findSeam, spread over the bands, so this only pays off on grids
+     * with fewer columns than there are processors. Only integral scorers are accepted, so that every transfer is
+     * summed exactly in long arithmetic and the seam has the same total score as the seam of findSeam. Where several
+     * seams are equally good it may be a different one. Rows are not reported to the watching listener, but the
+     * watching token is still checked.
+     * @param root The root PixelNode of the grid.
+     * @param scorer How pixels are scored and whether the lowest or highest total wins. Must be integral.
+     * @param bandHeight The number of rows in each band.
+     * @return The seam from top to bottom, or an empty list if the grid is empty.
+     * @throws IllegalArgumentException If the scorer is not integral or the band height is not positive.
+     */
+    public List<PixelNode> findSeamInBands(PixelNode root, SeamScorer scorer, int bandHeight) {
+        if (!scorer.isIntegral()) {
+            throw new IllegalArgumentException("Banded searches need an integral scorer.");
+        }
+        if (bandHeight < 1) {
+            throw new IllegalArgumentException("The band height must be positive.");
+        }
+        if (root == null) {
+            return new ArrayList<>();
+        }
+
+        List<PixelNode> rowStartList = new ArrayList<>();
+        for (PixelNode rowStart = root; rowStart != null; rowStart = rowStart.down) {
+            rowStartList.add(rowStart);
+        }
+
+        PixelNode[] rowStarts = rowStartList.toArray(new PixelNode[0]);
+        int columns = rowLength(root);
+        int bands = (rowStarts.length + bandHeight - 1) / bandHeight;
+        int sign = scorer.isMaximizing() ? -1 : 1;
+        long[][][] scores = new long[bands][][];
+        long[][][] transfers = new long[bands][][];
+
+        IntStream.range(0, bands).parallel().forEach(band -> {
+            scores[band] = scoreBand(rowStarts, band * bandHeight, Math.min(rowStarts.length, (band + 1) * bandHeight), columns, sign, scorer);
+            transfers[band] = new long[columns][];
+
+            for (int entry = 0; entry < columns; entry++) {
+                transfers[band][entry] = traceBand(scores[band], entry, null);
+            }
+        });
+
+        int[][] entryOfExit = new int[bands][columns];
+        int[][] exitAboveEntry = new int[bands][columns];
+        long[] out = new long[columns];
+        long[] in = new long[columns];
+
+        for (int band = 0; band < bands; band++) {
+            for (int x = 0; x < columns; x++) {
+                int above = (band > 0) ? x + bestAbove(out, x, columns) : x;
+
+                in[x] = (band > 0) ? out[above] : 0;
+                exitAboveEntry[band][x] = above;
+            }
+
+            for (int exit = 0; exit < columns; exit++) {
+                int bestEntry = -1;
+                long best = 0;
+
+                for (int entry = 0; entry < columns; entry++) {
+                    long transfer = transfers[band][entry][exit];
+
+                    if (transfer != UNREACHABLE && (bestEntry < 0 || in[entry] + transfer < best)) {
+                        best = in[entry] + transfer;
+                        bestEntry = entry;
+                    }
+                }
+
+                out[exit] = best;
+                entryOfExit[band][exit] = bestEntry;
+            }
+        }
+
+        int[] entries = new int[bands];
+        int[] exits = new int[bands];
+        int exit = 0;
+
+        for (int x = 1; x < columns; x++) {
+            if (out[x] < out[exit]) {
+                exit = x;
+            }
+        }
+
+        for (int band = bands - 1; band >= 0; band--) {
+            exits[band] = exit;
+            entries[band] = entryOfExit[band][exit];
+            exit = exitAboveEntry[band][entries[band]];
+        }
+
+        PixelNode[] seam = new PixelNode[rowStarts.length];
+
+        IntStream.range(0, bands).parallel().forEach(band -> {
+            int firstRow = band * bandHeight;
+            int rows = scores[band].length;
+            byte[] predecessors = new byte[rows * columns];
+            traceBand(scores[band], entries[band], predecessors);
+
+            PixelNode node = rowStarts[firstRow + rows - 1];
+            int column = exits[band];
+            for (int x = 0; x < column; x++) {
+                node = node.right;
+            }
+
+            for (int y = rows - 1; y >= 0; y--) {
+                seam[firstRow + y] = node;
+
+                if (y > 0) {
+                    byte offset = predecessors[y * columns + column];
+                    node = (offset < 0) ? node.up.left : (offset > 0) ? node.up.right : node.up;
+                    column += offset;
+                }
+            }
+        });
+
+        return new ArrayList<>(Arrays.asList(seam));
+    }
+
+    /**
+     * @param rowStart The first node of a row.
+     * @return The number of nodes in the row.
+     */
+    private static int rowLength(PixelNode rowStart) {
+        int length = 0;
+
+        for (PixelNode node = rowStart; node != null; node = node.right) {
+            length++;
+        }
+
+        return length;
+    }
+
+    /**
+     * Collects the whole scores of the pixels of a band of rows.
+     * @param rowStarts The first node of every row.
+     * @param firstRow The first row of the band.
+     * @param endRow The row after the last row of the band.
+     * @param columns The width of the grid.
+     * @param sign 1 when minimizing, -1 when maximizing.
+     * @param scorer How pixels are scored. Must be integral.
+     * @return The signed scores, indexed by row of the band and then column.
+     */
+    private long[][] scoreBand(PixelNode[] rowStarts, int firstRow, int endRow, int columns, int sign, SeamScorer scorer) {
+        long[][] scores = new long[endRow - firstRow][columns];
+
+        for (int y = firstRow; y < endRow; y++) {
+            int x = 0;
+
+            for (PixelNode node = rowStarts[y]; node != null; node = node.right) {
+                scores[y - firstRow][x++] = sign * scorer.scoreWhole(node);
+            }
+        }
+
+        return scores;
+    }
+
+    /**
+     * Finds the best path through a band from one column of its top row to every column of its bottom row.
+     * @param scores The signed scores of the band, indexed by row and then column.
+     * @param entry The column of the top row the paths start at.
+     * @param predecessors Filled with the predecessor offset of every pixel below the top row, or null.
+     * @return The cumulative score of the best path ending at each column of the bottom row, or UNREACHABLE where
+     * no path reaches.
+     */
+    private long[] traceBand(long[][] scores, int entry, byte[] predecessors) {
+        int columns = scores[0].length;
+        long[] cumulative = new long[columns];
+        long[] next = new long[columns];
+
+        Arrays.fill(cumulative, UNREACHABLE);
+        cumulative[entry] = scores[0][entry];
+
+        for (int y = 1; y < scores.length; y++) {
+            for (int x = 0; x < columns; x++) {
+                int offset = bestAbove(cumulative, x, columns);
+                long best = cumulative[x + offset];
+
+                next[x] = (best == UNREACHABLE) ? UNREACHABLE : scores[y][x] + best;
+                if (predecessors != null) {
+                    predecessors[y * columns + x] = (byte) offset;
+                }
+            }
+
+            long[] previous = cumulative;
+            cumulative = next;
+            next = previous;
+
+            if (cancellationToken != null) {
+                cancellationToken.throwIfCancelled();
+            }
+        }
+
+        return cumulative;
+    }
+
+    /**
+     * Finds up to count pixel-disjoint seams from a single pass.
+     * Seams are taken from the best total score down, skipping any seam that shares a pixel with one already taken,
+     * and selection stops once a seam's total drifts too far from the best seam of the pass.
+     * @param root The root PixelNode of the grid.
+     * @param scorer How pixels are scored and whether the lowest or highest total wins.
+     * @param count The maximum number of seams to return.
+     * @param maxDrift The largest allowed relative difference in total score from the best seam of the pass.
+     * @return The seams from top to bottom, ordered from best to worst total score.
+     */
+    public List<List<PixelNode>> findSeams(PixelNode root, SeamScorer scorer, int count, double maxDrift) {
+        List<List<PixelNode>> seams = new ArrayList<>();
+
+        if (root == null || count <= 0) {
+            return seams;
+        }
+
+        score(root, scorer);
+
+        sortSeamEnds();
+
+        if (claimed.length < width * height) {
+            claimed = new boolean[width * height];
+        } else {
+            Arrays.fill(claimed, 0, width * height, false);
+        }
+
+        double bestCost = costAt(seamEnds[0]);
+
+        for (int i = 0; i < width; i++) {
+            int seamEnd = seamEnds[i];
+
+            if (seams.size() == count) {
+                break;
+            }
+
+            double drift = costAt(seamEnd) - bestCost;
+            if (drift > maxDrift * Math.max(Math.abs(bestCost), 1.0)) {
+                break;
+            }
+
+            List<PixelNode> seam = backtrack(seamEnd, true);
+            if (seam != null) {
+                seams.add(seam);
+            }
+        }
+
+        return seams;
+    }
+
+    /**
+     * Finds the best seam that stays within a range of columns, with the score of masked pixels lowered by a bias.
+     * Only the nodes of those columns are visited, so the cost of a search grows with the width of the range.
+     * @param root The root PixelNode of the grid.
+     * @param scorer How pixels are scored. Must be minimizing.
+     * @param firstColumn The first column the seam may use.
+     * @param lastColumn The last column the seam may use, inclusive.
+     * @param mask The masked pixels, with row y starting at bit y * maskStride.
+     * @param maskStride The number of bits per row of the mask.
+     * @param maskBias How much lower the score of a masked pixel is.
+     * @param columns Filled with the column of the seam in every row.
+     * @return The seam from top to bottom.
+     */
+    public List<PixelNode> findSeamInColumns(PixelNode root, SeamScorer scorer, int firstColumn, int lastColumn,
+                                             BitSet mask, int maskStride, double maskBias, int[] columns) {
+        PixelNode columnStart = root;
+        for (int x = 0; x < firstColumn; x++) {
+            columnStart = columnStart.right;
+        }
+
+        width = lastColumn - firstColumn + 1;
+        height = 0;
+        for (lastRowStart = columnStart; lastRowStart.down != null; lastRowStart = lastRowStart.down) {
+            height++;
+        }
+        height++;
+
+        integral = scorer.isIntegral();
+        ensureCapacity();
+        long wholeMaskBias = integral ? scorer.toWhole(maskBias) : 0;
+
+        int y = 0;
+        int index = 0;
+        for (PixelNode rowStart = columnStart; rowStart != null; rowStart = rowStart.down, y++) {
+            double[] previous = costs;
+            long[] previousIntegral = integralCosts;
+            PixelNode node = rowStart;
+
+            for (int x = 0; x < width; x++, index++, node = node.right) {
+                boolean masked = mask.get(y * maskStride + firstColumn + x);
+
+                if (integral) {
+                    long score = scorer.scoreWhole(node) - (masked ? wholeMaskBias : 0);
+
+                    if (y == 0) {
+                        integralCosts[x] = score;
+                    } else {
+                        int offset = bestAbove(previousIntegral, x, width);
+                        nextIntegralCosts[x] = score + previousIntegral[x + offset];
+                        edgeTo[index] = (byte) offset;
+                    }
+                } else {
+                    double score = scorer.scoreNode(node) - (masked ? maskBias : 0);
+
+                    if (y == 0) {
+                        costs[x] = score;
+                    } else {
+                        int offset = bestAbove(previous, x, width);
+                        nextCosts[x] = score + previous[x + offset];
+                        edgeTo[index] = (byte) offset;
+                    }
+                }
+            }
+
+            if (y > 0 && integral) {
+                integralCosts = nextIntegralCosts;
+                nextIntegralCosts = previousIntegral;
+            } else if (y > 0) {
+                costs = nextCosts;
+                nextCosts = previous;
+            }
+
+            finishRow(y + 1);
+        }
+
+        int bestColumn = 0;
+        for (int x = 1; x < width; x++) {
+            if (isLower(x, bestColumn)) {
+                bestColumn = x;
+            }
+        }
+
+        List<PixelNode> seam = backtrack(bestColumn, false);
+        for (y = 0; y < height; y++) {
+            columns[y] = firstColumn + seamColumns[y];
+        }
+
+        return seam;
+    }
+
+    /**
+     * Finds the best seam that stays within a radius of a guide seam, such as the matching seam of the previous frame
+     * of a sequence. Only the nodes within the radius are visited, so a search costs the height times the band width.
+     * @param root The root PixelNode of the grid.
+     * @param scorer How pixels are scored and whether the lowest or highest total wins.
+     * @param guide The column of the guide seam in every row. Neighboring rows must differ by at most one column.
+     * @param radius How many columns the seam may stray from the guide on either side.
+     * @param columns Filled with the column of the seam in every row.
+     * @return The seam from top to bottom.
+     */
+    public List<PixelNode> findSeamNear(PixelNode root, SeamScorer scorer, int[] guide, int radius, int[] columns) {
+        width = 0;
+        height = 0;
+        for (PixelNode node = root; node != null; node = node.right) {
+            width++;
+        }
+        for (PixelNode node = root; node != null; node = node.down) {
+            height++;
+        }
+
+        integral = scorer.isIntegral();
+        ensureCapacity();
+
+        int sign = scorer.isMaximizing() ? -1 : 1;
+        int previousFirst = 0;
+        int previousLast = -1;
+        PixelNode windowStart = root;
+
+        for (int y = 0; y < height; y++) {
+            int first = Math.max(0, Math.min(width - 1, guide[y] - radius));
+            int last = Math.min(width - 1, Math.max(0, guide[y] + radius));
+
+            if (y > 0) {
+                windowStart = windowStart.down;
+            }
+            for (int x = previousFirst; x < first; x++) {
+                windowStart = windowStart.right;
+            }
+            for (int x = previousFirst; x > first; x--) {
+                windowStart = windowStart.left;
+            }
+
+            double[] previous = costs;
+            long[] previousIntegral = integralCosts;
+            PixelNode node = windowStart;
+
+            for (int x = first; x <= last; x++, node = node.right) {
+                byte offset = 0;
+
+                if (integral) {
+                    long score = sign * scorer.scoreWhole(node);
+
+                    if (y == 0) {
+                        integralCosts[x] = score;
+                        continue;
+                    }
+
+                    long best = Long.MAX_VALUE;
+                    for (int d = -1; d <= 1; d++) {
+                        if (x + d >= previousFirst && x + d <= previousLast && previousIntegral[x + d] < best) {
+                            best = previousIntegral[x + d];
+                            offset = (byte) d;
+                        }
+                    }
+
+                    nextIntegralCosts[x] = score + best;
+                } else {
+                    double score = sign * scorer.scoreNode(node);
+
+                    if (y == 0) {
+                        costs[x] = score;
+                        continue;
+                    }
+
+                    double best = Double.POSITIVE_INFINITY;
+                    for (int d = -1; d <= 1; d++) {
+                        if (x + d >= previousFirst && x + d <= previousLast && previous[x + d] < best) {
+                            best = previous[x + d];
+                            offset = (byte) d;
+                        }
+                    }
+
+                    nextCosts[x] = score + best;
+                }
+
+                edgeTo[y * width + x] = offset;
+            }
+
+            if (y > 0 && integral) {
+                integralCosts = nextIntegralCosts;
+                nextIntegralCosts = previousIntegral;
+            } else if (y > 0) {
+                costs = nextCosts;
+                nextCosts = previous;
+            }
+
+            lastRowStart = windowStart;
+            previousFirst = first;
+            previousLast = last;
+            finishRow(y + 1);
+        }
+
+        int bestColumn = previousFirst;
+        for (int x = previousFirst + 1; x <= previousLast; x++) {
+            if (isLower(x, bestColumn)) {
+                bestColumn = x;
+            }
+        }
+
+        PixelNode end = lastRowStart;
+        for (int x = previousFirst; x < bestColumn; x++) {
+            end = end.right;
+        }
+
+        List<PixelNode> seam = backtrack(end, bestColumn, false, edgeTo);
+        System.arraycopy(seamColumns, 0, columns, 0, height);
+
+        return seam;
+    }
+
+    /**
+     * Fills in the cumulative score of every pixel and the predecessor of every pixel below the top row.
+     * @param root The root PixelNode of the grid.
+     * @param scorer How pixels are scored and whether the lowest or highest total wins.
+     */
+    private void score(PixelNode root, SeamScorer scorer) {
+        width = 0;
+        height = 0;
+
+        for (PixelNode node = root; node != null; node = node.right) {
+            width++;
+        }
+        for (lastRowStart = root; lastRowStart.down != null; lastRowStart = lastRowStart.down) {
+            height++;
+        }
+        height++;
+
+        integral = scorer.isIntegral();
+        ensureCapacity();
+
+        if (integral) {
+            scoreIntegral(root, scorer.isMaximizing() ? -1 : 1, scorer);
+        } else {
+            scoreReal(root, scorer.isMaximizing() ? -1 : 1, scorer);
+        }
+    }
+
+    /**
+     * Runs the pass with long arithmetic.
+     * @param root The root PixelNode of the grid.
+     * @param sign 1 when minimizing, -1 when maximizing.
+     * @param scorer How pixels are scored.
+     */
+    private void scoreIntegral(PixelNode root, int sign, SeamScorer scorer) {
+        int x = 0;
+        for (PixelNode node = root; node != null; node = node.right) {
+            integralCosts[x++] = sign * scorer.scoreWhole(node);
+        }
+        finishRow(1);
+
+        int index = width;
+        for (PixelNode rowStart = root.down; rowStart != null; rowStart = rowStart.down) {
+            long[] previous = integralCosts;
+            x = 0;
+
+            for (PixelNode node = rowStart; node != null; node = node.right, x++, index++) {
+                long best = previous[x];
+                byte offset = 0;
+
+                if (x > 0 && previous[x - 1] <= best) {
+                    best = previous[x - 1];
+                    offset = -1;
+                }
+                if (x + 1 < width && previous[x + 1] < best) {
+                    best = previous[x + 1];
+                    offset = 1;
+                }
+
+                nextIntegralCosts[x] = sign * scorer.scoreWhole(node) + best;
+                edgeTo[index] = offset;
+            }
+
+            integralCosts = nextIntegralCosts;
+            nextIntegralCosts = previous;
+            finishRow(index / width);
+        }
+    }
+
+    /**
+     * Runs the pass with double arithmetic.
+     * @param root The root PixelNode of the grid.
+     * @param sign 1 when minimizing, -1 when maximizing.
+     * @param scorer How pixels are scored.
+     */
+    private void scoreReal(PixelNode root, int sign, SeamScorer scorer) {
+        int x = 0;
+        for (PixelNode node = root; node != null; node = node.right) {
+            costs[x++] = sign * scorer.scoreNode(node);
+        }
+        finishRow(1);
+
+        int index = width;
+        for (PixelNode rowStart = root.down; rowStart != null; rowStart = rowStart.down) {
+            double[] previous = costs;
+            x = 0;
+
+            for (PixelNode node = rowStart; node != null; node = node.right, x++, index++) {
+                double best = previous[x];
+                byte offset = 0;
+
+                if (x > 0 && previous[x - 1] <= best) {
+                    best = previous[x - 1];
+                    offset = -1;
+                }
+                if (x + 1 < width && previous[x + 1] < best) {
+                    best = previous[x + 1];
+                    offset = 1;
+                }
+
+                nextCosts[x] = sign * scorer.scoreNode(node) + best;
+                edgeTo[index] = offset;
+            }
+
+            costs = nextCosts;
+            nextCosts = previous;
+            finishRow(index / width);
+        }
+    }
+
+    /**
+     * Picks the best of the pixels above a pixel, preferring the left one, then the one straight up, then the right one.
+     * @param previous The cumulative scores of the row above.
+     * @param x The column of the pixel.
+     * @param width The number of columns.
+     * @return The column offset (-1, 0 or 1) of the best pixel above.
+     */
+    private static int bestAbove(long[] previous, int x, int width) {
+        int offset = 0;
+
+        if (x > 0 && previous[x - 1] <= previous[x]) {
+            offset = -1;
+        }
+        if (x + 1 < width && previous[x + 1] < previous[x + offset]) {
+            offset = 1;
+        }
+
+        return offset;
+    }
+
+    /**
+     * Picks the best of the pixels above a pixel, preferring the left one, then the one straight up, then the right one.
+     * @param previous The cumulative scores of the row above.
+     * @param x The column of the pixel.
+     * @param width The number of columns.
+     * @return The column offset (-1, 0 or 1) of the best pixel above.
+     */
+    private static int bestAbove(double[] previous, int x, int width) {
+        int offset = 0;
+
+        if (x > 0 && previous[x - 1] <= previous[x]) {
+            offset = -1;
+        }
+        if (x + 1 < width && previous[x + 1] < previous[x + offset]) {
+            offset = 1;
+        }
+
+        return offset;
+    }
+
+    /**
+     * Reports a scored row and stops the search if it has been cancelled.
+     * @param rows The rows scored so far.
+     */
+    private void finishRow(int rows) {
+        if (rowListener != null) {
+            rowListener.onRowsScored(rows, height);
+        }
+        if (cancellationToken != null) {
+            cancellationToken.throwIfCancelled();
+        }
+    }
+
+    /**
+     * Grows the buffers if the grid of this pass is larger than any before it.
+     */
+    private void ensureCapacity() {
+        if (edgeTo.length < width * height) {
+            edgeTo = new byte[width * height];
+        }
+        if (seamColumns.length < height) {
+            seamColumns = new int[height];
+        }
+
+        if (integral && integralCosts.length < width) {
+            integralCosts = new long[width];
+            nextIntegralCosts = new long[width];
+        } else if (!integral && costs.length < width) {
+            costs = new double[width];
+            nextCosts = new double[width];
+        }
+    }
+
+    /**
+     * Grows the buffers of a fused pass if it has more scorers or a larger grid than any before it.
+     * @param count The number of scorers.
+     */
+    private void ensureFusedCapacity(int count) {
+        if (seamColumns.length < height) {
+            seamColumns = new int[height];
+        }
+
+        if (fusedEdgeTo.length < count || (count > 0 && fusedEdgeTo[0].length < width * height)) {
+            fusedEdgeTo = new byte[count][width * height];
+        }
+        if (fusedCosts.length < count || (count > 0 && fusedCosts[0].length < width)) {
+            fusedCosts = new double[count][width];
+            fusedNextCosts = new double[count][width];
+            fusedIntegralCosts = new long[count][width];
+            fusedNextIntegralCosts = new long[count][width];
+        }
+    }
+
+    /**
+     * Orders the columns of the last row from the best to the worst seam ending there with a bottom-up merge sort.
+     * The sort is stable, so seams with equal totals keep their left to right order.
+     */
+    private void sortSeamEnds() {
+        if (seamEnds.length < width) {
+            seamEnds = new int[width];
+            seamEndsScratch = new int[width];
+        }
+
+        for (int x = 0; x < width; x++) {
+            seamEnds[x] = x;
+        }
+
+        for (int run = 1; run < width; run *= 2) {
+            for (int start = 0; start < width; start += 2 * run) {
+                int middle = Math.min(start + run, width);
+                int end = Math.min(start + 2 * run, width);
+                int left = start;
+                int right = middle;
+
+                for (int i = start; i < end; i++) {
+                    if (left < middle && (right == end || !isLower(seamEnds[right], seamEnds[left]))) {
+                        seamEndsScratch[i] = seamEnds[left++];
+                    } else {
+                        seamEndsScratch[i] = seamEnds[right++];
+                    }
+                }
+            }
+
+            int[] sorted = seamEndsScratch;
+            seamEndsScratch = seamEnds;
+            seamEnds = sorted;
+        }
+    }
+
+    /**
+     * Looks up the cumulative score of the seam ending at a column of the last row.
+     * @param column A column of the last row.
+     * @return The cumulative score of the seam ending there, negated when maximizing.
+     */
+    private double costAt(int column) {
+        return integral ? integralCosts[column] : costs[column];
+    }
+
+    /**
+     * Compares the seams ending at two columns of the last row.
+     * @param column A column of the last row.
+     * @param otherColumn Another column of the last row.
+     * @return True if the seam ending at the first column is strictly better than the one ending at the second.
+     */
+    private boolean isLower(int column, int otherColumn) {
+        return integral ? integralCosts[column] < integralCosts[otherColumn] : costs[column] < costs[otherColumn];
+    }
+
+    /**
+     * Follows the predecessors from a pixel of the last row back to the top row.
+     * @param column The column of the last row the seam ends at.
+     * @param claim If true, stop at pixels already claimed by another seam and claim the pixels of a complete seam.
+     * @return The seam from top to bottom, or null if it ran into a claimed pixel.
+     */
+    private List<PixelNode> backtrack(int column, boolean claim) {
+        PixelNode node = lastRowStart;
+        for (int x = 0; x < column; x++) {
+            node = node.right;
+        }
+
+        return backtrack(node, column, claim, edgeTo);
+    }
+
+    /**
+     * Follows the predecessors from a given pixel of the last row back to the top row.
+     * @param node The pixel of the last row the seam ends at.
+     * @param column Its column.
+     * @param claim If true, stop at pixels already claimed by another seam and claim the pixels of a complete seam.
+     * @param predecessors The predecessor offsets of the pass, in row-major order.
+     * @return The seam from top to bottom, or null if it ran into a claimed pixel.
+     */
+    private List<PixelNode> backtrack(PixelNode node, int column, boolean claim, byte[] predecessors) {
+        List<PixelNode> seam = new ArrayList<>(height);
+
+        for (int y = height - 1; ; y--) {
+            if (claim && claimed[y * width + column]) {
+                return null;
+            }
+
+            seam.add(node);
+            seamColumns[y] = column;
+
+            if (y == 0) {
+                break;
+            }
+
+            byte offset = predecessors[y * width + column];
+            node = (offset < 0) ? node.up.left : (offset > 0) ? node.up.right : node.up;
+            column += offset;
+        }
+
+        if (claim) {
+            for (int y = 0; y < height; y++) {
+                claimed[y * width + seamColumns[y]] = true;
+            }
+        }
+
+        Collections.reverse(seam);
+        return seam;
+    }
+}
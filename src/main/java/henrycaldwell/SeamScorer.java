@@ -0,0 +1,173 @@
+package henrycaldwell;
+
+import java.util.Objects;
+
+/**
+ * Scores the pixels of a seam as a weighted sum of their red, green and blue channels plus an optional share of their
+ * energy, and says whether the best seam has the lowest or the highest total score.
+ * Scorers without an energy share only produce whole numbers, so their seams are found with integer arithmetic.
+ * Compact scorers count energy in whole steps of 1 / ENERGY_SCALE and the energy weight in whole steps of
+ * 1 / WEIGHT_SCALE, so their seams are found with integer arithmetic too, and match the seams of the plain scorer
+ * unless two totals lie within rounding of each other.
+ */
+public class SeamScorer {
+    // The weights of the red, green and blue channels.
+    private final int redWeight, greenWeight, blueWeight;
+    // The weight of the pixel energy, or zero to score by color alone.
+    private final double energyWeight;
+    // Whether the best seam has the highest total score rather than the lowest.
+    private final boolean maximize;
+    // Whether energy is counted in whole steps of 1 / ENERGY_SCALE, so that every score is a whole number.
+    private final boolean compact;
+    // The integer factors a compact scorer multiplies the energy steps and the weighted channel sum of a pixel by.
+    private final long energyFactor, colorFactor;
+    // Whether any channel has a weight.
+    private final boolean scoresColor;
+    // The number of fixed-point steps per unit of energy. The largest energy takes under 2^27 steps, so it fits in an
+    // int, and a long holds the total of any seam short enough to fit in memory.
+    public static final int ENERGY_SCALE = 1 << 16;
+    // The number of fixed-point steps per unit of energy weight in a compact scorer.
+    static final int WEIGHT_SCALE = 1 << 8;
+
+    /**
+     * Initializes a scorer from its weights and objective.
+     * @param redWeight The weight of the red channel.
+     * @param greenWeight The weight of the green channel.
+     * @param blueWeight The weight of the blue channel.
+     * @param energyWeight The weight of the pixel energy, or zero to score by color alone.
+     * @param maximize If true, the best seam has the highest total score, otherwise the lowest.
+     */
+    public SeamScorer(int redWeight, int greenWeight, int blueWeight, double energyWeight, boolean maximize) {
+        this(redWeight, greenWeight, blueWeight, energyWeight, maximize, false);
+    }
+
+    private SeamScorer(int redWeight, int greenWeight, int blueWeight, double energyWeight, boolean maximize, boolean compact) {
+        this.redWeight = redWeight;
+        this.greenWeight = greenWeight;
+        this.blueWeight = blueWeight;
+        this.energyWeight = energyWeight;
+        this.maximize = maximize;
+        this.compact = compact;
+        this.energyFactor = Math.round(energyWeight * WEIGHT_SCALE);
+        this.colorFactor = (long) ENERGY_SCALE * WEIGHT_SCALE;
+        this.scoresColor = redWeight != 0 || greenWeight != 0 || blueWeight != 0;
+    }
+
+    /**
+     * @return A scorer with the same weights and objective that counts energy in fixed-point steps.
+     */
+    public SeamScorer compact() {
+        return new SeamScorer(redWeight, greenWeight, blueWeight, energyWeight, maximize, true);
+    }
+
+    /**
+     * @return A scorer for the seam with the lowest total energy.
+     */
+    public static SeamScorer lowestEnergy() {
+        return new SeamScorer(0, 0, 0, 1.0, false);
+    }
+
+    /**
+     * @return A scorer for the seam with the highest total blue channel.
+     */
+    public static SeamScorer bluest() {
+        return new SeamScorer(0, 0, 1, 0.0, true);
+    }
+
+    /**
+     * @return A scorer for the seam with the highest total red channel.
+     */
+    public static SeamScorer reddest() {
+        return new SeamScorer(1, 0, 0, 0.0, true);
+    }
+
+    /**
+     * @return A scorer for the seam with the highest total green channel.
+     */
+    public static SeamScorer greenest() {
+        return new SeamScorer(0, 1, 0, 0.0, true);
+    }
+
+    /**
+     * @return True if every score is a whole number, so seams can be found with integer arithmetic.
+     */
+    public boolean isIntegral() {
+        return energyWeight == 0.0 || compact;
+    }
+
+    /**
+     * @return True if the best seam has the highest total score rather than the lowest.
+     */
+    public boolean isMaximizing() {
+        return maximize;
+    }
+
+    /**
+     * Calculates the weighted channel sum of a color.
+     * @param rgb The color as a packed RGB int.
+     * @return The weighted sum of its red, green and blue channels.
+     */
+    public long scoreColor(int rgb) {
+        return (long) redWeight * ((rgb >> 16) & 0xFF) + (long) greenWeight * ((rgb >> 8) & 0xFF) + (long) blueWeight * (rgb & 0xFF);
+    }
+
+    /**
+     * Calculates the full score of a pixel as a whole number, for integral scorers. Compact scorers read the energy
+     * steps the node stores and count the score in steps of 1 / (ENERGY_SCALE * WEIGHT_SCALE).
+     * @param node The pixel to score.
+     * @return The weighted channel sum of the pixel, plus its weighted energy in fixed-point steps if compact.
+     */
+    public long scoreWhole(PixelNode node) {
+        if (!compact) {
+            return scoreColor(node.rgb);
+        }
+
+        long score = energyFactor * node.energySteps();
+
+        if (scoresColor) {
+            score += scoreColor(node.rgb) * colorFactor;
+        }
+
+        return score;
+    }
+
+    /**
+     * Converts a score into the units of scoreWhole, for integral scorers.
+     * @param score A score as scoreNode counts it.
+     * @return The nearest whole score.
+     */
+    public long toWhole(double score) {
+        return Math.round(compact ? score * colorFactor : score);
+    }
+
+    /**
+     * Calculates the full score of a pixel, including its share of the energy.
+     * @param node The pixel to score.
+     * @return The weighted energy of the pixel plus its weighted channel sum.
+     */
+    public double scoreNode(PixelNode node) {
+        double score = energyWeight * node.energy();
+
+        if (scoresColor) {
+            score += scoreColor(node.rgb);
+        }
+
+        return score;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof SeamScorer)) {
+            return false;
+        }
+
+        SeamScorer scorer = (SeamScorer) other;
+        return redWeight == scorer.redWeight && greenWeight == scorer.greenWeight && blueWeight == scorer.blueWeight
+                && Double.compare(energyWeight, scorer.energyWeight) == 0 && maximize == scorer.maximize && compact == scorer.compact;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(redWeight, greenWeight, blueWeight, energyWeight, maximize, compact);
+    }
+}
@@ -0,0 +1,324 @@
+package henrycaldwell;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Narrows a sequence of frames, such as the extracted frames of a video, by the same number of seams each.
+ * The first frame is carved with an unconstrained search. Every later frame of the same size looks for each seam only
+ * within a band around the matching seam of the frame before it, which keeps the seams from jumping between frames
+ * and makes each search cost the height times the band width.
+ * Decoding, carving and encoding each run on their own thread pool, and at most a few frames per thread are held in
+ * each stage at any time. Every frame is carved on its own thread and searches for each seam as soon as the previous
+ * frame has found the matching one, so consecutive frames are carved in a staggered wavefront rather than one by one.
+ */
+public class SequenceCarver {
+    // How many seams are removed from every frame.
+    private final int seamCount;
+    // How many columns a seam may stray on either side of the matching seam of the previous frame.
+    private final int bandRadius;
+    // How many threads decode, carve and encode frames, which also bounds the frames held in each stage.
+    private final int threads;
+    // Finds the seams on each carving thread, reusing its buffers from one frame to the next.
+    private final ThreadLocal<SeamEngine> seamEngines = ThreadLocal.withInitial(SeamEngine::new);
+
+    /**
+     * Initializes a sequence carver.
+     * @param seamCount How many seams to remove from every frame.
+     * @param bandRadius How many columns a seam may stray from the matching seam of the previous frame.
+     * @param threads How many threads decode, how many carve and how many encode frames.
+     */
+    public SequenceCarver(int seamCount, int bandRadius, int threads) {
+        if (seamCount < 0 || bandRadius < 1 || threads < 1) {
+            throw new IllegalArgumentException("The seam count must not be negative and the band radius and threads must be positive.");
+        }
+
+        this.seamCount = seamCount;
+        this.bandRadius = bandRadius;
+        this.threads = threads;
+    }
+
+    /**
+     * Lists the image files of a directory in name order.
+     * @param directory The directory holding the frames.
+     * @return The paths of its PNG, JPEG and BMP files.
+     * @throws IOException If the directory can not be listed.
+     */
+    public static List<Path> listFrames(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().toLowerCase().matches(".*\\.(png|jpe?g|bmp)"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Carves every frame and writes it as a PNG with the same file name to the output directory.
+     * @param frames The frames in playback order.
+     * @param outputDirectory Where the carved frames are written.
+     * @param listener Told how many frames have been carved after each frame, or null.
+     * @throws IOException If the output directory can not be created.
+     */
+    public void carve(List<Path> frames, Path outputDirectory, ProgressListener listener) throws IOException {
+        Files.createDirectories(outputDirectory);
+
+        ExecutorService decoders = Executors.newFixedThreadPool(threads);
+        ExecutorService carvers = Executors.newFixedThreadPool(threads);
+        ExecutorService encoders = Executors.newFixedThreadPool(threads);
+        BlockingQueue<Future<BufferedImage>> decoded = new ArrayBlockingQueue<>(threads);
+        Semaphore carveSlots = new Semaphore(threads);
+        Semaphore encodeSlots = new Semaphore(threads);
+        Deque<Future<BufferedImage>> carving = new ArrayDeque<>();
+        List<Future<?>> encoded = new ArrayList<>();
+
+        Thread feeder = new Thread(() -> {
+            try {
+                for (Path frame : frames) {
+                    decoded.put(decoders.submit(() -> readFrame(frame)));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "sequence-decode-feeder");
+        feeder.setDaemon(true);
+        feeder.start();
+
+        try {
+            FrameSeams previous = null;
+            int carved = 0;
+
+            for (int i = 0; i < frames.size(); i++) {
+                BufferedImage frame = decoded.take().get();
+                FrameSeams seams = new FrameSeams(frame.getWidth(), frame.getHeight(), Math.min(seamCount, frame.getWidth() - 1));
+                FrameSeams guides = (previous != null && previous.isCoherentWith(seams)) ? previous : null;
+
+                carveSlots.acquire();
+                carving.add(carvers.submit(() -> {
+                    try {
+                        return carveFrame(frame, guides, seams);
+                    } finally {
+                        carveSlots.release();
+                    }
+                }));
+                previous = seams;
+
+                while (!carving.isEmpty() && carving.peek().isDone()) {
+                    encode(carving.poll().get(), outputOf(frames.get(carved), outputDirectory), encoders, encodeSlots, encoded);
+                    report(listener, ++carved, frames.size());
+                }
+            }
+
+            while (!carving.isEmpty()) {
+                encode(carving.poll().get(), outputOf(frames.get(carved), outputDirectory), encoders, encodeSlots, encoded);
+                report(listener, ++carved, frames.size());
+            }
+
+            for (Future<?> future : encoded) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while carving the sequence", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to carve the sequence: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            feeder.interrupt();
+            decoders.shutdownNow();
+            carvers.shutdownNow();
+            encoders.shutdown();
+        }
+    }
+
+    /**
+     * @param frame The path of a frame.
+     * @param outputDirectory Where the carved frames are written.
+     * @return The path of the carved frame, a PNG with the same file name.
+     */
+    private static Path outputOf(Path frame, Path outputDirectory) {
+        return outputDirectory.resolve(frame.getFileName().toString().replaceFirst("\\.[^.]*$", "") + ".png");
+    }
+
+    /**
+     * Hands a carved frame to the encoders once an encode slot is free, after checking the encodes that have finished.
+     * @param carved The carved frame.
+     * @param output Where to write it.
+     * @param encoders The encoding thread pool.
+     * @param encodeSlots Bounds the frames waiting to be encoded.
+     * @param encoded The encodes submitted so far and not yet checked.
+     * @throws ExecutionException If a finished encode failed.
+     * @throws InterruptedException If interrupted while waiting for an encode slot.
+     */
+    private static void encode(BufferedImage carved, Path output, ExecutorService encoders, Semaphore encodeSlots,
+                               List<Future<?>> encoded) throws ExecutionException, InterruptedException {
+        encodeSlots.acquire();
+        encoded.add(encoders.submit(() -> {
+            try {
+                writeFrame(carved, output);
+            } finally {
+                encodeSlots.release();
+            }
+            return null;
+        }));
+        checkFinished(encoded);
+    }
+
+    /**
+     * @param listener Told how many frames have been carved, or null.
+     * @param done The frames carved so far.
+     * @param total The frames of the sequence.
+     */
+    private static void report(ProgressListener listener, int done, int total) {
+        if (listener != null) {
+            listener.onProgress(done, total);
+        }
+    }
+
+    /**
+     * Drops the encodes that have finished, so the list does not grow with the sequence, after making sure each of them
+     * succeeded.
+     * @param encoded The encodes submitted so far and not yet checked.
+     * @throws ExecutionException If a finished encode failed.
+     * @throws InterruptedException Never in practice, since only finished encodes are waited for.
+     */
+    private static void checkFinished(List<Future<?>> encoded) throws ExecutionException, InterruptedException {
+        Iterator<Future<?>> iterator = encoded.iterator();
+
+        while (iterator.hasNext()) {
+            Future<?> future = iterator.next();
+
+            if (future.isDone()) {
+                future.get();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes the seams of one frame, each within the band around the matching seam of the previous frame if there is
+     * one, waiting for that seam to be found first.
+     * @param frame The decoded frame.
+     * @param guides The seams of the previous frame, or null.
+     * @param seams Filled with the seams of this frame as they are found.
+     * @return The carved frame.
+     * @throws InterruptedException If interrupted while waiting for a seam of the previous frame.
+     */
+    private BufferedImage carveFrame(BufferedImage frame, FrameSeams guides, FrameSeams seams) throws InterruptedException {
+        try {
+            SeamEngine seamEngine = seamEngines.get();
+            ImageRepresentation imageRep = new ImageRepresentation(frame);
+            int[] fullWidth = new int[frame.getHeight()];
+
+            for (int i = 0; i < seams.columns.length; i++) {
+                int[] guide = (guides != null) ? guides.await(i) : fullWidth;
+                int radius = (guides != null) ? bandRadius : frame.getWidth();
+                List<PixelNode> seam = seamEngine.findSeamNear(imageRep.getRoot(), SeamScorer.lowestEnergy(), guide, radius, seams.columns[i]);
+
+                seams.publish();
+                imageRep.removeSeam(seam);
+            }
+
+            imageRep.updateImage();
+            return imageRep.getImage();
+        } catch (RuntimeException | InterruptedException e) {
+            seams.fail();
+            throw e;
+        }
+    }
+
+    /**
+     * Decodes a frame.
+     * @param frame The path of the frame.
+     * @return The decoded frame.
+     */
+    private static BufferedImage readFrame(Path frame) {
+        try {
+            return new ImageLoader().load(frame.toString());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to load image from path: " + frame, e);
+        }
+    }
+
+    /**
+     * Encodes a frame as a PNG.
+     * @param image The carved frame.
+     * @param output Where to write it.
+     */
+    private static void writeFrame(BufferedImage image, Path output) {
+        try {
+            ImageIO.write(image, "png", output.toFile());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write frame to path: " + output, e);
+        }
+    }
+
+    /**
+     * The seams of one frame, published one at a time so that the next frame can start searching for each seam as
+     * soon as the matching one is found.
+     */
+    private static class FrameSeams {
+        // The size of the frame.
+        private final int width, height;
+        // The column of every seam in every row, indexed by seam and then row.
+        private final int[][] columns;
+        // How many seams have been found so far.
+        private int found;
+        // Whether carving the frame failed, so its remaining seams will never be found.
+        private boolean failed;
+
+        FrameSeams(int width, int height, int seamCount) {
+            this.width = width;
+            this.height = height;
+            this.columns = new int[seamCount][height];
+        }
+
+        /**
+         * @param next The seams of the following frame.
+         * @return True if the following frame has the same size and seam count, so these seams can guide it.
+         */
+        boolean isCoherentWith(FrameSeams next) {
+            return columns.length > 0 && columns.length == next.columns.length && width == next.width && height == next.height;
+        }
+
+        /**
+         * Marks the next seam as found.
+         */
+        synchronized void publish() {
+            found++;
+            notifyAll();
+        }
+
+        /**
+         * Marks the frame as failed, waking every frame waiting for its seams.
+         */
+        synchronized void fail() {
+            failed = true;
+            notifyAll();
+        }
+
+        /**
+         * Waits until a seam has been found.
+         * @param seam The index of the seam.
+         * @return The column of the seam in every row.
+         * @throws InterruptedException If interrupted while waiting.
+         * @throws IllegalStateException If carving the frame failed before the seam was found.
+         */
+        synchronized int[] await(int seam) throws InterruptedException {
+            while (found <= seam && !failed) {
+                wait();
+            }
+            if (found <= seam) {
+                throw new IllegalStateException("The previous frame could not be carved.");
+            }
+
+            return columns[seam];
+        }
+    }
+}
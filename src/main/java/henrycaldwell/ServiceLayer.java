@@ -1,12 +1,13 @@
 package henrycaldwell;
 
-import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.function.IntUnaryOperator;
 
 /**
  * Manages image manipulation tasks like finding and removing seams and supports undoing changes.
@@ -18,26 +19,283 @@ public class ServiceLayer {
     private List<PixelNode> lastFoundSeam;
     // A history of edit commands that have been applied to the image.
     private Stack<EditCommand> editHistory = new Stack<>();
+    // Edits that have been undone and can be redone, most recently undone on top. Cleared by any new edit.
+    private Stack<EditCommand> redoHistory = new Stack<>();
+    // Finds seams, reusing its buffers from one search to the next.
+    private final SeamEngine seamEngine = new SeamEngine();
+    // Where edits are journaled so the session can be resumed, or null if the session is not being saved.
+    private SessionStore sessionStore;
+    // The largest relative energy increase over the best seam of a pass that a batched seam removal will accept.
+    private static final double MAX_ENERGY_DRIFT = 0.5;
+    // The seams found for recent versions of the 'grid', by version and scorer, least recently used first.
+    private final Map<SeamKey, List<PixelNode>> seamCache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<SeamKey, List<PixelNode>> eldest) {
+            return size() > SEAM_CACHE_SIZE;
+        }
+    };
+    // How many seams the cache holds.
+    private static final int SEAM_CACHE_SIZE = 16;
+    // Whether lowest energy seams are found with fixed-point energies and long cumulative costs.
+    private boolean compactPrecision = false;
 
     /**
      * Initializes with an image loaded from the provided file path.
      * @param filePath The path to the image file.
      */
     public ServiceLayer(String filePath) {
-        this.imageRep = new ImageRepresentation(loadImage(filePath));
+        this.imageRep = loadImageRepresentation(filePath, new ImageLoader());
+    }
+
+    /**
+     * Initializes with an image decoded by a loader, such as a subsampled preview or a region of a huge file.
+     * @param filePath The path to the image file.
+     * @param imageLoader Decides which part of the file is decoded and at what resolution.
+     */
+    public ServiceLayer(String filePath, ImageLoader imageLoader) {
+        this.imageRep = loadImageRepresentation(filePath, imageLoader);
+    }
+
+    /**
+     * Initializes with an image loaded through a cache of decoded grids, so repeat loads of the same file skip
+     * decoding and the energy pass.
+     * @param filePath The path to the image file.
+     * @param gridCache The cache to read from and store into.
+     */
+    public ServiceLayer(String filePath, GridCache gridCache) {
+        this.imageRep = loadImageRepresentation(filePath, gridCache);
+    }
+
+    /**
+     * Resumes a saved session, restoring the image, the undo history and the edit counter. The 'grid' is built once from
+     * the saved image, the recorded seams are relinked back into it from the newest edit to the oldest, and the edits
+     * are then applied again. Only the nodes next to each seam are touched, so no seams are searched for and no row of
+     * the image is rebuilt per edit.
+     * @param sessionStore The store holding the saved session. Further edits are journaled to it.
+     */
+    public ServiceLayer(SessionStore sessionStore) {
+        SessionStore.Session session;
+
+        try {
+            session = sessionStore.load();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to resume the session.", e);
+        }
+
+        this.imageRep = new ImageRepresentation(toPixels(session.rows));
+        Deque<SeamEditCommand> reverted = new ArrayDeque<>();
+
+        for (int i = session.history.size() - 1; i >= 0; i--) {
+            SessionStore.Edit edit = session.history.get(i);
+            reverted.push((edit.kind == SessionStore.Edit.Kind.REMOVE) ? revertRemoval(edit) : revertInsertion(edit));
+        }
+
+        while (!reverted.isEmpty()) {
+            SeamEditCommand command = reverted.pop();
+            command.versionBefore = imageRep.getVersion();
+            command.apply();
+            command.versionAfter = imageRep.getVersion();
+            editHistory.push(command);
+        }
+
+        imageRep.updateImage();
+        imageRep.setEditCounter(session.editCounter);
+        this.sessionStore = sessionStore;
+    }
+
+    /**
+     * Converts rows of pixels into an image.
+     * @param rows The pixels, indexed by row and then column.
+     * @return The image.
+     */
+    private PixelBuffer toPixels(int[][] rows) {
+        int width = rows[0].length;
+        PixelBuffer image = new PixelBuffer(width, rows.length);
+
+        for (int y = 0; y < rows.length; y++) {
+            System.arraycopy(rows[y], 0, image.getPixels(), y * width, width);
+        }
+
+        return image;
+    }
+
+    /**
+     * Links the seams of a recorded removal back into the 'grid' as new nodes, in reverse order of removal.
+     * Each seam goes back to its column in the 'grid' it was removed from, which is its recorded column less the
+     * number of seams removed before it that lay to its left in the same row.
+     * @param edit The recorded removal.
+     * @return A command that removes the restored seams again when applied.
+     */
+    private SeamEditCommand revertRemoval(SessionStore.Edit edit) {
+        int count = edit.columns.length;
+        int height = (count > 0) ? edit.columns[0].length : 0;
+        int[][] columns = new int[count][height];
+
+        for (int y = 0; y < height; y++) {
+            int[] removedBefore = new int[count + 1];
+
+            for (int seam : edit.orderInRow(y)) {
+                int left = 0;
+                for (int i = seam; i > 0; i -= i & -i) {
+                    left += removedBefore[i];
+                }
+
+                columns[seam][y] = edit.columns[seam][y] - left;
+
+                for (int i = seam + 1; i <= count; i += i & -i) {
+                    removedBefore[i]++;
+                }
+            }
+        }
+
+        List<List<PixelNode>> seams = new ArrayList<>(Collections.nCopies(count, null));
+
+        for (int seam = count - 1; seam >= 0; seam--) {
+            List<PixelNode> nodes = new ArrayList<>();
+
+            for (int rgb : edit.rgbs[seam]) {
+                nodes.add(imageRep.createNode(rgb));
+            }
+
+            imageRep.linkSeamAt(nodes, columns[seam]);
+            seams.set(seam, nodes);
+        }
+
+        SeamEditCommand command = new RemoveSeamCommand(imageRep, seams);
+        command.edit = edit;
+        return command;
+    }
+
+    /**
+     * Removes the seams of a recorded insertion from the 'grid', as undoing the insertion would.
+     * @param edit The recorded insertion.
+     * @return A command that inserts the same nodes again when applied.
+     */
+    private SeamEditCommand revertInsertion(SessionStore.Edit edit) {
+        List<List<PixelNode>> insertedSeams = new ArrayList<>();
+
+        for (int[] seamColumns : edit.columns) {
+            insertedSeams.add(imageRep.seamAt(seamColumns));
+        }
+
+        imageRep.removeSeams(insertedSeams);
+        return new InsertSeamCommand(imageRep, insertedSeams, edit);
+    }
+
+    /**
+     * Starts saving the session, writing a snapshot of the current image and undo history. Every later edit and undo
+     * is appended to the store's journal.
+     * @param sessionStore The store to save the session to.
+     */
+    public void startSession(SessionStore sessionStore) {
+        this.sessionStore = sessionStore;
+        compactSession();
     }
 
     /**
-     * Loads an image from the file path.
+     * Stops saving the session, keeping everything saved so far.
+     */
+    public void closeSession() {
+        if (sessionStore != null) {
+            try {
+                sessionStore.close();
+            } catch (IOException e) {
+                System.err.println("Error saving the session: " + e.getMessage());
+            }
+
+            sessionStore = null;
+        }
+    }
+
+    /**
+     * Writes a new snapshot of the session, replacing the journal. The image is brought up to date with the 'grid'
+     * first, since a run of edits may not have redrawn it yet.
+     */
+    private void compactSession() {
+        List<SessionStore.Edit> history = new ArrayList<>();
+
+        for (EditCommand command : editHistory) {
+            history.add(((SeamEditCommand) command).getEdit());
+        }
+
+        imageRep.updateImage();
+
+        try {
+            sessionStore.compact(imageRep.getPixels(), history, imageRep.getEditCounter());
+        } catch (IOException e) {
+            System.err.println("Error saving the session: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Executes an edit, adds it to the history and journals it if the session is being saved.
+     * @param command The edit to apply.
+     */
+    private void applyEdit(SeamEditCommand command) {
+        command.execute();
+        recordEdit(command);
+    }
+
+    /**
+     * Adds an edit that has already been applied to the history and journals it if the session is being saved.
+     * @param command The applied edit.
+     */
+    private void recordEdit(SeamEditCommand command) {
+        editHistory.push(command);
+        redoHistory.clear();
+
+        if (sessionStore != null) {
+            try {
+                sessionStore.recordEdit(command.getEdit(), imageRep.getEditCounter());
+            } catch (IOException e) {
+                System.err.println("Error saving the session: " + e.getMessage());
+            }
+
+            if (sessionStore.needsCompaction()) {
+                compactSession();
+            }
+        }
+    }
+
+    /**
+     * Loads an image representation from the cache, or decodes it and stores it in the cache on a miss.
      * @param filePath The file path.
-     * @return The loaded BufferedImage.
+     * @param gridCache The cache to use.
+     * @return The loaded ImageRepresentation.
      */
-    private BufferedImage loadImage(String filePath) {
+    private ImageRepresentation loadImageRepresentation(String filePath, GridCache gridCache) {
+        String key;
+
         try {
-            return ImageIO.read(new File(filePath));
+            key = gridCache.keyFor(filePath);
         } catch (IOException e) {
             throw new RuntimeException("Failed to load image from path: " + filePath, e);
         }
+
+        ImageRepresentation cached = gridCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        ImageRepresentation loaded = loadImageRepresentation(filePath, new ImageLoader());
+        gridCache.put(key, loaded);
+        return loaded;
+    }
+
+    /**
+     * Loads an image from the specified file path with a loader. Files that can be streamed have the 'grid' and its
+     * energies built from each strip of rows as soon as it is decoded, and other files are decoded in full first and
+     * built in parallel bands.
+     * @param filePath The path to the image file.
+     * @param imageLoader Decides which part of the file is decoded and at what resolution.
+     * @return The loaded ImageRepresentation.
+     */
+    private ImageRepresentation loadImageRepresentation(String filePath, ImageLoader imageLoader) {
+        try {
+            return new ImageRepresentation(imageLoader.stream(filePath));
+        } catch (IOException | UncheckedIOException e) {
+            throw new RuntimeException("Failed to load image from path: " + filePath, e);
+        }
     }
 
     /**
@@ -45,10 +303,34 @@ public class ServiceLayer {
      * @param isLowestEnergy If true, finds the lowest energy seam, otherwise the bluest seam.
      */
     public void findAndHighlightSeam(boolean isLowestEnergy) {
+        if (isLowestEnergy) {
+            findAndHighlightSeam(lowestEnergy(), Color.RED);
+        } else {
+            findAndHighlightSeam(SeamScorer.bluest(), Color.BLUE);
+        }
+    }
+
+    /**
+     * Finds and highlights the best seam for a scorer.
+     * @param scorer How pixels are scored and whether the lowest or highest total wins.
+     * @param highlightColor The color the seam is drawn in.
+     */
+    public void findAndHighlightSeam(SeamScorer scorer, Color highlightColor) {
+        findAndHighlightSeams(Collections.singletonList(scorer), Collections.singletonList(highlightColor));
+    }
+
+    /**
+     * Finds the best seams for several scorers in one pass and highlights them all in the same preview. The seam of
+     * the first scorer becomes the seam that removeSeam deletes.
+     * @param scorers How pixels are scored and whether the lowest or highest total wins, for each seam.
+     * @param highlightColors The color each seam is drawn in, in the order of the scorers. Later seams are drawn over
+     *                        earlier ones where they cross.
+     */
+    public void findAndHighlightSeams(List<SeamScorer> scorers, List<Color> highlightColors) {
         if(imageRep.getRoot().right != null) {
-            BufferedImage image = imageRep.deepCopyImage();
-            lastFoundSeam = isLowestEnergy ? findLowestEnergySeam() : findBluestSeam();
-            Color highlightColor = isLowestEnergy ? Color.RED : Color.BLUE;
+            PixelBuffer image = imageRep.copyPixels();
+            List<List<PixelNode>> seams = findSeams(scorers);
+            lastFoundSeam = seams.get(0);
             PixelNode rowStart = imageRep.getRoot();
             int y = 0;
 
@@ -57,8 +339,10 @@ public class ServiceLayer {
                 int x = 0;
 
                 while (current != null) {
-                    if (lastFoundSeam.contains(current)) {
-                        image.setRGB(x, y, highlightColor.getRGB());
+                    for (int i = 0; i < seams.size(); i++) {
+                        if (current == seams.get(i).get(y)) {
+                            image.setRGB(x, y, highlightColors.get(i).getRGB());
+                        }
                     }
 
                     current = current.right;
@@ -76,184 +360,512 @@ public class ServiceLayer {
     }
 
     /**
-     * Finds the lowest energy seam in the image.
+     * Finds the best seam in the image for a scorer. Seams are cached by the version of the 'grid', so asking again
+     * before the next edit, or after undoing back to a version seen recently, does not search again.
+     * @param scorer How pixels are scored and whether the lowest or highest total wins.
      * @return The seam as a list of PixelNodes.
      */
-    public List<PixelNode> findLowestEnergySeam() {
-        Map<PixelNode, Double> cumulativeEnergy = new HashMap<>();
-        Map<PixelNode, PixelNode> edgeTo = new HashMap<>();
-        PixelNode start = imageRep.getRoot();
+    public List<PixelNode> findSeam(SeamScorer scorer) {
+        SeamKey key = new SeamKey(imageRep.getVersion(), scorer);
+        List<PixelNode> seam = seamCache.get(key);
 
-        if (start == null) {
-            return new ArrayList<>();
+        if (seam == null) {
+            seam = seamEngine.findSeam(imageRep.getRoot(), scorer);
+            seamCache.put(key, seam);
         }
 
-        PixelNode node = start;
+        return new ArrayList<>(seam);
+    }
 
-        while (node != null) {
-            cumulativeEnergy.put(node, node.energy);
-            node = node.right;
+    /**
+     * Finds the best seam for each of several scorers. Seams that are not cached for the current version of the
+     * 'grid' are all found in a single fused pass.
+     * @param scorers How pixels are scored and whether the lowest or highest total wins, for each seam.
+     * @return The seam of each scorer, in the order of the scorers.
+     */
+    public List<List<PixelNode>> findSeams(List<SeamScorer> scorers) {
+        List<SeamScorer> missing = new ArrayList<>();
+
+        for (SeamScorer scorer : scorers) {
+            if (!seamCache.containsKey(new SeamKey(imageRep.getVersion(), scorer)) && !missing.contains(scorer)) {
+                missing.add(scorer);
+            }
         }
 
-        PixelNode rowStart = start.down;
+        if (missing.size() > 1) {
+            List<List<PixelNode>> found = seamEngine.findSeams(imageRep.getRoot(), missing);
 
-        while (rowStart != null) {
-            node = rowStart;
+            for (int i = 0; i < missing.size(); i++) {
+                seamCache.put(new SeamKey(imageRep.getVersion(), missing.get(i)), found.get(i));
+            }
+        }
 
-            while (node != null) {
-                PixelNode upNode = node.up;
-                PixelNode leftNode = (upNode != null) ? upNode.left : null;
-                PixelNode rightNode = (upNode != null) ? upNode.right : null;
+        List<List<PixelNode>> seams = new ArrayList<>();
+        for (SeamScorer scorer : scorers) {
+            seams.add(findSeam(scorer));
+        }
 
-                List<PixelNode> predecessors = Arrays.asList(leftNode, upNode, rightNode);
-                double minEnergy = Double.MAX_VALUE;
-                PixelNode minNode = null;
+        return seams;
+    }
 
-                for (PixelNode pred : predecessors) {
-                    if (pred != null) {
-                        double energy;
-                        energy = cumulativeEnergy.getOrDefault(pred, Double.MAX_VALUE);
-                        if (energy < minEnergy) {
-                            minEnergy = energy;
-                            minNode = pred;
-                        }
-                    }
-                }
+    /**
+     * Finds the best seam in the image for a scorer, reporting every scored row and stopping early if cancelled.
+     * @param scorer How pixels are scored and whether the lowest or highest total wins.
+     * @param listener Told about every scored row, or null.
+     * @param token Checked after every scored row, or null.
+     * @return The seam as a list of PixelNodes.
+     * @throws CancellationException If the token is cancelled before the search is done.
+     */
+    public List<PixelNode> findSeam(SeamScorer scorer, ProgressListener listener, CancellationToken token) {
+        seamEngine.watch(listener, token);
 
-                if (minNode != null) {
-                    cumulativeEnergy.put(node, node.energy + minEnergy);
-                    edgeTo.put(node, minNode);
-                }
+        try {
+            return findSeam(scorer);
+        } finally {
+            seamEngine.watch(null, null);
+        }
+    }
 
-                node = node.right;
-            }
+    /**
+     * Finds the lowest energy seam in the image.
+     * @return The seam as a list of PixelNodes.
+     */
+    public List<PixelNode> findLowestEnergySeam() {
+        return findSeam(lowestEnergy());
+    }
+
+    /**
+     * Finds up to count pixel-disjoint low energy seams from a single cumulative energy pass.
+     * Seams are taken in order of increasing total energy, skipping any seam that shares a pixel with one already
+     * taken. Selection stops early once a seam's total energy drifts too far above the best seam of the pass, so the
+     * caller can recompute energies before continuing.
+     * @param count The maximum number of seams to return.
+     * @param maxEnergyDrift The largest allowed relative increase in total energy over the best seam of the pass.
+     * @return The seams as lists of PixelNodes, ordered from lowest to highest total energy.
+     */
+    public List<List<PixelNode>> findLowestEnergySeams(int count, double maxEnergyDrift) {
+        return seamEngine.findSeams(imageRep.getRoot(), lowestEnergy(), count, maxEnergyDrift);
+    }
+
+    /**
+     * Sets whether the image is edited in compact precision. The 'grid' is then rebuilt from compact nodes, which store
+     * their energy as whole fixed-point steps calculated from whole channel sums, and lowest energy seams are found
+     * with long cumulative costs. The seams only differ from the default when two totals lie within rounding of each
+     * other. The undo history refers to the nodes of the old 'grid', so the precision can only change before the
+     * first edit.
+     * @param compactPrecision True to use compact precision.
+     * @throws IllegalStateException If there are edits to undo or redo.
+     */
+    public void setCompactPrecision(boolean compactPrecision) {
+        if (compactPrecision == this.compactPrecision) {
+            return;
+        }
+        if (!editHistory.isEmpty() || !redoHistory.isEmpty()) {
+            throw new IllegalStateException("The precision can only change before the first edit.");
+        }
+
+        this.compactPrecision = compactPrecision;
+        imageRep = imageRep.withPrecision(compactPrecision);
+        lastFoundSeam = null;
+    }
+
+    /**
+     * @return The scorer for lowest energy seams in the current precision.
+     */
+    private SeamScorer lowestEnergy() {
+        return compactPrecision ? SeamScorer.lowestEnergy().compact() : SeamScorer.lowestEnergy();
+    }
+
+    /**
+     * Finds the seam with the highest blueness in the image.
+     * @return A list of PixelNode objects representing the seam.
+     */
+    public List<PixelNode> findBluestSeam() {
+        return findSeam(SeamScorer.bluest());
+    }
 
-            rowStart = rowStart.down;
+    /**
+     * Removes the last found seam and updates the image.
+     */
+    public void removeSeam() {
+        if (lastFoundSeam != null && !lastFoundSeam.isEmpty()) {
+            applyEdit(new RemoveSeamCommand(this.imageRep, Collections.singletonList(lastFoundSeam)));
+        } else {
+            System.out.println("No seam has been highlighted yet. Please highlight a seam before trying to delete.");
         }
+    }
 
-        double minTotalEnergy = Double.MAX_VALUE;
-        PixelNode minNode = null;
-        node = getLastRowStart(imageRep.getRoot());
-        while (node != null) {
-            double energy = cumulativeEnergy.getOrDefault(node, Double.MAX_VALUE);
+    /**
+     * Finds and removes the lowest energy seam as one undoable edit without saving a preview. This is the same edit as
+     * findAndHighlightSeam(true) followed by removeSeam.
+     */
+    public void removeLowestEnergySeam() {
+        removeLowestEnergySeam(1);
+    }
 
-            if (energy < minTotalEnergy) {
-                minTotalEnergy = energy;
-                minNode = node;
+    /**
+     * Finds and removes the lowest energy seam several times over, taking as many disjoint seams as possible from each
+     * energy pass, as removeLowestEnergySeams does. Each seam is still its own undoable edit, as if by that many
+     * findAndHighlightSeam(true) and removeSeam pairs, but no previews are saved and the image is only redrawn from
+     * the 'grid' once all seams are removed.
+     * @param count The number of seams to remove.
+     */
+    public void removeLowestEnergySeam(int count) {
+        int total = Math.min(count, imageRep.getPixels().getWidth() - 1);
+        int removed = 0;
+
+        while (removed < total) {
+            List<List<PixelNode>> seams = findLowestEnergySeams(total - removed, MAX_ENERGY_DRIFT);
+
+            if (seams.isEmpty()) {
+                break;
             }
 
-            node = node.right;
+            for (List<PixelNode> seam : seams) {
+                SeamEditCommand command = new RemoveSeamCommand(this.imageRep, Collections.singletonList(seam));
+                command.applyTracked();
+                recordEdit(command);
+            }
+
+            removed += seams.size();
         }
 
-        List<PixelNode> seam = new ArrayList<>();
+        if (removed > 0) {
+            materialize();
+        }
 
-        while (minNode != null) {
-            seam.add(minNode);
-            minNode = edgeTo.get(minNode);
+        if (removed < count) {
+            System.out.println("Only one column remains. You can not create an empty image.");
         }
+    }
 
-        Collections.reverse(seam);
-        return seam;
+    /**
+     * Removes several of the lowest energy seams, taking as many disjoint seams as possible from each energy pass.
+     * Each pass is recorded as one undoable edit.
+     * @param count The number of seams to remove.
+     */
+    public void removeLowestEnergySeams(int count) {
+        removeLowestEnergySeams(count, null, null);
     }
 
     /**
-     * Finds the seam with the highest blueness in the image.
-     * @return A list of PixelNode objects representing the seam.
+     * Removes several of the lowest energy seams, reporting progress and stopping early if cancelled.
+     * If the token is cancelled, every edit made by this call is undone before the CancellationException is rethrown,
+     * so the image is left as it was and the undone edits can be redone.
+     * @param count The number of seams to remove.
+     * @param listener Told how many seams are done after each pass and about every scored row, or null.
+     * @param token Checked after every scored row and before every pass, or null.
+     * @throws CancellationException If the token is cancelled before all seams are removed.
      */
-    public List<PixelNode> findBluestSeam() {
-        Map<PixelNode, Integer> cumulativeBlueness = new HashMap<>();
-        Map<PixelNode, PixelNode> edgeTo = new HashMap<>();
-        PixelNode start = imageRep.getRoot();
+    public void removeLowestEnergySeams(int count, ProgressListener listener, CancellationToken token) {
+        int total = Math.min(count, imageRep.getPixels().getWidth() - 1);
+
+        if (total <= 0) {
+            System.out.println("Only one column remains. You can not create an empty image.");
+            return;
+        }
+
+        editInPasses(total, listener, token, remaining -> {
+            List<List<PixelNode>> seams = findLowestEnergySeams(remaining, MAX_ENERGY_DRIFT);
+            if (seams.isEmpty()) {
+                return 0;
+            }
+
+            applyEdit(new RemoveSeamCommand(this.imageRep, seams));
+            return seams.size();
+        });
+    }
+
+    /**
+     * Runs passes that each edit some of the seams as one undoable edit until all seams are done, and rolls every
+     * edit of the passes back through undoTo if the token is cancelled. A pass that edits nothing stops the run
+     * early, keeping the edits made so far, since every later pass would find the same nothing.
+     * @param total The number of seams to edit.
+     * @param listener Told how many seams are done after each pass and about every scored row, or null.
+     * @param token Checked after every scored row and before every pass, or null.
+     * @param pass Edits up to the given number of remaining seams and returns how many it edited.
+     * @throws CancellationException If the token is cancelled before all seams are edited.
+     */
+    private void editInPasses(int total, ProgressListener listener, CancellationToken token, IntUnaryOperator pass) {
+        int historyIndex = editHistory.size();
+        long start = System.nanoTime();
+        int done = 0;
 
-        if (start == null) {
-            return new ArrayList<>();
+        seamEngine.watch(listener, token);
+
+        try {
+            while (done < total) {
+                if (token != null) {
+                    token.throwIfCancelled();
+                }
+
+                int edited = pass.applyAsInt(total - done);
+
+                if (edited <= 0) {
+                    System.out.println("No more seams can be edited. Stopped after " + done + " of " + total + ".");
+                    break;
+                }
+
+                done += edited;
+
+                if (listener != null) {
+                    listener.onProgress(done, total, ProgressListener.estimateRemainingNanos(System.nanoTime() - start, done, total));
+                }
+            }
+        } catch (CancellationException e) {
+            undoTo(historyIndex);
+            throw e;
+        } finally {
+            seamEngine.watch(null, null);
         }
+    }
 
-        PixelNode node = start;
+    /**
+     * Erases the pixels marked by a mask by removing low energy seams through them until none are left.
+     * The energy of masked pixels is biased so far down that every seam runs through as many of them as it can, and
+     * each seam is searched for only within the columns the remaining mask still spans.
+     * All seams are recorded as one undoable edit.
+     * @param mask An image the size of the current image, in which every pixel that is not black is to be erased.
+     * @param listener Told how many masked pixels have been erased after each seam, or null.
+     */
+    public void removeObject(BufferedImage mask, ProgressListener listener) {
+        removeObject(mask, listener, null);
+    }
+
+    /**
+     * Erases the pixels marked by a mask, stopping early if cancelled. If the token is cancelled, the seams removed
+     * so far are restored before the CancellationException is rethrown and no edit is recorded.
+     * @param mask An image the size of the current image, in which every pixel that is not black is to be erased.
+     * @param listener Told how many masked pixels have been erased after each seam and about every scored row, or null.
+     * @param token Checked after every scored row and before every seam, or null.
+     * @throws CancellationException If the token is cancelled before the object is erased.
+     */
+    public void removeObject(BufferedImage mask, ProgressListener listener, CancellationToken token) {
+        int width = imageRep.getPixels().getWidth();
+        int height = imageRep.getPixels().getHeight();
 
-        while (node != null) {
-            cumulativeBlueness.put(node, node.color.getBlue());
-            node = node.right;
+        if (mask.getWidth() != width || mask.getHeight() != height) {
+            throw new IllegalArgumentException("The mask must be " + width + "x" + height + " pixels.");
         }
 
-        PixelNode rowStart = start.down;
+        BitSet masked = new BitSet(width * height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if ((mask.getRGB(x, y) & 0xFFFFFF) != 0) {
+                    masked.set(y * width + x);
+                }
+            }
+        }
 
-        while (rowStart != null) {
-            node = rowStart;
+        int total = masked.cardinality();
+        int erased = 0;
+        int currentWidth = width;
+        int[] columns = new int[height];
+        List<List<PixelNode>> seams = new ArrayList<>();
+        List<int[]> seamColumns = new ArrayList<>();
+        int spanFirst = 0;
+        int spanLast = 0;
+        long start = System.nanoTime();
+        long startVersion = imageRep.getVersion();
 
-            while (node != null) {
-                PixelNode upNode = node.up;
-                PixelNode leftNode = (upNode != null) ? upNode.left : null;
-                PixelNode rightNode = (upNode != null) ? upNode.right : null;
+        seamEngine.watch(listener, token);
 
-                List<PixelNode> predecessors = Arrays.asList(leftNode, upNode, rightNode);
-                int maxBlueness = Integer.MIN_VALUE;
-                PixelNode maxNode = null;
+        try {
+            while (!masked.isEmpty() && currentWidth > 1) {
+                if (token != null) {
+                    token.throwIfCancelled();
+                }
 
-                for (PixelNode pred : predecessors) {
-                    if (pred != null) {
-                        int blueness = cumulativeBlueness.getOrDefault(pred, 0) + node.color.getBlue();
-                        if (blueness > maxBlueness) {
-                            maxBlueness = blueness;
-                            maxNode = pred;
-                        }
+                int firstColumn = currentWidth;
+                int lastColumn = -1;
+
+                for (int y = 0; y < height; y++) {
+                    int first = masked.nextSetBit(y * width);
+                    if (first >= 0 && first < y * width + currentWidth) {
+                        firstColumn = Math.min(firstColumn, first - y * width);
+                        lastColumn = Math.max(lastColumn, masked.previousSetBit(y * width + currentWidth - 1) - y * width);
                     }
                 }
 
-                if (maxNode != null) {
-                    cumulativeBlueness.put(node, maxBlueness);
-                    edgeTo.put(node, maxNode);
+                if (seams.isEmpty()) {
+                    spanFirst = firstColumn;
+                    spanLast = lastColumn;
                 }
 
-                node = node.right;
+                double maskBias = maxEnergyInColumns(firstColumn, lastColumn) * height + 1;
+                List<PixelNode> seam = seamEngine.findSeamInColumns(imageRep.getRoot(), lowestEnergy(),
+                        firstColumn, lastColumn, masked, width, maskBias, columns);
+
+                imageRep.removeSeam(seam);
+                seams.add(seam);
+                seamColumns.add(columns.clone());
+                currentWidth--;
+
+                for (int y = 0; y < height; y++) {
+                    int seamBit = y * width + columns[y];
+
+                    if (masked.get(seamBit)) {
+                        masked.clear(seamBit);
+                        erased++;
+                    }
+
+                    for (int bit = masked.nextSetBit(seamBit + 1); bit >= 0 && bit <= y * width + currentWidth; bit = masked.nextSetBit(bit + 1)) {
+                        masked.clear(bit);
+                        masked.set(bit - 1);
+                    }
+                }
+
+                if (listener != null) {
+                    listener.onProgress(erased, total, ProgressListener.estimateRemainingNanos(System.nanoTime() - start, erased, total));
+                }
             }
+        } catch (CancellationException e) {
+            imageRep.undoSeams(seams);
+            imageRep.setVersion(startVersion);
+            throw e;
+        } finally {
+            seamEngine.watch(null, null);
+        }
 
-            rowStart = rowStart.down;
+        if (!masked.isEmpty()) {
+            System.out.println("Only one column remains. Part of the masked object could not be erased.");
         }
 
-        List<PixelNode> seam = new ArrayList<>();
-        PixelNode lastRowStart = getLastRowStart(start);
-        PixelNode maxBluenessNode = lastRowStart;
+        if (!seams.isEmpty()) {
+            RemoveSeamCommand command = new RemoveSeamCommand(this.imageRep, seams);
+            command.edit = new SessionStore.Edit(SessionStore.Edit.Kind.REMOVE,
+                    columnsBeforeRemoval(seamColumns, spanFirst, spanLast), command.colorsOf(seams));
+            command.versionBefore = startVersion;
+            command.versionAfter = imageRep.getVersion();
+            lastFoundSeam = null;
+            materialize();
+            recordEdit(command);
+        }
+    }
 
-        for (PixelNode tmpNode = lastRowStart; tmpNode != null; tmpNode = tmpNode.right) {
-            if (cumulativeBlueness.get(tmpNode) > cumulativeBlueness.get(maxBluenessNode)) {
-                maxBluenessNode = tmpNode;
+    /**
+     * Converts the columns of seams that were removed one after another, each given in the 'grid' it was removed from,
+     * into columns of the 'grid' before any of them were removed, as an edit records them. Every row keeps a Fenwick
+     * tree of which columns of the span are still there, so each seam's column is found as the column of the
+     * remaining node at that position.
+     * @param seamColumns The column of each seam in each row, in order of removal.
+     * @param firstColumn The first column any seam was removed from.
+     * @param lastColumn The last column any seam was removed from, inclusive.
+     * @return The column of each seam in each row before the first removal, indexed by seam and then row.
+     */
+    private static int[][] columnsBeforeRemoval(List<int[]> seamColumns, int firstColumn, int lastColumn) {
+        int height = seamColumns.get(0).length;
+        int span = lastColumn - firstColumn + 1;
+        int[][] columns = new int[seamColumns.size()][height];
+        int[] remaining = new int[span + 1];
+        int highestBit = Integer.highestOneBit(span);
+
+        for (int y = 0; y < height; y++) {
+            for (int i = 1; i <= span; i++) {
+                remaining[i] = i & -i;
             }
-        }
 
-        for (PixelNode tmpNode = maxBluenessNode; tmpNode != null; tmpNode = edgeTo.get(tmpNode)) {
-            seam.add(0, tmpNode);
+            for (int seam = 0; seam < seamColumns.size(); seam++) {
+                int position = seamColumns.get(seam)[y] - firstColumn + 1;
+                int column = 0;
+
+                for (int bit = highestBit; bit > 0; bit >>= 1) {
+                    if (column + bit <= span && remaining[column + bit] < position) {
+                        column += bit;
+                        position -= remaining[column];
+                    }
+                }
+
+                columns[seam][y] = firstColumn + column;
+
+                for (int i = column + 1; i <= span; i += i & -i) {
+                    remaining[i]--;
+                }
+            }
         }
 
-        return seam;
+        return columns;
     }
 
     /**
-     * Finds the starting PixelNode of the last row.
-     * @param start The root PixelNode.
-     * @return The starting PixelNode of the last row.
+     * Finds the highest energy within a range of columns.
+     * @param firstColumn The first column.
+     * @param lastColumn The last column, inclusive.
+     * @return The highest energy of any node in those columns.
      */
-    private PixelNode getLastRowStart(PixelNode start) {
-        PixelNode lastRowStart = start;
+    private double maxEnergyInColumns(int firstColumn, int lastColumn) {
+        PixelNode columnStart = imageRep.getRoot();
+        double maxEnergy = 0;
 
-        while (lastRowStart.down != null) {
-            lastRowStart = lastRowStart.down;
+        for (int x = 0; x < firstColumn; x++) {
+            columnStart = columnStart.right;
         }
-        
-        return lastRowStart;
+
+        for (PixelNode rowStart = columnStart; rowStart != null; rowStart = rowStart.down) {
+            PixelNode node = rowStart;
+
+            for (int x = firstColumn; x <= lastColumn; x++) {
+                maxEnergy = Math.max(maxEnergy, node.energy());
+                node = node.right;
+            }
+        }
+
+        return maxEnergy;
     }
 
     /**
-     * Removes the last found seam and updates the image.
+     * Widens the image by duplicating its lowest energy seams. Seams are chosen in batches of disjoint seams from a
+     * single energy pass, so repeated insertions do not all follow the same path. Each batch is one undoable edit.
+     * @param count The number of seams to insert.
      */
-    public void removeSeam() {
-        if (lastFoundSeam != null && !lastFoundSeam.isEmpty()) {
-            EditCommand removeCommand = new RemoveSeamCommand(this.imageRep, new ArrayList<>(lastFoundSeam));
-            removeCommand.execute();
-            editHistory.push(removeCommand);
-        } else {
-            System.out.println("No seam has been highlighted yet. Please highlight a seam before trying to delete.");
+    public void insertLowestEnergySeams(int count) {
+        insertLowestEnergySeams(count, null, null);
+    }
+
+    /**
+     * Widens the image by duplicating its lowest energy seams, reporting progress and stopping early if cancelled.
+     * If the token is cancelled, every edit made by this call is undone before the CancellationException is rethrown.
+     * @param count The number of seams to insert.
+     * @param listener Told how many seams are done after each batch and about every scored row, or null.
+     * @param token Checked after every scored row and before every batch, or null.
+     * @throws CancellationException If the token is cancelled before all seams are inserted.
+     */
+    public void insertLowestEnergySeams(int count, ProgressListener listener, CancellationToken token) {
+        editInPasses(count, listener, token, remaining -> {
+            List<List<PixelNode>> seams = findLowestEnergySeams(remaining, Double.POSITIVE_INFINITY);
+            if (seams.isEmpty()) {
+                return 0;
+            }
+
+            applyEdit(new InsertSeamCommand(this.imageRep, seams));
+            return seams.size();
+        });
+    }
+
+    /**
+     * Widens the image to the target width by inserting low energy seams.
+     * @param targetWidth The width to enlarge the image to.
+     */
+    public void enlargeToWidth(int targetWidth) {
+        enlargeToWidth(targetWidth, null, null);
+    }
+
+    /**
+     * Widens the image to the target width, reporting progress and stopping early if cancelled.
+     * @param targetWidth The width to enlarge the image to.
+     * @param listener Told how many seams are done after each batch and about every scored row, or null.
+     * @param token Checked after every scored row and before every batch, or null.
+     * @throws CancellationException If the token is cancelled before the image is enlarged.
+     */
+    public void enlargeToWidth(int targetWidth, ProgressListener listener, CancellationToken token) {
+        int width = imageRep.getPixels().getWidth();
+
+        if (targetWidth <= width) {
+            System.out.println("The target width must be larger than the current width of " + width + ".");
+            return;
         }
+
+        insertLowestEnergySeams(targetWidth - width, listener, token);
     }
 
     /**
@@ -261,51 +873,316 @@ public class ServiceLayer {
      */
     public void undoLastEdit() {
         if (!editHistory.isEmpty()) {
-            EditCommand lastEdit = editHistory.pop();
-            lastEdit.undo();
+            undoTo(editHistory.size() - 1);
         } else {
             System.out.println("Nothing left to undo.");
         }
     }
 
+    /**
+     * Redoes the last undone edit if there is any.
+     */
+    public void redoLastEdit() {
+        if (!redoHistory.isEmpty()) {
+            redoTo(editHistory.size() + 1);
+        } else {
+            System.out.println("Nothing left to redo.");
+        }
+    }
+
+    /**
+     * Undoes edits until only the given number of edits remain. All seams are restored first and the image is then
+     * rebuilt once, so undoing many edits costs about the same as undoing one.
+     * @param historyIndex The number of edits to keep, between 0 and the current history size.
+     */
+    public void undoTo(int historyIndex) {
+        if (historyIndex < 0 || historyIndex > editHistory.size()) {
+            throw new IllegalArgumentException("History index " + historyIndex + " is outside 0 to " + editHistory.size() + ".");
+        }
+
+        int steps = editHistory.size() - historyIndex;
+        if (steps == 0) {
+            return;
+        }
+
+        while (editHistory.size() > historyIndex) {
+            SeamEditCommand command = (SeamEditCommand) editHistory.pop();
+            command.revert();
+            imageRep.setVersion(command.versionBefore);
+            redoHistory.push(command);
+        }
+
+        materialize();
+
+        if (sessionStore != null) {
+            try {
+                sessionStore.recordUndo(steps, imageRep.getEditCounter());
+            } catch (IOException e) {
+                System.err.println("Error saving the session: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Redoes undone edits until the history holds the given number of edits, rebuilding the image once at the end.
+     * @param historyIndex The number of edits to have, between the current history size and the number of edits
+     *                     before the undos.
+     */
+    public void redoTo(int historyIndex) {
+        int maxIndex = editHistory.size() + redoHistory.size();
+
+        if (historyIndex < editHistory.size() || historyIndex > maxIndex) {
+            throw new IllegalArgumentException("History index " + historyIndex + " is outside " + editHistory.size() + " to " + maxIndex + ".");
+        }
+
+        int steps = historyIndex - editHistory.size();
+        if (steps == 0) {
+            return;
+        }
+
+        while (editHistory.size() < historyIndex) {
+            SeamEditCommand command = (SeamEditCommand) redoHistory.pop();
+            command.apply();
+            imageRep.setVersion(command.versionAfter);
+            editHistory.push(command);
+        }
+
+        materialize();
+        lastFoundSeam = null;
+
+        if (sessionStore != null) {
+            try {
+                sessionStore.recordRedo(steps, imageRep.getEditCounter());
+            } catch (IOException e) {
+                System.err.println("Error saving the session: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Redraws the out of date tiles of the image from the 'grid' and saves a preview of it. The energies are already
+     * up to date, since seam edits recalculate them next to the edited seams.
+     */
+    private void materialize() {
+        imageRep.updateImage();
+        imageRep.saveImage(imageRep.getPixels());
+    }
+
+    /**
+     * Base class for commands that remove or insert seams, keeping a record of the edit for saved sessions.
+     * The seams are relinked by apply and revert, and execute and undo also rebuild the image afterwards.
+     */
+    private abstract class SeamEditCommand implements EditCommand {
+        // The ImageRepresentation on which operations are performed.
+        protected ImageRepresentation targetImage;
+        // The columns and colors of the edited seam pixels, set the first time the command is executed.
+        protected SessionStore.Edit edit;
+        // The versions of the 'grid' before and after the edit, set the first time the command is executed.
+        // Undoing and redoing restore them, so results cached for either state are found again.
+        protected long versionBefore, versionAfter;
+
+        /**
+         * Relinks the 'grid' to apply the edit, without rebuilding the image.
+         */
+        abstract void apply();
+
+        /**
+         * Relinks the 'grid' to reverse the edit, without rebuilding the image.
+         */
+        abstract void revert();
+
+        /**
+         * Applies the edit for the first time and records the versions of the 'grid' around it, without rebuilding
+         * the image.
+         */
+        void applyTracked() {
+            versionBefore = targetImage.getVersion();
+            apply();
+            versionAfter = targetImage.getVersion();
+            lastFoundSeam = null;
+        }
+
+        /**
+         * Applies the edit and updates the display.
+         */
+        @Override
+        public void execute() {
+            applyTracked();
+            materialize();
+        }
+
+        /**
+         * Reverses the edit and updates the display.
+         */
+        @Override
+        public void undo() {
+            revert();
+            targetImage.setVersion(versionBefore);
+            materialize();
+        }
+
+        /**
+         * Retrieves the record of the edit.
+         * @return The edit, or null if the command has not been executed.
+         */
+        SessionStore.Edit getEdit() {
+            return edit;
+        }
+
+        /**
+         * @return The number of seam pixels the edit keeps for undoing and redoing it.
+         */
+        long seamPixels() {
+            long pixels = 0;
+
+            if (edit != null) {
+                for (int[] seam : edit.columns) {
+                    pixels += seam.length;
+                }
+            }
+
+            return pixels;
+        }
+
+        /**
+         * Collects the colors of seam pixels.
+         * @param seams The seams.
+         * @return The color of each pixel, indexed by seam and then row.
+         */
+        protected int[][] colorsOf(List<List<PixelNode>> seams) {
+            int[][] rgbs = new int[seams.size()][];
+
+            for (int i = 0; i < seams.size(); i++) {
+                List<PixelNode> seam = seams.get(i);
+                rgbs[i] = new int[seam.size()];
+
+                for (int y = 0; y < seam.size(); y++) {
+                    rgbs[i][y] = seam.get(y).rgb;
+                }
+            }
+
+            return rgbs;
+        }
+    }
+
     /**
      * Implements the EditCommand interface to support undoable seam removal operations.
      */
-    private class RemoveSeamCommand implements EditCommand {
-        private ImageRepresentation targetImage;
-        private List<PixelNode> seam;
+    private class RemoveSeamCommand extends SeamEditCommand {
+        private List<List<PixelNode>> seams;
 
         /**
-         * Initializes a command to remove a specified seam from an image.
+         * Initializes a command to remove the specified pixel-disjoint seams from an image.
          * @param targetImage The ImageRepresentation on which operations are performed.
-         * @param seam The seam to be removed, represented as a list of PixelNodes.
+         * @param seams The seams to be removed, each represented as a list of PixelNodes.
          */
-        public RemoveSeamCommand(ImageRepresentation targetImage, List<PixelNode> seam) {
+        public RemoveSeamCommand(ImageRepresentation targetImage, List<List<PixelNode>> seams) {
             this.targetImage = targetImage;
-            this.seam = new ArrayList<>(seam);
+            this.seams = new ArrayList<>();
+
+            for (List<PixelNode> seam : seams) {
+                this.seams.add(new ArrayList<>(seam));
+            }
         }
 
         /**
-         * Removes the specified seam from the image and updates the display.
+         * Removes the specified seams from the 'grid'.
          */
         @Override
-        public void execute() {
-            targetImage.removeSeam(seam);
-            targetImage.updateImage();
-            targetImage.saveImage(targetImage.getImage());
-            targetImage.calculateEnergyForNodes();
-            lastFoundSeam = null;
+        void apply() {
+            if (edit == null) {
+                edit = new SessionStore.Edit(SessionStore.Edit.Kind.REMOVE, targetImage.locateSeams(seams), colorsOf(seams));
+            }
+
+            targetImage.removeSeams(seams);
         }
 
         /**
-         * Restores the image to its state before the last seam removal.
+         * Restores the removed seams to the 'grid'.
          */
         @Override
-        public void undo() {
-            targetImage.undoSeam(seam);
-            targetImage.updateImage();
-            targetImage.saveImage(targetImage.getImage());
-            targetImage.calculateEnergyForNodes();
+        void revert() {
+            targetImage.undoSeams(seams);
+        }
+    }
+
+    /**
+     * Implements the EditCommand interface to support undoable seam insertion operations.
+     */
+    private class InsertSeamCommand extends SeamEditCommand {
+        private List<List<PixelNode>> seams;
+        private List<List<PixelNode>> insertedSeams;
+
+        /**
+         * Initializes a command to duplicate the specified pixel-disjoint seams of an image.
+         * @param targetImage The ImageRepresentation on which operations are performed.
+         * @param seams The seams to be duplicated, each represented as a list of PixelNodes.
+         */
+        public InsertSeamCommand(ImageRepresentation targetImage, List<List<PixelNode>> seams) {
+            this.targetImage = targetImage;
+            this.seams = new ArrayList<>();
+
+            for (List<PixelNode> seam : seams) {
+                this.seams.add(new ArrayList<>(seam));
+            }
+        }
+
+        /**
+         * Initializes a command for known inserted seams, such as when resuming a session. Applying it links the
+         * seams into the 'grid' again.
+         * @param targetImage The ImageRepresentation on which operations are performed.
+         * @param insertedSeams The inserted seams.
+         * @param edit The record of the insertion.
+         */
+        public InsertSeamCommand(ImageRepresentation targetImage, List<List<PixelNode>> insertedSeams, SessionStore.Edit edit) {
+            this.targetImage = targetImage;
+            this.seams = new ArrayList<>();
+            this.insertedSeams = insertedSeams;
+            this.edit = edit;
+        }
+
+        /**
+         * Inserts the duplicate seams into the 'grid', reusing the same nodes when redone.
+         */
+        @Override
+        void apply() {
+            if (insertedSeams == null) {
+                insertedSeams = targetImage.insertSeams(seams);
+                edit = new SessionStore.Edit(SessionStore.Edit.Kind.INSERT, targetImage.locateSeams(insertedSeams), colorsOf(insertedSeams));
+            } else {
+                targetImage.undoSeams(insertedSeams);
+            }
+        }
+
+        /**
+         * Removes the inserted seams from the 'grid'.
+         */
+        @Override
+        void revert() {
+            targetImage.removeSeams(insertedSeams);
+        }
+    }
+
+    /**
+     * Identifies a seam search by the version of the 'grid' it ran on and the scorer it used.
+     */
+    private static class SeamKey {
+        private final long version;
+        private final SeamScorer scorer;
+
+        SeamKey(long version, SeamScorer scorer) {
+            this.version = version;
+            this.scorer = scorer;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof SeamKey && version == ((SeamKey) other).version && scorer.equals(((SeamKey) other).scorer);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(version) * 31 + scorer.hashCode();
         }
     }
 
@@ -325,6 +1202,31 @@ public class ServiceLayer {
         return lastFoundSeam;
     }
 
+    /**
+     * Counts the seam pixels the undo and redo histories keep, each with its node and its record in the journal.
+     * @return The number of seam pixels over every edit that can be undone or redone.
+     */
+    public long getHistoryPixels() {
+        long pixels = 0;
+
+        for (EditCommand command : editHistory) {
+            pixels += ((SeamEditCommand) command).seamPixels();
+        }
+        for (EditCommand command : redoHistory) {
+            pixels += ((SeamEditCommand) command).seamPixels();
+        }
+
+        return pixels;
+    }
+
+    /**
+     * Retrieves the redo history stack.
+     * @return The redoHistory for the purpose of testing.
+     */
+    public Stack<EditCommand> getRedoHistory() {
+        return redoHistory;
+    }
+
     /**
      * Retrieves the edit history stack.
      * @return The editHistory for the purpose of testing.
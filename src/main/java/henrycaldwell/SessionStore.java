@@ -0,0 +1,534 @@
+package henrycaldwell;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Persists an editing session as a snapshot plus an append-only journal of the edits made since it was taken.
+ * The snapshot holds the image at the time it was written together with the full undo history, and the journal is
+ * folded into a fresh snapshot every so many records. Edits that were undone and not redone are only kept until the
+ * next snapshot, so redo is not available after resuming. Both files are memory-mapped when the session is loaded.
+ */
+public class SessionStore implements Closeable {
+    // Identifies the snapshot and journal files.
+    private static final int SNAPSHOT_MAGIC = 0x53534e50;
+    private static final int JOURNAL_MAGIC = 0x534a524e;
+    // The version of the file layouts.
+    private static final int VERSION = 2;
+    // Magic, version, generation, width, height, edit counter, history size, padding and the payload checksum.
+    private static final int SNAPSHOT_HEADER_SIZE = 40;
+    // Magic, version and generation.
+    private static final int JOURNAL_HEADER_SIZE = 12;
+    // Journal record types.
+    private static final byte EDIT_RECORD = 1;
+    private static final byte UNDO_RECORD = 2;
+    private static final byte REDO_RECORD = 3;
+    // The default number of journal records written before the journal is compacted into a new snapshot.
+    private static final int DEFAULT_COMPACTION_INTERVAL = 64;
+
+    // The directory holding the snapshot and journal.
+    private final Path directory;
+    // The number of journal records written before compacting.
+    private final int compactionInterval;
+    // The open journal, or null before the session is started or loaded.
+    private FileChannel journal;
+    // Incremented with every snapshot, so a journal left over from an older snapshot is never replayed on a newer one.
+    private int generation;
+    // The number of records in the current journal.
+    private int journalRecords;
+
+    /**
+     * Initializes a store for the session in the given directory.
+     * @param directory The directory to keep the session files in.
+     */
+    public SessionStore(Path directory) {
+        this(directory, DEFAULT_COMPACTION_INTERVAL);
+    }
+
+    /**
+     * Initializes a store for the session in the given directory with a custom compaction interval.
+     * @param directory The directory to keep the session files in.
+     * @param compactionInterval The number of journal records written before compacting.
+     */
+    public SessionStore(Path directory, int compactionInterval) {
+        this.directory = directory;
+        this.compactionInterval = compactionInterval;
+    }
+
+    /**
+     * Checks whether a session has been saved in the directory.
+     * @return True if a snapshot exists.
+     */
+    public boolean exists() {
+        return Files.isRegularFile(snapshotPath());
+    }
+
+    /**
+     * Checks whether the journal has grown enough to be compacted.
+     * @return True if compact should be called.
+     */
+    public boolean needsCompaction() {
+        return journalRecords >= compactionInterval;
+    }
+
+    /**
+     * Writes a new snapshot of the session and starts an empty journal after it.
+     * @param image The current image.
+     * @param history The edits that can be undone, from oldest to newest.
+     * @param editCounter The current edit counter.
+     * @throws IOException If the files can not be written.
+     */
+    public void compact(PixelBuffer image, List<Edit> history, int editCounter) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        long size = SNAPSHOT_HEADER_SIZE + 4L * width * height;
+
+        for (Edit edit : history) {
+            size += edit.encodedSize();
+        }
+
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Session is too large to snapshot: " + size + " bytes");
+        }
+
+        Files.createDirectories(directory);
+        Path tempSnapshot = directory.resolve("session.snapshot.tmp");
+        generation++;
+
+        try (FileChannel channel = FileChannel.open(tempSnapshot, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(SNAPSHOT_MAGIC).putInt(VERSION).putInt(generation).putInt(width).putInt(height)
+                    .putInt(editCounter).putInt(history.size()).putInt(0).putLong(0);
+
+            buffer.asIntBuffer().put(image.getPixels(), 0, width * height);
+            buffer.position(buffer.position() + 4 * width * height);
+
+            for (Edit edit : history) {
+                edit.writeTo(buffer);
+            }
+
+            buffer.putLong(32, checksum(buffer, SNAPSHOT_HEADER_SIZE, buffer.capacity()));
+            buffer.force();
+        }
+
+        Files.move(tempSnapshot, snapshotPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        openJournal(JOURNAL_HEADER_SIZE, true);
+    }
+
+    /**
+     * Appends an edit to the journal.
+     * @param edit The edit that was made.
+     * @param editCounter The edit counter after the edit.
+     * @throws IOException If the journal can not be written.
+     */
+    public void recordEdit(Edit edit, int editCounter) throws IOException {
+        ByteBuffer payload = ByteBuffer.allocate(5 + edit.encodedSize());
+        payload.put(EDIT_RECORD).putInt(editCounter);
+        edit.writeTo(payload);
+        appendRecord(payload);
+    }
+
+    /**
+     * Appends an undo of the most recent edits to the journal.
+     * @param steps The number of edits undone.
+     * @param editCounter The edit counter after the undo.
+     * @throws IOException If the journal can not be written.
+     */
+    public void recordUndo(int steps, int editCounter) throws IOException {
+        ByteBuffer payload = ByteBuffer.allocate(9);
+        payload.put(UNDO_RECORD).putInt(editCounter).putInt(steps);
+        appendRecord(payload);
+    }
+
+    /**
+     * Appends a redo of the most recently undone edits to the journal.
+     * @param steps The number of edits redone.
+     * @param editCounter The edit counter after the redo.
+     * @throws IOException If the journal can not be written.
+     */
+    public void recordRedo(int steps, int editCounter) throws IOException {
+        ByteBuffer payload = ByteBuffer.allocate(9);
+        payload.put(REDO_RECORD).putInt(editCounter).putInt(steps);
+        appendRecord(payload);
+    }
+
+    /**
+     * Loads the saved session, replaying the journal on top of the snapshot. A record torn by an interrupted write
+     * ends the journal, and the store continues appending after the last intact record.
+     * @return The loaded session.
+     * @throws IOException If there is no valid snapshot.
+     */
+    public Session load() throws IOException {
+        Session session = new Session();
+        journalRecords = 0;
+
+        try (FileChannel channel = FileChannel.open(snapshotPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+
+            if (size < SNAPSHOT_HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Invalid session snapshot size: " + size);
+            }
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            if (buffer.getInt() != SNAPSHOT_MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Not a session snapshot: " + snapshotPath());
+            }
+
+            generation = buffer.getInt();
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            session.editCounter = buffer.getInt();
+            int historySize = buffer.getInt();
+            buffer.getInt();
+
+            if (buffer.getLong() != checksum(buffer, SNAPSHOT_HEADER_SIZE, buffer.capacity())) {
+                throw new IOException("Corrupted session snapshot: " + snapshotPath());
+            }
+
+            session.rows = new int[height][width];
+            for (int y = 0; y < height; y++) {
+                buffer.asIntBuffer().get(session.rows[y]);
+                buffer.position(buffer.position() + 4 * width);
+            }
+
+            for (int i = 0; i < historySize; i++) {
+                session.history.add(Edit.readFrom(buffer));
+            }
+        }
+
+        openJournal(replayJournal(session), false);
+        return session;
+    }
+
+    /**
+     * Applies the intact records of the journal to a session loaded from the snapshot.
+     * @param session The session to update.
+     * @return The journal length up to the end of the last intact record, or 0 if the journal must be restarted.
+     * @throws IOException If the journal can not be read.
+     */
+    private long replayJournal(Session session) throws IOException {
+        if (!Files.isRegularFile(journalPath())) {
+            return 0;
+        }
+
+        try (FileChannel channel = FileChannel.open(journalPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+
+            if (size < JOURNAL_HEADER_SIZE || size > Integer.MAX_VALUE) {
+                return 0;
+            }
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            if (buffer.getInt() != JOURNAL_MAGIC || buffer.getInt() != VERSION || buffer.getInt() != generation) {
+                return 0;
+            }
+
+            List<Edit> undone = new ArrayList<>();
+
+            while (buffer.remaining() >= 8) {
+                int start = buffer.position();
+                int length = buffer.getInt();
+                int crc = buffer.getInt();
+
+                if (length < 5 || length > buffer.remaining() || crc != (int) checksum(buffer, start + 8, start + 8 + length)) {
+                    buffer.position(start);
+                    break;
+                }
+
+                byte type = buffer.get();
+                session.editCounter = buffer.getInt();
+
+                if (type == EDIT_RECORD) {
+                    Edit edit = Edit.readFrom(buffer);
+                    edit.applyTo(session.rows);
+                    session.history.add(edit);
+                    undone.clear();
+                } else if (type == UNDO_RECORD) {
+                    for (int steps = buffer.getInt(); steps > 0 && !session.history.isEmpty(); steps--) {
+                        Edit edit = session.history.remove(session.history.size() - 1);
+                        edit.revert(session.rows);
+                        undone.add(edit);
+                    }
+                } else {
+                    for (int steps = buffer.getInt(); steps > 0 && !undone.isEmpty(); steps--) {
+                        Edit edit = undone.remove(undone.size() - 1);
+                        edit.applyTo(session.rows);
+                        session.history.add(edit);
+                    }
+                }
+
+                journalRecords++;
+            }
+
+            return buffer.position();
+        }
+    }
+
+    /**
+     * Opens the journal for appending, either continuing an existing one or starting a new one.
+     * @param length The length of the existing journal to keep, or 0 to start a new one.
+     * @param restart If true, a new journal is started regardless of length.
+     * @throws IOException If the journal can not be opened.
+     */
+    private void openJournal(long length, boolean restart) throws IOException {
+        close();
+        journal = FileChannel.open(journalPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        if (restart || length == 0) {
+            ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER_SIZE);
+            header.putInt(JOURNAL_MAGIC).putInt(VERSION).putInt(generation).flip();
+            journal.truncate(0);
+            journal.write(header, 0);
+            journalRecords = 0;
+            length = JOURNAL_HEADER_SIZE;
+        }
+
+        journal.truncate(length);
+        journal.position(length);
+    }
+
+    /**
+     * Writes a length and checksum prefixed record at the end of the journal.
+     * @param payload The record contents, positioned at its end.
+     * @throws IOException If the journal can not be written.
+     */
+    private void appendRecord(ByteBuffer payload) throws IOException {
+        if (journal == null) {
+            throw new IOException("The session has not been started.");
+        }
+
+        payload.flip();
+        ByteBuffer prefix = ByteBuffer.allocate(8);
+        prefix.putInt(payload.remaining()).putInt((int) checksum(payload, 0, payload.limit())).flip();
+
+        journal.write(new ByteBuffer[] {prefix, payload});
+        journalRecords++;
+    }
+
+    /**
+     * Closes the journal. Everything recorded so far stays on disk.
+     * @throws IOException If the journal can not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    /**
+     * Computes the checksum of a range of a buffer without moving its position.
+     * @param buffer The buffer.
+     * @param from Start of the range, inclusive.
+     * @param to End of the range, exclusive.
+     * @return The CRC32 of the range.
+     */
+    private static long checksum(ByteBuffer buffer, int from, int to) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().limit(to).position(from));
+        return crc.getValue();
+    }
+
+    private Path snapshotPath() {
+        return directory.resolve("session.snapshot");
+    }
+
+    private Path journalPath() {
+        return directory.resolve("session.journal");
+    }
+
+    /**
+     * A loaded session: the current pixels, the undoable edits and the edit counter.
+     */
+    public static class Session {
+        // The current pixels, indexed by row and then column.
+        int[][] rows;
+        // The edits that can be undone, from oldest to newest.
+        final List<Edit> history = new ArrayList<>();
+        // The edit counter of the session.
+        int editCounter;
+    }
+
+    /**
+     * A batch of seams removed from or inserted into the image, recorded as the column and color of every seam pixel.
+     * Columns always refer to the wider of the two images, so the image before a removal or after an insertion.
+     */
+    public static class Edit {
+        /**
+         * Whether the seams of an edit were removed or inserted.
+         */
+        public enum Kind { REMOVE, INSERT }
+
+        // Whether the seams were removed or inserted.
+        final Kind kind;
+        // The column of each seam pixel, indexed by seam and then row.
+        final int[][] columns;
+        // The color of each seam pixel, indexed by seam and then row.
+        final int[][] rgbs;
+
+        /**
+         * Initializes an edit.
+         * @param kind Whether the seams were removed or inserted.
+         * @param columns The column of each seam pixel, indexed by seam and then row.
+         * @param rgbs The color of each seam pixel, indexed by seam and then row.
+         */
+        public Edit(Kind kind, int[][] columns, int[][] rgbs) {
+            this.kind = kind;
+            this.columns = columns;
+            this.rgbs = rgbs;
+        }
+
+        /**
+         * Applies the edit to rows of pixels.
+         * @param rows The pixels to update, indexed by row and then column.
+         */
+        void applyTo(int[][] rows) {
+            if (kind == Kind.REMOVE) {
+                removeColumns(rows);
+            } else {
+                insertColumns(rows);
+            }
+        }
+
+        /**
+         * Reverses the edit on rows of pixels.
+         * @param rows The pixels to update, indexed by row and then column.
+         */
+        void revert(int[][] rows) {
+            if (kind == Kind.REMOVE) {
+                insertColumns(rows);
+            } else {
+                removeColumns(rows);
+            }
+        }
+
+        /**
+         * Removes the seam pixels from every row.
+         * @param rows The pixels to update.
+         */
+        private void removeColumns(int[][] rows) {
+            for (int y = 0; y < rows.length; y++) {
+                int[] order = orderInRow(y);
+                int[] row = rows[y];
+                int[] result = new int[row.length - order.length];
+                int from = 0;
+                int to = 0;
+
+                for (int seam : order) {
+                    int column = columns[seam][y];
+                    System.arraycopy(row, from, result, to, column - from);
+                    to += column - from;
+                    from = column + 1;
+                }
+
+                System.arraycopy(row, from, result, to, row.length - from);
+                rows[y] = result;
+            }
+        }
+
+        /**
+         * Inserts the seam pixels into every row.
+         * @param rows The pixels to update.
+         */
+        private void insertColumns(int[][] rows) {
+            for (int y = 0; y < rows.length; y++) {
+                int[] order = orderInRow(y);
+                int[] row = rows[y];
+                int[] result = new int[row.length + order.length];
+                int from = 0;
+                int to = 0;
+
+                for (int seam : order) {
+                    int column = columns[seam][y];
+                    System.arraycopy(row, from, result, to, column - to);
+                    from += column - to;
+                    to = column;
+                    result[to++] = rgbs[seam][y];
+                }
+
+                System.arraycopy(row, from, result, to, row.length - from);
+                rows[y] = result;
+            }
+        }
+
+        /**
+         * Orders the seams by their column in a row.
+         * @param y The row.
+         * @return Seam indices from the leftmost to the rightmost pixel in the row.
+         */
+        int[] orderInRow(int y) {
+            long[] keyed = new long[columns.length];
+
+            for (int seam = 0; seam < columns.length; seam++) {
+                keyed[seam] = ((long) columns[seam][y] << 32) | seam;
+            }
+
+            Arrays.sort(keyed);
+            int[] order = new int[keyed.length];
+
+            for (int i = 0; i < keyed.length; i++) {
+                order[i] = (int) keyed[i];
+            }
+
+            return order;
+        }
+
+        /**
+         * Computes the number of bytes writeTo produces.
+         * @return Encoded size in bytes.
+         */
+        int encodedSize() {
+            int height = (columns.length > 0) ? columns[0].length : 0;
+            return 12 + 8 * columns.length * height;
+        }
+
+        /**
+         * Writes the edit at the buffer's position.
+         * @param buffer The buffer to write to.
+         */
+        void writeTo(ByteBuffer buffer) {
+            int height = (columns.length > 0) ? columns[0].length : 0;
+            buffer.putInt(kind.ordinal()).putInt(columns.length).putInt(height);
+
+            for (int seam = 0; seam < columns.length; seam++) {
+                buffer.asIntBuffer().put(columns[seam]).put(rgbs[seam]);
+                buffer.position(buffer.position() + 8 * height);
+            }
+        }
+
+        /**
+         * Reads an edit from the buffer's position.
+         * @param buffer The buffer to read from.
+         * @return The edit.
+         */
+        static Edit readFrom(ByteBuffer buffer) {
+            Kind kind = Kind.values()[buffer.getInt()];
+            int seams = buffer.getInt();
+            int height = buffer.getInt();
+            int[][] columns = new int[seams][height];
+            int[][] rgbs = new int[seams][height];
+
+            for (int seam = 0; seam < seams; seam++) {
+                buffer.asIntBuffer().get(columns[seam]).get(rgbs[seam]);
+                buffer.position(buffer.position() + 8 * height);
+            }
+
+            return new Edit(kind, columns, rgbs);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package henrycaldwell;
+
+import java.io.IOException;
+
+/**
+ * Interface for a pixel source whose rows become readable from the top down over time, such as a file that is still
+ * being decoded on another thread. A row may only be read once awaitRows has reported it ready.
+ * Whoever reads the source closes it when done, or as soon as it gives up on the remaining rows.
+ */
+public interface StreamingPixelSource extends PixelSource, AutoCloseable {
+    /**
+     * Blocks until more than the given number of rows from the top are ready.
+     * @param rows The rows the caller has already read.
+     * @return The number of rows from the top that are ready, more than rows unless the image has no more rows.
+     * @throws IOException If the rows can not be produced, such as when decoding fails.
+     */
+    int awaitRows(int rows) throws IOException;
+
+    /**
+     * Stops producing rows and releases what the source holds, such as an open file. Rows that are already ready can
+     * still be read. Closing a source that is done or already closed does nothing.
+     */
+    @Override
+    void close();
+}
@@ -1,6 +1,13 @@
 package henrycaldwell;
 
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
 
 /**
@@ -9,21 +16,81 @@ import java.util.Scanner;
 public class UserInterface {
     // Service layer for handling core functionality of image editing.
     private static ServiceLayer editingService;
+    // Cache of decoded images and energy maps, so reopening an image skips decoding, or null unless started with
+    // --cache.
+    private static GridCache gridCache;
+    // Where the editing session is saved, so it can be resumed by starting with --resume, or null unless started with
+    // --save-session or --resume.
+    private static SessionStore sessionStore;
 
     /**
      * Main method to launch the user interface. Processes user commands to manipulate images.
+     * Passing --cache keeps decoded images in a cache of up to 1 GiB in target/grid-cache, and passing --save-session
+     * saves the editing session to target/session. Both are off unless asked for. Passing --resume continues the
+     * previously saved session, including its undo history, and keeps saving it. Passing --serve followed by an
+     * optional port and image root directory starts the HTTP carving service instead. Passing --script
+     * followed by a file, or --run followed by commands, runs them without the menu as described in CommandScript.
+     * Passing --sequence followed by an input directory, an output directory, a seam count and an optional band radius
+     * narrows every frame in the input directory as described in SequenceCarver.
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("--serve")) {
+            CarvingServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        if (args.length > 1 && args[0].equals("--script")) {
+            CommandScript.fromFile(Paths.get(args[1]), System.out).run();
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("--run")) {
+            new CommandScript(Arrays.asList(Arrays.copyOfRange(args, 1, args.length)), System.out).run();
+            return;
+        }
+
+        if (args.length > 3 && args[0].equals("--sequence")) {
+            int radius = (args.length > 4) ? Integer.parseInt(args[4]) : 8;
+            SequenceCarver carver = new SequenceCarver(Integer.parseInt(args[3]), radius, Runtime.getRuntime().availableProcessors());
+            carver.carve(SequenceCarver.listFrames(Paths.get(args[1])), Paths.get(args[2]),
+                    (done, total) -> System.out.print("\rCarved " + done + " of " + total + " frames"));
+            System.out.println();
+            return;
+        }
+
+        List<String> options = Arrays.asList(args);
+
+        if (options.contains("--cache")) {
+            gridCache = new GridCache(Paths.get("target/grid-cache"), 1L << 30);
+        }
+        if (options.contains("--save-session") || options.contains("--resume")) {
+            sessionStore = new SessionStore(Paths.get("target/session"));
+        }
+
         Scanner scanner = new Scanner(System.in);
         boolean imageLoaded = false;
 
+        if (options.contains("--resume")) {
+            if (sessionStore.exists()) {
+                editingService = new ServiceLayer(sessionStore);
+                imageLoaded = true;
+                System.out.println("Resumed the previous session.");
+            } else {
+                System.out.println("No saved session was found.");
+            }
+        }
+
         while (!imageLoaded) {
             System.out.print("Please enter a valid image path: ");
             String filePath = scanner.nextLine();
             File imageFile = new File(filePath);
             
             if (imageFile.exists() && !imageFile.isDirectory()) {
-                editingService = new ServiceLayer(filePath);
+                editingService = (gridCache != null) ? new ServiceLayer(filePath, gridCache) : new ServiceLayer(filePath);
+
+                if (sessionStore != null) {
+                    editingService.startSession(sessionStore);
+                }
                 imageLoaded = true;
             } else {
                 System.out.println("The file does not exist or is not accessible. Please try again.");
@@ -44,12 +111,22 @@ public class UserInterface {
                 case "e":
                     editingService.findAndHighlightSeam(true);
                     break;
+                case "s":
+                    editingService.findAndHighlightSeams(Arrays.asList(SeamScorer.lowestEnergy(), SeamScorer.bluest()),
+                            Arrays.asList(Color.RED, Color.BLUE));
+                    break;
                 case "d":
                     editingService.removeSeam();
                     break;
                 case "u":
                     editingService.undoLastEdit();
                     break;
+                case "r":
+                    editingService.redoLastEdit();
+                    break;
+                case "o":
+                    removeObject(scanner);
+                    break;
                 case "q":
                     running = false;
                     break;
@@ -59,9 +136,35 @@ public class UserInterface {
         }
 
         System.out.println("Exiting...");
+        editingService.closeSession();
         scanner.close();
     }
 
+    /**
+     * Asks for a mask image and erases the object it marks, printing the progress as seams are removed.
+     * @param scanner The console input.
+     */
+    private static void removeObject(Scanner scanner) {
+        System.out.print("Please enter the path of a mask image, non-black where the object is: ");
+        String maskPath = scanner.nextLine();
+
+        try {
+            BufferedImage mask = ImageIO.read(new File(maskPath));
+
+            if (mask == null) {
+                System.out.println("The file is not a readable image.");
+                return;
+            }
+
+            editingService.removeObject(mask, (done, total) -> System.out.print("\rErased " + done + " of " + total + " masked pixels"));
+            System.out.println();
+        } catch (IOException e) {
+            System.err.println("Error loading the mask: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
     /**
      * Displays the main menu, listing available commands.
      */
@@ -69,8 +172,11 @@ public class UserInterface {
         System.out.println("\nPlease enter a command:");
         System.out.println("B - Highlight the bluest seam");
         System.out.println("E - Highlight the seam with the lowest energy");
+        System.out.println("S - Highlight the lowest energy (red) and bluest (blue) seams side by side");
         System.out.println("D - Delete the highlighted seam");
         System.out.println("U - Undo the last deletion");
+        System.out.println("R - Redo the last undone deletion");
+        System.out.println("O - Erase an object marked by a mask image");
         System.out.println("Q - Quit");
         System.out.print("Enter command: ");
     }
@@ -0,0 +1,34 @@
+package henrycaldwell;
+
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+
+public class CancellationTokenTest {
+    @Test
+    void cancelStopsTheEdit() {
+        CancellationToken token = new CancellationToken();
+
+        assertThat(token.isCancelled()).isFalse();
+        token.throwIfCancelled();
+
+        token.cancel();
+        assertThat(token.isCancelled()).isTrue();
+        assertThatThrownBy(token::throwIfCancelled).isInstanceOf(CancellationException.class).hasMessageContaining("cancelled");
+    }
+
+    @Test
+    void deadlineCancelsOnceBudgetIsUsedUp() {
+        assertThat(new CancellationToken(Duration.ofHours(1)).isCancelled()).isFalse();
+        assertThatThrownBy(new CancellationToken(Duration.ZERO)::throwIfCancelled).isInstanceOf(CancellationException.class).hasMessageContaining("budget");
+    }
+
+    @Test
+    void remainingTimeScalesWithWorkLeft() {
+        assertThat(ProgressListener.estimateRemainingNanos(1000, 1, 4)).isEqualTo(3000);
+        assertThat(ProgressListener.estimateRemainingNanos(1000, 4, 4)).isZero();
+        assertThat(ProgressListener.estimateRemainingNanos(1000, 0, 4)).isEqualTo(Long.MAX_VALUE);
+    }
+}
@@ -0,0 +1,112 @@
+package henrycaldwell;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.assertj.core.api.Assertions.assertThat;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class CarvingServerTest {
+    private CarvingServer server;
+    private HttpClient client;
+
+    @TempDir
+    Path sessionDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new CarvingServer(0, Paths.get("."), sessionDir, 1000);
+        server.start();
+        client = HttpClient.newHttpClient();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    void carveAcrossEvictedSessions() throws Exception {
+        String first = createSession();
+        String second = createSession();
+
+        HttpResponse<String> seam = send("POST", "/sessions/" + first + "/seam?criterion=energy");
+        assertThat(seam.statusCode()).isEqualTo(200);
+        assertThat(seam.body()).isEqualTo("{\"seam\":[0, 1, 2]}");
+
+        assertThat(send("POST", "/sessions/" + first + "/remove").body()).isEqualTo("{\"width\":2,\"height\":3}");
+        assertThat(send("POST", "/sessions/" + second + "/resize?width=1").body()).isEqualTo("{\"width\":1,\"height\":3}");
+        assertThat(send("POST", "/sessions/" + first + "/undo").body()).isEqualTo("{\"width\":3,\"height\":3}");
+        assertThat(send("POST", "/sessions/" + first + "/undo").statusCode()).isEqualTo(409);
+        assertThat(send("POST", "/sessions/" + second + "/resize?width=4").body()).isEqualTo("{\"width\":4,\"height\":3}");
+        assertThat(send("GET", "/sessions/" + second + "/image").headers().firstValue("Content-Type")).hasValue("image/png");
+
+        assertThat(send("DELETE", "/sessions/" + second).statusCode()).isEqualTo(200);
+        assertThat(send("POST", "/sessions/" + second + "/undo").statusCode()).isEqualTo(404);
+    }
+
+    @Test
+    void deletingUnknownSessionIsNotFound() throws Exception {
+        String id = createSession();
+
+        assertThat(send("DELETE", "/sessions/missing").statusCode()).isEqualTo(404);
+        assertThat(send("DELETE", "/sessions/" + id).statusCode()).isEqualTo(200);
+        assertThat(send("DELETE", "/sessions/" + id).statusCode()).isEqualTo(404);
+    }
+
+    @Test
+    void invalidRequestsAreRejected() throws Exception {
+        assertThat(send("POST", "/sessions?path=missing.png").statusCode()).isEqualTo(400);
+
+        String id = createSession();
+        assertThat(send("POST", "/sessions/" + id + "/remove").statusCode()).isEqualTo(409);
+        assertThat(send("POST", "/sessions/" + id + "/resize?width=zero").statusCode()).isEqualTo(400);
+        assertThat(send("POST", "/sessions/" + id + "/resize?width=1&budgetMs=soon").statusCode()).isEqualTo(400);
+    }
+
+    @Test
+    void imagesOutsideTheRootAreRefused(@TempDir Path outside) throws Exception {
+        Path image = outside.resolve("outside.png");
+        Files.copy(Paths.get("src/main/resources/TESTCASE_IMAGE.png"), image);
+
+        assertThat(send("POST", "/sessions?path=" + image.toAbsolutePath()).statusCode()).isEqualTo(403);
+        assertThat(send("POST", "/sessions?path=src/../../" + image.getFileName()).statusCode()).isEqualTo(403);
+        assertThat(send("POST", "/sessions?path=%2Fetc%2Fpasswd").statusCode()).isEqualTo(403);
+        assertThat(send("POST", "/sessions?path=" + Paths.get("").toAbsolutePath().resolve("src/main/resources/TESTCASE_IMAGE.png")).statusCode()).isEqualTo(200);
+
+        Path link = Paths.get("target/outside-link.png");
+        Files.deleteIfExists(link);
+        try {
+            Files.createSymbolicLink(link, image.toAbsolutePath());
+            assertThat(send("POST", "/sessions?path=target/outside-link.png").statusCode()).isEqualTo(403);
+        } finally {
+            Files.deleteIfExists(link);
+        }
+    }
+
+    private String createSession() throws Exception {
+        HttpResponse<String> response = send("POST", "/sessions?path=src/main/resources/TESTCASE_IMAGE.png");
+        assertThat(response.statusCode()).isEqualTo(200);
+
+        Matcher matcher = Pattern.compile("\"id\":\"([^\"]+)\"").matcher(response.body());
+        assertThat(matcher.find()).isTrue();
+        return matcher.group(1);
+    }
+
+    private HttpResponse<String> send(String method, String path) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + server.getPort() + path))
+                .method(method, HttpRequest.BodyPublishers.noBody())
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
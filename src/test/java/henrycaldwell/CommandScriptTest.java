@@ -0,0 +1,115 @@
+package henrycaldwell;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+public class CommandScriptTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void fusedScriptRemovesAndUndoesSeams() throws IOException {
+        Path output = tempDir.resolve("out.png");
+        ByteArrayOutputStream timings = new ByteArrayOutputStream();
+
+        new CommandScript(Arrays.asList("load", "src/main/resources/TESTCASE_IMAGE.png", "ed*2", "u*2", "r", "e", "save", output.toString()),
+                new PrintStream(timings)).run();
+
+        BufferedImage saved = ImageIO.read(output.toFile());
+        assertThat(saved.getWidth()).isEqualTo(2);
+        assertThat(saved.getHeight()).isEqualTo(3);
+        assertThat(timings.toString()).contains("Phase timings:", "remove", "x2", "save");
+    }
+
+    @Test
+    void fusedRemovalsUndoOneSeamAtATime() throws IOException {
+        Random random = new Random(41);
+        BufferedImage image = new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB);
+
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+
+        Path input = tempDir.resolve("random.png");
+        Path output = tempDir.resolve("out.png");
+        ImageIO.write(image, "png", input.toFile());
+
+        new CommandScript(Arrays.asList("load", input.toString(), "ed*12", "u*5", "save", output.toString()),
+                new PrintStream(new ByteArrayOutputStream())).run();
+
+        ServiceLayer interactive = new ServiceLayer(input.toString());
+        interactive.getImageRep().setPreviewSaving(false);
+        interactive.removeLowestEnergySeam(12);
+        interactive.undoTo(7);
+
+        BufferedImage expected = interactive.getImageRep().getImage();
+        BufferedImage saved = ImageIO.read(output.toFile());
+        assertThat(saved.getWidth()).isEqualTo(33);
+        assertThat(saved.getRGB(0, 0, 33, 30, null, 0, 33)).isEqualTo(expected.getRGB(0, 0, 33, 30, null, 0, 33));
+    }
+
+    @Test
+    void hugeRepeatCountsAreNotExpanded() throws IOException {
+        Path output = tempDir.resolve("out.png");
+        ByteArrayOutputStream timings = new ByteArrayOutputStream();
+
+        new CommandScript(Arrays.asList("load", "src/main/resources/TESTCASE_IMAGE.png", "ed*2000000000", "ed*2000000000",
+                "u*2000000000", "r*2000000000", "u", "save", output.toString()), new PrintStream(timings)).run();
+
+        assertThat(ImageIO.read(output.toFile()).getWidth()).isEqualTo(2);
+        assertThat(timings.toString()).contains("x" + Integer.MAX_VALUE);
+    }
+
+    @Test
+    void repeatedRunsThatDoNotFuseAreLooped() throws IOException {
+        Path output = tempDir.resolve("out.png");
+
+        new CommandScript(Arrays.asList("load", "src/main/resources/TESTCASE_IMAGE.png", "bd*2", "save", output.toString()),
+                new PrintStream(new ByteArrayOutputStream())).run();
+
+        ServiceLayer interactive = new ServiceLayer("src/main/resources/TESTCASE_IMAGE.png");
+        interactive.getImageRep().setPreviewSaving(false);
+        for (int i = 0; i < 2; i++) {
+            interactive.findAndHighlightSeam(false);
+            interactive.removeSeam();
+        }
+
+        BufferedImage expected = interactive.getImageRep().getImage();
+        BufferedImage saved = ImageIO.read(output.toFile());
+        assertThat(saved.getWidth()).isEqualTo(1);
+        assertThat(saved.getRGB(0, 0, 1, 3, null, 0, 1)).isEqualTo(expected.getRGB(0, 0, 1, 3, null, 0, 1));
+    }
+
+    @Test
+    void scriptFileSkipsComments() throws IOException {
+        Path output = tempDir.resolve("out.png");
+        Path script = tempDir.resolve("script.txt");
+        Files.write(script, Arrays.asList("# carve one seam", "load src/main/resources/TESTCASE_IMAGE.png", "e d", "save " + output));
+
+        CommandScript.fromFile(script, new PrintStream(new ByteArrayOutputStream())).run();
+
+        assertThat(ImageIO.read(output.toFile()).getWidth()).isEqualTo(2);
+    }
+
+    @Test
+    void invalidCommandsAreRejected() {
+        PrintStream out = new PrintStream(new ByteArrayOutputStream());
+
+        assertThatThrownBy(() -> new CommandScript(Arrays.asList("x*2"), out)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new CommandScript(Arrays.asList("e*many"), out)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new CommandScript(Arrays.asList("e"), out).run()).isInstanceOf(IllegalStateException.class);
+    }
+}
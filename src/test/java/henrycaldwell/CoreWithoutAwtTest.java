@@ -0,0 +1,16 @@
+package henrycaldwell;
+
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+import java.io.IOException;
+
+public class CoreWithoutAwtTest {
+    @Test
+    void pixelBufferCarveLoadsNoAwt() throws IOException, InterruptedException {
+        StartupBenchmark.Launch core = StartupBenchmark.launch("core");
+
+        assertThat(core.exitCode).isZero();
+        assertThat(core.awtClasses).as("AWT classes loaded by the pixel buffer carve").isEmpty();
+        assertThat(core.checksum).isEqualTo("checksum " + StartupBenchmark.carve(true));
+    }
+}
@@ -0,0 +1,91 @@
+package henrycaldwell;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.assertj.core.api.Assertions.assertThat;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class GridCacheTest {
+    private static final String TEST_IMAGE = "src/main/resources/TESTCASE_IMAGE.png";
+
+    @TempDir
+    Path cacheDir;
+
+    @Test
+    void storedEntryMatchesFreshLoad() throws IOException {
+        GridCache cache = new GridCache(cacheDir, 1L << 20);
+        String key = cache.keyFor(TEST_IMAGE);
+
+        assertThat(cache.get(key)).isNull();
+
+        ServiceLayer fresh = new ServiceLayer(TEST_IMAGE, cache);
+        ImageRepresentation cached = cache.get(key);
+
+        assertThat(cached).isNotNull();
+        assertThat(cached.getEnergies()).isEqualTo(fresh.getImageRep().getEnergies());
+
+        for (int y = 0; y < 3; y++) {
+            for (int x = 0; x < 3; x++) {
+                assertThat(cached.getImage().getRGB(x, y)).isEqualTo(fresh.getImageRep().getImage().getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    void corruptedEntryIsDiscarded() throws IOException {
+        GridCache cache = new GridCache(cacheDir, 1L << 20);
+        String key = cache.keyFor(TEST_IMAGE);
+        new ServiceLayer(TEST_IMAGE, cache);
+
+        Path entry = cacheDir.resolve(key + ".grid");
+        byte[] bytes = Files.readAllBytes(entry);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(entry, bytes);
+
+        assertThat(cache.get(key)).isNull();
+        assertThat(entry).doesNotExist();
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvicted() {
+        ImageRepresentation imageRep = new ServiceLayer(TEST_IMAGE).getImageRep();
+        GridCache cache = new GridCache(cacheDir, 2 * (24 + 12 * 9));
+
+        cache.put("first", imageRep);
+        cache.put("second", imageRep);
+        cacheDir.resolve("first.grid").toFile().setLastModified(1000);
+        cacheDir.resolve("second.grid").toFile().setLastModified(2000);
+        cache.put("third", imageRep);
+
+        assertThat(cacheDir.resolve("first.grid")).doesNotExist();
+        assertThat(cache.get("second")).isNotNull();
+        assertThat(cache.get("third")).isNotNull();
+    }
+
+    @Test
+    void concurrentWritesOfOneKeyLeaveOneValidEntry() throws Exception {
+        ImageRepresentation imageRep = new ServiceLayer(TEST_IMAGE).getImageRep();
+        GridCache cache = new GridCache(cacheDir, 1L << 20);
+        List<Thread> writers = new ArrayList<>();
+
+        for (int i = 0; i < 8; i++) {
+            writers.add(new Thread(() -> cache.put("shared", imageRep)));
+        }
+        for (Thread writer : writers) {
+            writer.start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        try (Stream<Path> files = Files.list(cacheDir)) {
+            assertThat(files).containsExactly(cacheDir.resolve("shared.grid"));
+        }
+        assertThat(cache.get("shared").getEnergies()).isEqualTo(imageRep.getEnergies());
+    }
+}
@@ -0,0 +1,51 @@
+package henrycaldwell;
+
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+public class ImageIOPixelsTest {
+    @Test
+    void packedImagesAreSharedWithoutCopying() {
+        BufferedImage image = new BufferedImage(4, 3, BufferedImage.TYPE_INT_RGB);
+        PixelSource source = ImageIOPixels.of(image);
+
+        assertThat(source).isInstanceOf(PixelBuffer.class);
+        image.setRGB(2, 1, 0x123456);
+        assertThat(((PixelBuffer) source).getRGB(2, 1) & 0xFFFFFF).isEqualTo(0x123456);
+    }
+
+    @Test
+    void otherImagesAreReadRowByRow() {
+        BufferedImage image = new BufferedImage(5, 4, BufferedImage.TYPE_3BYTE_BGR);
+        Random random = new Random(7);
+
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < 5; x++) {
+                image.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+
+        PixelBuffer copy = PixelBuffer.copyOf(ImageIOPixels.of(image));
+
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < 5; x++) {
+                assertThat(copy.getRGB(x, y)).isEqualTo(image.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    void imageViewSharesThePixelBuffer() {
+        PixelBuffer pixels = new PixelBuffer(3, 2);
+        pixels.setRGB(1, 1, 0xABCDEF);
+        BufferedImage image = ImageIOPixels.toImage(pixels);
+
+        assertThat(image.getType()).isEqualTo(BufferedImage.TYPE_INT_RGB);
+        assertThat(image.getRGB(1, 1)).isEqualTo(0xFFABCDEF);
+
+        image.setRGB(0, 0, 0x654321);
+        assertThat(pixels.getRGB(0, 0) & 0xFFFFFF).isEqualTo(0x654321);
+    }
+}
@@ -0,0 +1,177 @@
+package henrycaldwell;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+public class ImageLoaderTest {
+    private BufferedImage original;
+    private String imagePath;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        original = new BufferedImage(40, 30, BufferedImage.TYPE_3BYTE_BGR);
+        Random random = new Random(21);
+
+        for (int y = 0; y < 30; y++) {
+            for (int x = 0; x < 40; x++) {
+                original.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+
+        imagePath = tempDir.resolve("original.png").toString();
+        ImageIO.write(original, "png", tempDir.resolve("original.png").toFile());
+    }
+
+    @Test
+    void wholeImageIsReadAsIntArgb() throws IOException {
+        BufferedImage loaded = new ImageLoader().load(imagePath);
+
+        assertThat(loaded.getType()).isEqualTo(BufferedImage.TYPE_INT_ARGB);
+        assertPixels(loaded, 0, 0, 1, 40, 30);
+    }
+
+    @Test
+    void subsampledRegionSkipsPixels() throws IOException {
+        BufferedImage loaded = new ImageLoader(3, new Rectangle(5, 2, 20, 25)).load(imagePath);
+
+        assertThat(loaded.getType()).isEqualTo(BufferedImage.TYPE_INT_ARGB);
+        assertPixels(loaded, 5, 2, 3, 7, 9);
+    }
+
+    @Test
+    void regionIsClippedToTheImage() throws IOException {
+        BufferedImage loaded = new ImageLoader(1, new Rectangle(30, 20, 100, 100)).load(imagePath);
+
+        assertPixels(loaded, 30, 20, 1, 10, 10);
+        assertThatThrownBy(() -> new ImageLoader(1, new Rectangle(50, 50, 5, 5)).load(imagePath)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void streamedRowsMatchTheDecodedImage() throws IOException {
+        BufferedImage tall = randomImage(40, 300);
+        File tallPng = tempDir.resolve("tall.png").toFile();
+        File interlacedPng = tempDir.resolve("interlaced.png").toFile();
+        File jpeg = tempDir.resolve("tall.jpg").toFile();
+
+        ImageIO.write(tall, "png", tallPng);
+        ImageIO.write(tall, "jpg", jpeg);
+        writeInterlacedPng(tall, interlacedPng);
+
+        for (String path : Arrays.asList(imagePath, tallPng.getPath(), interlacedPng.getPath(), jpeg.getPath())) {
+            for (ImageLoader loader : Arrays.asList(new ImageLoader(), new ImageLoader(3, new Rectangle(5, 2, 20, 25)))) {
+                BufferedImage loaded = loader.load(path);
+                PixelBuffer streamed = PixelBuffer.copyOf(loader.stream(path));
+
+                assertThat(streamed.getWidth()).isEqualTo(loaded.getWidth());
+                assertThat(streamed.getHeight()).isEqualTo(loaded.getHeight());
+
+                for (int y = 0; y < loaded.getHeight(); y++) {
+                    for (int x = 0; x < loaded.getWidth(); x++) {
+                        assertThat(streamed.getRGB(x, y) & 0xFFFFFF).isEqualTo(loaded.getRGB(x, y) & 0xFFFFFF);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void onlyFilesWithRowsInOrderAreStreamed() throws IOException {
+        BufferedImage tall = randomImage(40, 300);
+        File tallPng = tempDir.resolve("tall.png").toFile();
+        File interlacedPng = tempDir.resolve("interlaced.png").toFile();
+
+        ImageIO.write(tall, "png", tallPng);
+        writeInterlacedPng(tall, interlacedPng);
+
+        PixelSource streamed = new ImageLoader().stream(tallPng.getPath());
+        assertThat(streamed).isInstanceOf(StreamingPixelSource.class);
+        ((StreamingPixelSource) streamed).close();
+
+        assertThat(new ImageLoader().stream(interlacedPng.getPath())).isInstanceOf(PixelBuffer.class);
+    }
+
+    @Test
+    void closingStopsTheDecoder() throws IOException, InterruptedException {
+        File tallPng = tempDir.resolve("tall.png").toFile();
+        ImageIO.write(randomImage(64, 4096), "png", tallPng);
+
+        StreamingPixelSource source = (StreamingPixelSource) new ImageLoader().stream(tallPng.getPath());
+        assertThat(source.awaitRows(0)).isPositive();
+        source.close();
+
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("image-decoder")) {
+                thread.join(10_000);
+                assertThat(thread.isAlive()).as("decoder still running after close").isFalse();
+            }
+        }
+    }
+
+    @Test
+    void truncatedFileFailsWhileStreaming() throws IOException {
+        File tallPng = tempDir.resolve("tall.png").toFile();
+        ImageIO.write(randomImage(40, 300), "png", tallPng);
+        byte[] bytes = Files.readAllBytes(tallPng.toPath());
+        Files.write(tallPng.toPath(), Arrays.copyOf(bytes, bytes.length / 2));
+
+        assertThatThrownBy(() -> PixelBuffer.copyOf(new ImageLoader().stream(tallPng.getPath())))
+                .isInstanceOfAny(IOException.class, UncheckedIOException.class);
+    }
+
+    private BufferedImage randomImage(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(23);
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+
+        return image;
+    }
+
+    private void writeInterlacedPng(BufferedImage image, File file) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(file)) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private void assertPixels(BufferedImage loaded, int left, int top, int step, int width, int height) {
+        assertThat(loaded.getWidth()).isEqualTo(width);
+        assertThat(loaded.getHeight()).isEqualTo(height);
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                assertThat(loaded.getRGB(x, y)).isEqualTo(original.getRGB(left + x * step, top + y * step));
+            }
+        }
+    }
+}
@@ -3,10 +3,16 @@ package henrycaldwell;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
 import java.awt.image.BufferedImage;
 import java.awt.Color;
+import javax.imageio.ImageIO;
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
 
 public class ImageRepresentationTest {
     private ImageRepresentation imageRepresentation;
@@ -34,21 +40,21 @@ public class ImageRepresentationTest {
         PixelNode root = imageRepresentation.getRoot();
 
         assertThat(root).isNotNull();
-        assertThat(root.color).isEqualTo(new Color(testImage.getRGB(0, 0)));
-        assertThat(root.right.color).isEqualTo(new Color(testImage.getRGB(1, 0)));
-        assertThat(root.right.right.color).isEqualTo(new Color(testImage.getRGB(2, 0)));
+        assertThat(root.rgb).isEqualTo(testImage.getRGB(0, 0));
+        assertThat(root.right.rgb).isEqualTo(testImage.getRGB(1, 0));
+        assertThat(root.right.right.rgb).isEqualTo(testImage.getRGB(2, 0));
 
         PixelNode secondRow = root.down;
-        assertThat(secondRow.color).isEqualTo(new Color(testImage.getRGB(0, 1)));
-        assertThat(secondRow.right.color).isEqualTo(new Color(testImage.getRGB(1, 1)));
-        assertThat(secondRow.right.right.color).isEqualTo(new Color(testImage.getRGB(2, 1)));
+        assertThat(secondRow.rgb).isEqualTo(testImage.getRGB(0, 1));
+        assertThat(secondRow.right.rgb).isEqualTo(testImage.getRGB(1, 1));
+        assertThat(secondRow.right.right.rgb).isEqualTo(testImage.getRGB(2, 1));
 
         PixelNode thirdRow = secondRow.down;
-        assertThat(thirdRow.color).isEqualTo(new Color(testImage.getRGB(0, 2)));
-        assertThat(thirdRow.right.color).isEqualTo(new Color(testImage.getRGB(1, 2)));
+        assertThat(thirdRow.rgb).isEqualTo(testImage.getRGB(0, 2));
+        assertThat(thirdRow.right.rgb).isEqualTo(testImage.getRGB(1, 2));
 
         PixelNode lastNode = thirdRow.right.right;
-        assertThat(lastNode.color).isEqualTo(new Color(testImage.getRGB(2, 2)));
+        assertThat(lastNode.rgb).isEqualTo(testImage.getRGB(2, 2));
 
         assertThat(lastNode.right).isNull();
         assertThat(lastNode.down).isNull();
@@ -69,10 +75,10 @@ public class ImageRepresentationTest {
             while (current != null) {
                 boolean surroundedBySameColor = isSurroundedBySameColor(current);
 
-                if (surroundedBySameColor && current.energy != 0) {
+                if (surroundedBySameColor && current.energy() != 0) {
                     energyCalculatedCorrectly = false;
                     break;
-                } else if (!surroundedBySameColor && current.energy <= 0) {
+                } else if (!surroundedBySameColor && current.energy() <= 0) {
                     energyCalculatedCorrectly = false;
                     break;
                 }
@@ -88,20 +94,85 @@ public class ImageRepresentationTest {
         assertThat(energyCalculatedCorrectly).isTrue();
     }
 
+    @Test
+    void streamedRowsBuildTheSameGrid() {
+        BufferedImage image = new BufferedImage(37, 90, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(41);
+
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+
+        PixelBuffer pixels = PixelBuffer.copyOf(ImageIOPixels.of(image));
+        List<Integer> waits = new ArrayList<>();
+        List<Integer> closes = new ArrayList<>();
+        StreamingPixelSource stream = new StreamingPixelSource() {
+            private int ready;
+
+            @Override
+            public int awaitRows(int rows) {
+                waits.add(rows);
+                ready = Math.min(pixels.getHeight(), Math.max(ready, rows + 1 + random.nextInt(12)));
+                return ready;
+            }
+
+            @Override
+            public int getWidth() {
+                return pixels.getWidth();
+            }
+
+            @Override
+            public int getHeight() {
+                return pixels.getHeight();
+            }
+
+            @Override
+            public void readRow(int y, int[] row, int offset) {
+                assertThat(y).isLessThan(ready);
+                pixels.readRow(y, row, offset);
+            }
+
+            @Override
+            public void close() {
+                closes.add(ready);
+            }
+        };
+
+        ImageRepresentation streamed = new ImageRepresentation(stream);
+        ImageRepresentation built = new ImageRepresentation(image);
+
+        assertThat(waits.size()).isGreaterThan(1);
+        assertThat(closes).containsExactly(90);
+        assertThat(streamed.getEnergies()).isEqualTo(built.getEnergies());
+
+        PixelNode[][] rows = streamed.getNodeRows();
+        for (int y = 0; y < rows.length; y++) {
+            for (int x = 0; x < rows[y].length; x++) {
+                assertThat(rows[y][x].rgb).isEqualTo(image.getRGB(x, y));
+                assertThat(rows[y][x].down).isSameAs((y + 1 < rows.length) ? rows[y + 1][x] : null);
+                assertThat(rows[y][x].up).isSameAs((y > 0) ? rows[y - 1][x] : null);
+            }
+        }
+
+        assertMatchesGrid(streamed);
+    }
+
     private boolean isSurroundedBySameColor(PixelNode node) {
-        Color nodeColor = node.color;
+        int nodeColor = node.rgb;
 
-        if ((node.left != null && !node.left.color.equals(nodeColor)) ||
-                (node.right != null && !node.right.color.equals(nodeColor)) ||
-                (node.up != null && !node.up.color.equals(nodeColor)) ||
-                (node.down != null && !node.down.color.equals(nodeColor))) {
+        if ((node.left != null && node.left.rgb != nodeColor) ||
+                (node.right != null && node.right.rgb != nodeColor) ||
+                (node.up != null && node.up.rgb != nodeColor) ||
+                (node.down != null && node.down.rgb != nodeColor)) {
             return false;
         }
 
-        if ((node.up != null && node.up.left != null && !node.up.left.color.equals(nodeColor)) ||
-                (node.up != null && node.up.right != null && !node.up.right.color.equals(nodeColor)) ||
-                (node.down != null && node.down.left != null && !node.down.left.color.equals(nodeColor)) ||
-                (node.down != null && node.down.right != null && !node.down.right.color.equals(nodeColor))) {
+        if ((node.up != null && node.up.left != null && node.up.left.rgb != nodeColor) ||
+                (node.up != null && node.up.right != null && node.up.right.rgb != nodeColor) ||
+                (node.down != null && node.down.left != null && node.down.left.rgb != nodeColor) ||
+                (node.down != null && node.down.right != null && node.down.right.rgb != nodeColor)) {
             return false;
         }
 
@@ -140,18 +211,18 @@ public class ImageRepresentationTest {
         imageRepresentation.removeSeam(seam);
 
         PixelNode root = imageRepresentation.getRoot();
-        assertThat(root.color).isEqualTo(new Color(testImage.getRGB(0, 0)));
-        assertThat(root.right.color).isEqualTo(new Color(testImage.getRGB(2, 0)));
+        assertThat(root.rgb).isEqualTo(testImage.getRGB(0, 0));
+        assertThat(root.right.rgb).isEqualTo(testImage.getRGB(2, 0));
         assertThat(root.right.right).isNull();
 
         PixelNode secondRow = root.down;
-        assertThat(secondRow.color).isEqualTo(new Color(testImage.getRGB(0, 1)));
-        assertThat(secondRow.right.color).isEqualTo(new Color(testImage.getRGB(1, 1)));
+        assertThat(secondRow.rgb).isEqualTo(testImage.getRGB(0, 1));
+        assertThat(secondRow.right.rgb).isEqualTo(testImage.getRGB(1, 1));
         assertThat(secondRow.right.right).isNull();
 
         PixelNode thirdRow = secondRow.down;
-        assertThat(thirdRow.color).isEqualTo(new Color(testImage.getRGB(0, 2)));
-        assertThat(thirdRow.right.color).isEqualTo(new Color(testImage.getRGB(2, 2)));
+        assertThat(thirdRow.rgb).isEqualTo(testImage.getRGB(0, 2));
+        assertThat(thirdRow.right.rgb).isEqualTo(testImage.getRGB(2, 2));
         assertThat(thirdRow.right.right).isNull();
 
         assertThat(thirdRow.down).isNull();
@@ -188,4 +259,330 @@ public class ImageRepresentationTest {
         assertThat(new Color(updatedImage.getRGB(0, 2))).isEqualTo(new Color(testImage.getRGB(0, 2)));
         assertThat(new Color(updatedImage.getRGB(1, 2))).isEqualTo(new Color(testImage.getRGB(2, 2)));
     }
+
+    @Test
+    void laterChangesToTheSourceImageAreIgnored() {
+        BufferedImage source = new BufferedImage(150, 100, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(37);
+
+        for (int y = 0; y < 100; y++) {
+            for (int x = 0; x < 150; x++) {
+                source.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+
+        int[] original = source.getRGB(0, 0, 150, 100, null, 0, 150);
+        ImageRepresentation imageRep = new ImageRepresentation(source);
+        source.setRGB(0, 0, 150, 100, new int[150 * 100], 0, 150);
+
+        List<PixelNode> seam = new ArrayList<>();
+        for (PixelNode node = imageRep.getRoot(); node != null; node = node.down) {
+            PixelNode seamNode = node;
+            for (int x = 0; x < 140; x++) {
+                seamNode = seamNode.right;
+            }
+            seam.add(seamNode);
+        }
+
+        imageRep.removeSeam(seam);
+        imageRep.updateImage();
+        BufferedImage updated = imageRep.getImage();
+
+        for (int y = 0; y < 100; y++) {
+            for (int x = 0; x < 149; x++) {
+                assertThat(updated.getRGB(x, y)).isEqualTo(original[y * 150 + (x < 140 ? x : x + 1)]);
+            }
+        }
+    }
+
+    @Test
+    void insertSeamsAveragesNeighborsTest() {
+        List<PixelNode> seam = new ArrayList<>();
+        PixelNode currentNode = imageRepresentation.getRoot();
+        seam.add(currentNode);
+
+        currentNode = currentNode.down.right;
+        seam.add(currentNode);
+
+        currentNode = currentNode.down;
+        seam.add(currentNode);
+
+        List<List<PixelNode>> insertedSeams = imageRepresentation.insertSeams(Collections.singletonList(seam));
+        imageRepresentation.updateImage();
+        BufferedImage updatedImage = imageRepresentation.getImage();
+
+        assertThat(updatedImage.getWidth()).isEqualTo(4);
+        assertThat(updatedImage.getHeight()).isEqualTo(3);
+        assertThat(new Color(updatedImage.getRGB(1, 0))).isEqualTo(new Color(127, 127, 0));
+        assertThat(new Color(updatedImage.getRGB(2, 1))).isEqualTo(new Color(127, 227, 127));
+        assertThat(new Color(updatedImage.getRGB(2, 2))).isEqualTo(new Color(191, 151, 151));
+        assertThat(new Color(updatedImage.getRGB(3, 2))).isEqualTo(new Color(testImage.getRGB(2, 2)));
+
+        PixelNode insertedNode = insertedSeams.get(0).get(1);
+        assertThat(insertedNode.up).isSameAs(imageRepresentation.getRoot().right.right);
+        assertThat(insertedNode.down).isSameAs(insertedSeams.get(0).get(2));
+
+        imageRepresentation.removeSeams(insertedSeams);
+        imageRepresentation.updateImage();
+
+        assertThat(imageRepresentation.getImage().getWidth()).isEqualTo(3);
+        for (int y = 0; y < 3; y++) {
+            for (int x = 0; x < 3; x++) {
+                assertThat(imageRepresentation.getImage().getRGB(x, y)).isEqualTo(testImage.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    void parallelConstructionMatchesSequentialTest() {
+        BufferedImage largeImage = new BufferedImage(150, 300, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(42);
+
+        for (int y = 0; y < largeImage.getHeight(); y++) {
+            for (int x = 0; x < largeImage.getWidth(); x++) {
+                largeImage.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+
+        PixelNode sequentialRow = new ImageRepresentation(largeImage, false).getRoot();
+        PixelNode parallelRow = new ImageRepresentation(largeImage, true).getRoot();
+        int y = 0;
+
+        while (sequentialRow != null) {
+            PixelNode sequentialNode = sequentialRow;
+            PixelNode parallelNode = parallelRow;
+            int x = 0;
+
+            while (sequentialNode != null) {
+                assertThat(parallelNode.rgb).isEqualTo(largeImage.getRGB(x, y));
+                assertThat(parallelNode.rgb).isEqualTo(sequentialNode.rgb);
+                assertThat(parallelNode.energy()).isEqualTo(sequentialNode.energy());
+                assertThat(parallelNode.up == null).isEqualTo(y == 0);
+                assertThat(parallelNode.down == null || parallelNode.down.up == parallelNode).isTrue();
+
+                sequentialNode = sequentialNode.right;
+                parallelNode = parallelNode.right;
+                x++;
+            }
+
+            assertThat(parallelNode).isNull();
+            sequentialRow = sequentialRow.down;
+            parallelRow = parallelRow.down;
+            y++;
+        }
+
+        assertThat(parallelRow).isNull();
+        assertThat(y).isEqualTo(300);
+    }
+
+    @Test
+    void energiesMatchSobelOfChannelAverages() throws IOException {
+        List<BufferedImage> images = new ArrayList<>();
+        Random random = new Random(31);
+
+        for (int round = 0; round < 10; round++) {
+            BufferedImage image = new BufferedImage(1 + random.nextInt(40), 1 + random.nextInt(40), BufferedImage.TYPE_INT_RGB);
+
+            for (int y = 0; y < image.getHeight(); y++) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    image.setRGB(x, y, random.nextInt(0x1000000));
+                }
+            }
+            images.add(image);
+        }
+        for (String name : new String[] {"TESTCASE_IMAGE", "beach", "duck", "home", "snowman"}) {
+            images.add(ImageIO.read(new File("src/main/resources/" + name + ".png")));
+        }
+
+        for (BufferedImage image : images) {
+            int width = image.getWidth();
+            int height = image.getHeight();
+            double[] expected = new double[width * height];
+
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    double horiz = (brightness(image, x, y, -1, -1) + 2 * brightness(image, x, y, -1, 0) + brightness(image, x, y, -1, 1))
+                            - (brightness(image, x, y, 1, -1) + 2 * brightness(image, x, y, 1, 0) + brightness(image, x, y, 1, 1));
+                    double vert = (brightness(image, x, y, -1, -1) + 2 * brightness(image, x, y, 0, -1) + brightness(image, x, y, 1, -1))
+                            - (brightness(image, x, y, -1, 1) + 2 * brightness(image, x, y, 0, 1) + brightness(image, x, y, 1, 1));
+                    expected[y * width + x] = Math.sqrt(horiz * horiz + vert * vert);
+                }
+            }
+
+            assertThat(new ImageRepresentation(image).getEnergies()).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    void compactEnergiesAreRoundedDefaultEnergies() throws IOException {
+        Random random = new Random(37);
+        List<BufferedImage> images = new ArrayList<>();
+
+        for (int round = 0; round < 10; round++) {
+            BufferedImage image = new BufferedImage(1 + random.nextInt(40), 1 + random.nextInt(40), BufferedImage.TYPE_INT_RGB);
+
+            for (int y = 0; y < image.getHeight(); y++) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    image.setRGB(x, y, random.nextInt(0x1000000));
+                }
+            }
+            images.add(image);
+        }
+        for (String name : new String[] {"TESTCASE_IMAGE", "beach", "duck", "home", "snowman"}) {
+            images.add(ImageIO.read(new File("src/main/resources/" + name + ".png")));
+        }
+
+        for (BufferedImage image : images) {
+            ImageRepresentation imageRep = new ImageRepresentation(image);
+            ImageRepresentation compactRep = imageRep.withPrecision(true);
+            double[] energies = imageRep.getEnergies();
+            double[] compactEnergies = compactRep.getEnergies();
+
+            assertThat(compactRep.getRoot()).isInstanceOf(PixelNode.Compact.class);
+            for (int i = 0; i < energies.length; i++) {
+                double steps = compactEnergies[i] * SeamScorer.ENERGY_SCALE;
+
+                assertThat(steps).isEqualTo(Math.rint(steps));
+                assertThat(compactEnergies[i]).isCloseTo(energies[i], within(0.5 / SeamScorer.ENERGY_SCALE + 1e-9));
+            }
+
+            assertThat(compactRep.withPrecision(false).getEnergies()).isEqualTo(energies);
+
+            if (image.getWidth() > 3) {
+                SeamEngine seamEngine = new SeamEngine();
+                compactRep.removeSeam(seamEngine.findSeam(compactRep.getRoot(), SeamScorer.lowestEnergy().compact()));
+                compactRep.insertSeams(seamEngine.findSeams(compactRep.getRoot(), SeamScorer.lowestEnergy().compact(), 2, Double.MAX_VALUE));
+                compactRep.updateImage();
+
+                assertThat(compactRep.getEnergies()).isEqualTo(new ImageRepresentation(compactRep.copyPixels(), false, true).getEnergies());
+            }
+        }
+    }
+
+    /**
+     * @return The average channel of a neighbor of a pixel, or of the pixel itself if the neighbor is outside the image.
+     */
+    private double brightness(BufferedImage image, int x, int y, int dx, int dy) {
+        if (x + dx < 0 || x + dx >= image.getWidth() || y + dy < 0 || y + dy >= image.getHeight()) {
+            dx = 0;
+            dy = 0;
+        }
+
+        int rgb = image.getRGB(x + dx, y + dy);
+        return (((rgb >> 16) & 0xFF) + ((rgb >> 8) & 0xFF) + (rgb & 0xFF)) / 3.0;
+    }
+
+    @Test
+    void directPixelReadMatchesConvertedRead() {
+        BufferedImage source = new BufferedImage(20, 15, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(17);
+
+        for (int y = 0; y < 15; y++) {
+            for (int x = 0; x < 20; x++) {
+                source.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+
+        BufferedImage region = source.getSubimage(3, 4, 12, 9);
+        BufferedImage bgr = new BufferedImage(12, 9, BufferedImage.TYPE_3BYTE_BGR);
+        for (int y = 0; y < 9; y++) {
+            for (int x = 0; x < 12; x++) {
+                bgr.setRGB(x, y, region.getRGB(x, y));
+            }
+        }
+
+        double[] expected = new ImageRepresentation(bgr).getEnergies();
+
+        assertThat(new ImageRepresentation(region).getEnergies()).isEqualTo(expected);
+        assertThat(new ImageRepresentation(ImageLoader.toIntArgb(bgr)).getEnergies()).isEqualTo(expected);
+
+        PixelNode rowStart = new ImageRepresentation(region).getRoot();
+        for (int y = 0; y < 9; y++, rowStart = rowStart.down) {
+            PixelNode node = rowStart;
+
+            for (int x = 0; x < 12; x++, node = node.right) {
+                assertThat(node.rgb).isEqualTo(region.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    void seamEditsKeepEnergiesAndImageUpToDate() {
+        BufferedImage source = new BufferedImage(150, 140, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(23);
+
+        for (int y = 0; y < 140; y++) {
+            for (int x = 0; x < 150; x++) {
+                source.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+
+        ImageRepresentation imageRep = new ImageRepresentation(source);
+        SeamEngine seamEngine = new SeamEngine();
+        List<List<PixelNode>> removed = seamEngine.findSeams(imageRep.getRoot(), SeamScorer.lowestEnergy(), 4, Double.MAX_VALUE);
+
+        imageRep.removeSeams(removed);
+        assertMatchesGrid(imageRep);
+
+        List<List<PixelNode>> inserted = imageRep.insertSeams(seamEngine.findSeams(imageRep.getRoot(), SeamScorer.bluest(), 3, Double.MAX_VALUE));
+        assertMatchesGrid(imageRep);
+
+        imageRep.removeSeams(inserted);
+        imageRep.undoSeams(removed);
+        assertMatchesGrid(imageRep);
+
+        for (int y = 0; y < 140; y++) {
+            for (int x = 0; x < 150; x++) {
+                assertThat(imageRep.getImage().getRGB(x, y)).isEqualTo(source.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    void onlyTilesRightOfTheSeamAreRedrawn() {
+        BufferedImage source = new BufferedImage(150, 140, BufferedImage.TYPE_INT_RGB);
+        ImageRepresentation imageRep = new ImageRepresentation(source);
+        List<PixelNode> lastColumn = new ArrayList<>();
+
+        for (PixelNode node = imageRep.getNodeRows()[0][149]; node != null; node = node.down) {
+            lastColumn.add(node);
+        }
+
+        assertThat(imageRep.getDirtyTileRatio()).isZero();
+
+        imageRep.removeSeam(lastColumn);
+        assertThat(imageRep.getDirtyTileRatio()).isEqualTo(1.0 / 3);
+
+        imageRep.updateImage();
+        assertThat(imageRep.getDirtyTileRatio()).isZero();
+        assertThat(imageRep.getImage().getWidth()).isEqualTo(149);
+
+        imageRep.undoSeam(lastColumn);
+        imageRep.removeSeam(firstColumn(imageRep));
+        assertThat(imageRep.getDirtyTileRatio()).isEqualTo(1.0);
+    }
+
+    private List<PixelNode> firstColumn(ImageRepresentation imageRep) {
+        List<PixelNode> column = new ArrayList<>();
+
+        for (PixelNode node = imageRep.getRoot(); node != null; node = node.down) {
+            column.add(node);
+        }
+
+        return column;
+    }
+
+    private void assertMatchesGrid(ImageRepresentation imageRep) {
+        imageRep.updateImage();
+        PixelNode[][] rows = imageRep.getNodeRows();
+
+        assertThat(imageRep.getImage().getWidth()).isEqualTo(rows[0].length);
+        for (int y = 0; y < rows.length; y++) {
+            for (int x = 0; x < rows[y].length; x++) {
+                assertThat(imageRep.getImage().getRGB(x, y)).isEqualTo(rows[y][x].rgb);
+            }
+        }
+
+        assertThat(imageRep.getEnergies()).isEqualTo(new ImageRepresentation(imageRep.getImage()).getEnergies());
+    }
 }
@@ -0,0 +1,192 @@
+package henrycaldwell;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.assertj.core.api.Assertions.assertThat;
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * Runs each hot path on a square base image and on a very tall and a very wide image with about four times as many
+ * pixels, and checks that the time and the bytes allocated by the test thread grow roughly linearly with the pixel
+ * count. The long side of the larger images is thirty times the side of the base image, so code quadratic in the
+ * height or the width grows its time per pixel about thirty-fold, far beyond the few-fold swings that caching and
+ * scheduling cause in the time per pixel of linear code.
+ */
+public class PerformanceGuardTest {
+    // The base size, and the larger sizes as width and height, all small enough to be built on a single thread.
+    private static final int[][] SIZES = {{256, 256}, {32, 8000}, {8000, 32}};
+    // The largest accepted growth from the base size to a larger size of the time and the allocated bytes per pixel.
+    // Linear code keeps both at about 1.
+    private static final double MAX_TIME_GROWTH = 8, MAX_ALLOCATION_GROWTH = 1.5;
+    // Absolute slack for small fixed allocations.
+    private static final long ALLOCATION_SLACK_BYTES = 256 * 1024;
+    // Runs before measuring, and measured runs of which the cheapest counts.
+    private static final int WARMUP_RUNS = 3, MEASURED_RUNS = 5;
+
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final BufferedImage[] images = new BufferedImage[SIZES.length];
+    private static final String[] imagePaths = new String[SIZES.length];
+
+    @TempDir
+    static Path tempDir;
+
+    @BeforeAll
+    static void setUp() throws IOException {
+        Random random = new Random(1);
+
+        for (int i = 0; i < SIZES.length; i++) {
+            images[i] = new BufferedImage(SIZES[i][0], SIZES[i][1], BufferedImage.TYPE_INT_RGB);
+
+            for (int y = 0; y < SIZES[i][1]; y++) {
+                for (int x = 0; x < SIZES[i][0]; x++) {
+                    images[i].setRGB(x, y, random.nextInt(0x1000000));
+                }
+            }
+
+            imagePaths[i] = tempDir.resolve("size" + i + ".png").toString();
+            ImageIO.write(images[i], "png", tempDir.resolve("size" + i + ".png").toFile());
+        }
+    }
+
+    @Test
+    void gridBuildScalesLinearly() {
+        assertScalesLinearly(i -> new Workload(() -> new ImageRepresentation(images[i], false), () -> { }));
+    }
+
+    @Test
+    void energyPassScalesLinearly() {
+        assertScalesLinearly(i -> {
+            ImageRepresentation imageRep = new ImageRepresentation(images[i], false);
+            return new Workload(imageRep::calculateEnergyForNodes, () -> { });
+        });
+    }
+
+    @Test
+    void seamSearchScalesLinearly() {
+        assertScalesLinearly(i -> {
+            ImageRepresentation imageRep = new ImageRepresentation(images[i], false);
+            SeamEngine seamEngine = new SeamEngine();
+            return new Workload(() -> seamEngine.findSeam(imageRep.getRoot(), SeamScorer.lowestEnergy()), () -> { });
+        });
+    }
+
+    @Test
+    void highlightScalesLinearly() {
+        assertScalesLinearly(i -> {
+            ServiceLayer service = loadService(i);
+            ImageRepresentation imageRep = service.getImageRep();
+
+            // Relinking the highlighted seam moves the 'grid' to a new version, so the next run searches again rather
+            // than taking the seam from the cache.
+            return new Workload(() -> service.findAndHighlightSeam(true), () -> {
+                imageRep.removeSeam(service.getLastFoundSeam());
+                imageRep.undoSeam(service.getLastFoundSeam());
+            });
+        });
+    }
+
+    @Test
+    void removeScalesLinearly() {
+        assertScalesLinearly(i -> {
+            ServiceLayer service = loadService(i);
+            service.findAndHighlightSeam(true);
+
+            return new Workload(service::removeSeam, () -> {
+                service.undoLastEdit();
+                service.findAndHighlightSeam(true);
+            });
+        });
+    }
+
+    @Test
+    void undoScalesLinearly() {
+        assertScalesLinearly(i -> {
+            ServiceLayer service = loadService(i);
+            Runnable edit = () -> {
+                service.findAndHighlightSeam(true);
+                service.removeSeam();
+            };
+            edit.run();
+
+            return new Workload(service::undoLastEdit, edit);
+        });
+    }
+
+    private ServiceLayer loadService(int size) {
+        ServiceLayer service = new ServiceLayer(imagePaths[size]);
+        service.getImageRep().setPreviewSaving(false);
+        return service;
+    }
+
+    private void assertScalesLinearly(Function<Integer, Workload> prepare) {
+        long[][] costs = new long[SIZES.length][];
+        Workload[] workloads = new Workload[SIZES.length];
+
+        for (int i = 0; i < SIZES.length; i++) {
+            workloads[i] = prepare.apply(i);
+
+            for (int run = 0; run < WARMUP_RUNS; run++) {
+                workloads[i].run();
+            }
+        }
+
+        for (int i = 0; i < SIZES.length; i++) {
+            costs[i] = workloads[i].cheapestOf(MEASURED_RUNS);
+        }
+
+        for (int i = 1; i < SIZES.length; i++) {
+            String size = SIZES[i][0] + "x" + SIZES[i][1];
+            double pixelGrowth = (double) SIZES[i][0] * SIZES[i][1] / (SIZES[0][0] * SIZES[0][1]);
+
+            assertThat((double) costs[i][0]).as("nanoseconds at " + size).isLessThanOrEqualTo(MAX_TIME_GROWTH * pixelGrowth * costs[0][0]);
+            assertThat((double) costs[i][1]).as("allocated bytes at " + size).isLessThanOrEqualTo(MAX_ALLOCATION_GROWTH * pixelGrowth * costs[0][1] + ALLOCATION_SLACK_BYTES);
+        }
+    }
+
+    /**
+     * An operation to measure and the untimed step that restores its starting state.
+     */
+    private static class Workload {
+        private final Runnable action;
+        private final Runnable reset;
+
+        Workload(Runnable action, Runnable reset) {
+            this.action = action;
+            this.reset = reset;
+        }
+
+        void run() {
+            action.run();
+            reset.run();
+        }
+
+        /**
+         * @return The lowest time in nanoseconds and the lowest allocated bytes over the given number of runs.
+         */
+        long[] cheapestOf(int runs) {
+            long threadId = Thread.currentThread().getId();
+            long[] cheapest = {Long.MAX_VALUE, Long.MAX_VALUE};
+
+            for (int run = 0; run < runs; run++) {
+                long bytes = THREADS.getThreadAllocatedBytes(threadId);
+                long start = System.nanoTime();
+                action.run();
+                long elapsed = System.nanoTime() - start;
+                bytes = THREADS.getThreadAllocatedBytes(threadId) - bytes;
+                reset.run();
+
+                cheapest[0] = Math.min(cheapest[0], elapsed);
+                cheapest[1] = Math.min(cheapest[1], bytes);
+            }
+
+            return cheapest;
+        }
+    }
+}
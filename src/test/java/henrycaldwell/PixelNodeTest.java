@@ -8,13 +8,13 @@ import java.awt.Color;
 public class PixelNodeTest {
     @Test
     void pixelNodeColor() {
-        PixelNode node = new PixelNode(Color.RED);
-        assertEquals(Color.RED, node.color, "PixelNode should correctly assign the color.");
+        PixelNode node = PixelNode.of(Color.RED.getRGB());
+        assertEquals(Color.RED.getRGB(), node.rgb, "PixelNode should correctly assign the color.");
     }
 
     @Test
     void pixelNodeNeighborsInitiallyNullTest() {
-        PixelNode node = new PixelNode(Color.RED);
+        PixelNode node = PixelNode.of(Color.RED.getRGB());
         assertNull(node.left, "Left neighbor should initially be null.");
         assertNull(node.right, "Right neighbor should initially be null.");
         assertNull(node.up, "Up neighbor should initially be null.");
@@ -23,11 +23,11 @@ public class PixelNodeTest {
 
     @Test
     void linkPixelNodeNeighborsTest() {
-        PixelNode center = new PixelNode(Color.RED);
-        PixelNode left = new PixelNode(Color.GREEN);
-        PixelNode right = new PixelNode(Color.BLUE);
-        PixelNode up = new PixelNode(Color.YELLOW);
-        PixelNode down = new PixelNode(Color.BLACK);
+        PixelNode center = PixelNode.of(Color.RED.getRGB());
+        PixelNode left = PixelNode.of(Color.GREEN.getRGB());
+        PixelNode right = PixelNode.of(Color.BLUE.getRGB());
+        PixelNode up = PixelNode.of(Color.YELLOW.getRGB());
+        PixelNode down = PixelNode.of(Color.BLACK.getRGB());
 
         center.left = left;
         center.right = right;
@@ -41,12 +41,19 @@ public class PixelNodeTest {
     }
 
     @Test
-    void pixelNodeEnergyAndBrightnessTest() {
-        PixelNode node = new PixelNode(Color.RED);
-        node.energy = 100.0;
-        node.brightness = 150.0;
+    void pixelNodeEnergyTest() {
+        PixelNode node = PixelNode.of(Color.RED.getRGB());
+        node.setEnergy(100.0);
 
-        assertEquals(100.0, node.energy, "Energy should be set and retrieved correctly.");
-        assertEquals(150.0, node.brightness, "Brightness should be set and retrieved correctly.");
+        assertEquals(100.0, node.energy(), "Energy should be set and retrieved correctly.");
+    }
+
+    @Test
+    void compactPixelNodeEnergyTest() {
+        PixelNode node = PixelNode.compactOf(Color.RED.getRGB());
+        node.setEnergy(100.0 + 0.3 / SeamScorer.ENERGY_SCALE);
+
+        assertEquals(100 * SeamScorer.ENERGY_SCALE, node.energySteps(), "Energy should be kept in whole fixed-point steps.");
+        assertEquals(100.0, node.energy(), "Energy should be read back from its steps.");
     }
 }
\ No newline at end of file
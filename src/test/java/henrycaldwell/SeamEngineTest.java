@@ -0,0 +1,312 @@
+package henrycaldwell;
+
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.function.ToDoubleFunction;
+
+public class SeamEngineTest {
+    private final SeamEngine seamEngine = new SeamEngine();
+
+    @Test
+    void matchesReferenceSeamsWithTies() {
+        Random random = new Random(11);
+
+        for (int round = 0; round < 20; round++) {
+            ImageRepresentation imageRep = new ImageRepresentation(randomImage(random, 5 + random.nextInt(20), 1 + random.nextInt(20)));
+            PixelNode root = imageRep.getRoot();
+
+            assertThat(seamEngine.findSeam(root, SeamScorer.lowestEnergy())).isEqualTo(referenceSeam(root, node -> node.energy(), false));
+            assertThat(seamEngine.findSeam(root, SeamScorer.bluest())).isEqualTo(referenceSeam(root, node -> (node.rgb & 0xFF), true));
+            assertThat(seamEngine.findSeam(root, new SeamScorer(1, 2, 0, 0.5, false)))
+                    .isEqualTo(referenceSeam(root, node -> 0.5 * node.energy() + ((node.rgb >> 16) & 0xFF) + 2 * ((node.rgb >> 8) & 0xFF), false));
+        }
+    }
+
+    @Test
+    void fusedSearchMatchesSeparateSearches() {
+        Random random = new Random(19);
+        List<SeamScorer> scorers = Arrays.asList(SeamScorer.lowestEnergy(), SeamScorer.bluest(), SeamScorer.reddest(),
+                new SeamScorer(1, 2, 0, 0.5, false));
+
+        for (int round = 0; round < 20; round++) {
+            PixelNode root = new ImageRepresentation(randomImage(random, 1 + random.nextInt(20), 1 + random.nextInt(20))).getRoot();
+            List<List<PixelNode>> fused = seamEngine.findSeams(root, scorers);
+
+            assertThat(fused).hasSize(scorers.size());
+            for (int k = 0; k < scorers.size(); k++) {
+                assertThat(fused.get(k)).isEqualTo(new SeamEngine().findSeam(root, scorers.get(k)));
+            }
+        }
+    }
+
+    @Test
+    void compactSearchMatchesDoubleSearch() throws IOException {
+        Random random = new Random(31);
+        List<BufferedImage> images = new ArrayList<>();
+
+        for (int round = 0; round < 20; round++) {
+            images.add(randomImage(random, 1 + random.nextInt(60), 1 + random.nextInt(60)));
+        }
+        for (String name : new String[] {"TESTCASE_IMAGE", "beach", "duck", "home", "snowman"}) {
+            images.add(ImageIO.read(new File("src/main/resources/" + name + ".png")));
+        }
+
+        for (BufferedImage image : images) {
+            ImageRepresentation imageRep = new ImageRepresentation(image);
+            ImageRepresentation compactRep = imageRep.withPrecision(true);
+            SeamScorer mixed = new SeamScorer(1, 2, 0, 0.5, false);
+
+            int[][] expected = imageRep.locateSeams(seamEngine.findSeams(imageRep.getRoot(), SeamScorer.lowestEnergy(), 5, Double.MAX_VALUE));
+            int[][] actual = compactRep.locateSeams(seamEngine.findSeams(compactRep.getRoot(), SeamScorer.lowestEnergy().compact(), 5, Double.MAX_VALUE));
+            assertSameOrTied(imageRep, actual, expected, SeamScorer.lowestEnergy());
+
+            expected = imageRep.locateSeams(Collections.singletonList(seamEngine.findSeam(imageRep.getRoot(), mixed)));
+            actual = imageRep.locateSeams(Collections.singletonList(seamEngine.findSeam(imageRep.getRoot(), mixed.compact())));
+            assertSameOrTied(imageRep, actual, expected, mixed);
+        }
+    }
+
+    /**
+     * Checks that seams found in compact precision are the seams found in double precision, except where the double
+     * totals of the two seams differ by no more than rounding, since compact precision breaks such near ties exactly.
+     */
+    private void assertSameOrTied(ImageRepresentation imageRep, int[][] actual, int[][] expected, SeamScorer scorer) {
+        PixelNode[][] rows = imageRep.getNodeRows();
+        assertThat(actual.length).isEqualTo(expected.length);
+
+        for (int k = 0; k < expected.length; k++) {
+            if (!Arrays.equals(actual[k], expected[k])) {
+                double actualTotal = 0, expectedTotal = 0;
+
+                for (int y = 0; y < rows.length; y++) {
+                    actualTotal += scorer.scoreNode(rows[y][actual[k][y]]);
+                    expectedTotal += scorer.scoreNode(rows[y][expected[k][y]]);
+                }
+                assertThat(actualTotal).isCloseTo(expectedTotal, within((double) rows.length / SeamScorer.ENERGY_SCALE));
+            }
+        }
+    }
+
+    @Test
+    void bandedSearchMatchesTotalScore() throws IOException {
+        Random random = new Random(29);
+        List<ImageRepresentation> images = new ArrayList<>();
+
+        for (int round = 0; round < 10; round++) {
+            images.add(new ImageRepresentation(randomImage(random, 1 + random.nextInt(8), 1 + random.nextInt(300))));
+        }
+        for (String name : new String[] {"TESTCASE_IMAGE", "beach", "duck", "home", "snowman"}) {
+            images.add(new ImageRepresentation(ImageIO.read(new File("src/main/resources/" + name + ".png"))));
+        }
+
+        List<SeamScorer> scorers = Arrays.asList(SeamScorer.lowestEnergy().compact(), SeamScorer.bluest(),
+                new SeamScorer(1, 2, 0, 0.5, true).compact());
+
+        for (ImageRepresentation imageRep : images) {
+            for (ImageRepresentation rep : Arrays.asList(imageRep, imageRep.withPrecision(true))) {
+                PixelNode root = rep.getRoot();
+
+                for (SeamScorer scorer : scorers) {
+                    List<PixelNode> expected = seamEngine.findSeam(root, scorer);
+
+                    for (int bandHeight : new int[] {1, 7, 64}) {
+                        List<PixelNode> seam = seamEngine.findSeamInBands(root, scorer, bandHeight);
+
+                        assertConnected(seam, expected.size());
+                        assertThat(wholeTotal(seam, scorer)).isEqualTo(wholeTotal(expected, scorer));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void bandedSearchRejectsRealScorers() {
+        PixelNode root = new ImageRepresentation(randomImage(new Random(5), 4, 4)).getRoot();
+
+        assertThatThrownBy(() -> seamEngine.findSeamInBands(root, SeamScorer.lowestEnergy(), 2))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> seamEngine.findSeamInBands(root, SeamScorer.bluest(), 0))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void reddestSeamFollowsRedPixels() {
+        BufferedImage image = new BufferedImage(3, 3, BufferedImage.TYPE_INT_RGB);
+
+        for (int y = 0; y < 3; y++) {
+            for (int x = 0; x < 3; x++) {
+                image.setRGB(x, y, Color.WHITE.getRGB() & ~0xFF0000);
+            }
+        }
+        image.setRGB(2, 0, Color.RED.getRGB());
+        image.setRGB(1, 1, Color.RED.getRGB());
+        image.setRGB(0, 2, Color.RED.getRGB());
+
+        PixelNode root = new ImageRepresentation(image).getRoot();
+        List<PixelNode> seam = seamEngine.findSeam(root, SeamScorer.reddest());
+
+        assertThat(seam).containsExactly(root.right.right, root.right.down, root.down.down);
+    }
+
+    @Test
+    void disjointSeamsNeverSharePixels() {
+        ImageRepresentation imageRep = new ImageRepresentation(randomImage(new Random(3), 30, 20));
+        List<List<PixelNode>> seams = seamEngine.findSeams(imageRep.getRoot(), SeamScorer.lowestEnergy(), 10, Double.MAX_VALUE);
+        Set<PixelNode> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        assertThat(seams).isNotEmpty();
+        assertThat(seams.get(0)).isEqualTo(seamEngine.findSeam(imageRep.getRoot(), SeamScorer.lowestEnergy()));
+
+        for (List<PixelNode> seam : seams) {
+            assertThat(seam).hasSize(20);
+
+            for (PixelNode node : seam) {
+                assertThat(seen.add(node)).isTrue();
+            }
+        }
+    }
+
+    @Test
+    void disjointSeamsAreOrderedByTotalThenColumn() {
+        Random random = new Random(13);
+
+        for (int round = 0; round < 20; round++) {
+            ImageRepresentation imageRep = new ImageRepresentation(randomImage(random, 1 + random.nextInt(50), 1 + random.nextInt(10)));
+            List<PixelNode> lastRow = Arrays.asList(imageRep.getNodeRows()[imageRep.getNodeRows().length - 1]);
+            SeamScorer scorer = SeamScorer.lowestEnergy();
+            List<List<PixelNode>> seams = seamEngine.findSeams(imageRep.getRoot(), scorer, Integer.MAX_VALUE, Double.MAX_VALUE);
+
+            for (int i = 1; i < seams.size(); i++) {
+                List<PixelNode> previous = seams.get(i - 1);
+                List<PixelNode> seam = seams.get(i);
+                double previousTotal = total(previous, scorer);
+
+                assertThat(total(seam, scorer)).isGreaterThanOrEqualTo(previousTotal);
+                if (total(seam, scorer) == previousTotal) {
+                    assertThat(lastRow.indexOf(seam.get(seam.size() - 1))).isGreaterThan(lastRow.indexOf(previous.get(previous.size() - 1)));
+                }
+            }
+        }
+    }
+
+    @Test
+    void seamNearGuideStaysInBand() {
+        ImageRepresentation imageRep = new ImageRepresentation(randomImage(new Random(9), 40, 25));
+        PixelNode root = imageRep.getRoot();
+        int[] everywhere = new int[25];
+        int[] columns = new int[25];
+
+        assertThat(seamEngine.findSeamNear(root, SeamScorer.lowestEnergy(), everywhere, 40, columns))
+                .isEqualTo(seamEngine.findSeam(root, SeamScorer.lowestEnergy()));
+
+        int[] guide = new int[25];
+        for (int y = 0; y < 25; y++) {
+            guide[y] = 30 - Math.abs(12 - y);
+        }
+
+        List<PixelNode> seam = seamEngine.findSeamNear(root, SeamScorer.lowestEnergy(), guide, 2, columns);
+        PixelNode[][] rows = imageRep.getNodeRows();
+
+        for (int y = 0; y < 25; y++) {
+            assertThat(Math.abs(columns[y] - guide[y])).isLessThanOrEqualTo(2);
+            assertThat(seam.get(y)).isSameAs(rows[y][columns[y]]);
+
+            if (y > 0) {
+                assertThat(Math.abs(columns[y] - columns[y - 1])).isLessThanOrEqualTo(1);
+            }
+        }
+    }
+
+    private double total(List<PixelNode> seam, SeamScorer scorer) {
+        double total = 0;
+
+        for (PixelNode node : seam) {
+            total += scorer.scoreNode(node);
+        }
+
+        return total;
+    }
+
+    private long wholeTotal(List<PixelNode> seam, SeamScorer scorer) {
+        long total = 0;
+
+        for (PixelNode node : seam) {
+            total += scorer.scoreWhole(node);
+        }
+
+        return total;
+    }
+
+    private void assertConnected(List<PixelNode> seam, int height) {
+        assertThat(seam).hasSize(height);
+
+        for (int y = 1; y < height; y++) {
+            PixelNode above = seam.get(y).up;
+            assertThat(Arrays.asList(above, above.left, above.right)).contains(seam.get(y - 1));
+        }
+    }
+
+    private BufferedImage randomImage(Random random, int width, int height) {
+        int[] palette = {0x000000, 0x0000FF, 0x808080, 0xFF00FF};
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, palette[random.nextInt(palette.length)]);
+            }
+        }
+
+        return image;
+    }
+
+    private List<PixelNode> referenceSeam(PixelNode root, ToDoubleFunction<PixelNode> score, boolean maximize) {
+        Map<PixelNode, Double> cumulative = new HashMap<>();
+        Map<PixelNode, PixelNode> edgeTo = new HashMap<>();
+        double sign = maximize ? -1 : 1;
+
+        for (PixelNode node = root; node != null; node = node.right) {
+            cumulative.put(node, sign * score.applyAsDouble(node));
+        }
+
+        PixelNode lastRowStart = root;
+        for (PixelNode rowStart = root.down; rowStart != null; rowStart = rowStart.down) {
+            for (PixelNode node = rowStart; node != null; node = node.right) {
+                PixelNode best = null;
+
+                for (PixelNode pred : Arrays.asList(node.up.left, node.up, node.up.right)) {
+                    if (pred != null && (best == null || cumulative.get(pred) < cumulative.get(best))) {
+                        best = pred;
+                    }
+                }
+
+                cumulative.put(node, sign * score.applyAsDouble(node) + cumulative.get(best));
+                edgeTo.put(node, best);
+            }
+
+            lastRowStart = rowStart;
+        }
+
+        PixelNode end = lastRowStart;
+        for (PixelNode node = lastRowStart; node != null; node = node.right) {
+            if (cumulative.get(node) < cumulative.get(end)) {
+                end = node;
+            }
+        }
+
+        List<PixelNode> seam = new ArrayList<>();
+        for (PixelNode node = end; node != null; node = edgeTo.get(node)) {
+            seam.add(0, node);
+        }
+
+        return seam;
+    }
+}
@@ -0,0 +1,142 @@
+package henrycaldwell;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class SequenceCarverTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void everyFrameIsNarrowedInOrder() throws IOException {
+        Random random = new Random(13);
+        BufferedImage background = new BufferedImage(32, 16, BufferedImage.TYPE_INT_RGB);
+
+        for (int y = 0; y < 16; y++) {
+            for (int x = 0; x < 32; x++) {
+                background.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+
+        Path input = tempDir.resolve("frames");
+        input.toFile().mkdirs();
+
+        for (int i = 0; i < 6; i++) {
+            BufferedImage frame = new BufferedImage(32, 16, BufferedImage.TYPE_INT_RGB);
+            frame.setData(background.getData());
+            frame.setRGB(i * 4, 8, 0xFFFFFF);
+            ImageIO.write(frame, "png", input.resolve("frame" + i + ".png").toFile());
+        }
+        ImageIO.write(background, "png", input.resolve("frame6.png").toFile());
+
+        List<int[]> progress = new ArrayList<>();
+        new SequenceCarver(5, 3, 2).carve(SequenceCarver.listFrames(input), tempDir.resolve("out"), (done, total) -> progress.add(new int[] {done, total}));
+
+        assertThat(progress).hasSize(7);
+        assertThat(progress.get(6)).containsExactly(7, 7);
+
+        for (int i = 0; i < 7; i++) {
+            BufferedImage carved = ImageIO.read(tempDir.resolve("out").resolve("frame" + i + ".png").toFile());
+
+            assertThat(carved.getWidth()).isEqualTo(27);
+            assertThat(carved.getHeight()).isEqualTo(16);
+        }
+    }
+
+    @Test
+    void firstFrameMatchesSingleImageCarving() throws IOException {
+        Path input = tempDir.resolve("frames");
+        input.toFile().mkdirs();
+        ImageIO.write(ImageIO.read(new File("src/main/resources/TESTCASE_IMAGE.png")), "png", input.resolve("a.png").toFile());
+
+        new SequenceCarver(1, 1, 1).carve(SequenceCarver.listFrames(input), tempDir.resolve("out"), null);
+
+        ServiceLayer serviceLayer = new ServiceLayer("src/main/resources/TESTCASE_IMAGE.png");
+        serviceLayer.findAndHighlightSeam(true);
+        serviceLayer.removeSeam();
+        BufferedImage expected = serviceLayer.getImageRep().getImage();
+        BufferedImage carved = ImageIO.read(tempDir.resolve("out").resolve("a.png").toFile());
+
+        for (int y = 0; y < 3; y++) {
+            for (int x = 0; x < 2; x++) {
+                assertThat(carved.getRGB(x, y)).isEqualTo(expected.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    void pipelinedCarvingMatchesOneThreadAcrossSizeChanges() throws IOException {
+        Random random = new Random(17);
+        Path input = tempDir.resolve("frames");
+        input.toFile().mkdirs();
+        int[] widths = {32, 32, 32, 28, 28, 32, 32, 32};
+
+        for (int i = 0; i < widths.length; i++) {
+            BufferedImage frame = new BufferedImage(widths[i], 16, BufferedImage.TYPE_INT_RGB);
+
+            for (int y = 0; y < 16; y++) {
+                for (int x = 0; x < widths[i]; x++) {
+                    frame.setRGB(x, y, random.nextInt(0x1000000));
+                }
+            }
+            ImageIO.write(frame, "png", input.resolve("frame" + i + ".png").toFile());
+        }
+
+        new SequenceCarver(4, 2, 1).carve(SequenceCarver.listFrames(input), tempDir.resolve("serial"), null);
+        new SequenceCarver(4, 2, 3).carve(SequenceCarver.listFrames(input), tempDir.resolve("pipelined"), null);
+
+        for (int i = 0; i < widths.length; i++) {
+            BufferedImage serial = ImageIO.read(tempDir.resolve("serial").resolve("frame" + i + ".png").toFile());
+            BufferedImage pipelined = ImageIO.read(tempDir.resolve("pipelined").resolve("frame" + i + ".png").toFile());
+            int width = widths[i] - 4;
+
+            assertThat(pipelined.getWidth()).isEqualTo(width);
+            assertThat(pipelined.getRGB(0, 0, width, 16, null, 0, width)).isEqualTo(serial.getRGB(0, 0, width, 16, null, 0, width));
+        }
+
+        for (int i : new int[] {3, 5}) {
+            ServiceLayer serviceLayer = new ServiceLayer(input.resolve("frame" + i + ".png").toString());
+            serviceLayer.getImageRep().setPreviewSaving(false);
+            for (int seam = 0; seam < 4; seam++) {
+                serviceLayer.findAndHighlightSeam(true);
+                serviceLayer.removeSeam();
+            }
+
+            BufferedImage expected = serviceLayer.getImageRep().getImage();
+            BufferedImage carved = ImageIO.read(tempDir.resolve("pipelined").resolve("frame" + i + ".png").toFile());
+            int width = widths[i] - 4;
+
+            assertThat(carved.getRGB(0, 0, width, 16, null, 0, width)).isEqualTo(expected.getRGB(0, 0, width, 16, null, 0, width));
+        }
+    }
+
+    @Test
+    void failedFrameWriteFailsTheSequence() throws IOException {
+        Path input = tempDir.resolve("frames");
+        Path output = tempDir.resolve("out");
+        input.toFile().mkdirs();
+        BufferedImage frame = ImageIO.read(new File("src/main/resources/TESTCASE_IMAGE.png"));
+
+        for (int i = 0; i < 8; i++) {
+            ImageIO.write(frame, "png", input.resolve("frame" + i + ".png").toFile());
+        }
+
+        output.resolve("frame0.png").toFile().mkdirs();
+        Files.createFile(output.resolve("frame0.png").resolve("blocker"));
+
+        assertThatThrownBy(() -> new SequenceCarver(1, 1, 1).carve(SequenceCarver.listFrames(input), output, null))
+                .isInstanceOf(RuntimeException.class)
+                .hasMessageContaining("frame0.png");
+    }
+}
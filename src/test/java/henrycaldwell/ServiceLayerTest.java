@@ -3,10 +3,21 @@ package henrycaldwell;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.awt.Color;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.Random;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
 
 public class ServiceLayerTest {
     private ServiceLayer serviceLayer;
@@ -135,4 +146,353 @@ public class ServiceLayerTest {
         serviceLayer.undoLastEdit();
         assertThat(serviceLayer.getEditHistory()).isEmpty();
     }
+
+    @Test
+    void findLowestEnergySeamsAreDisjoint() {
+        List<List<PixelNode>> seams = serviceLayer.findLowestEnergySeams(3, Double.POSITIVE_INFINITY);
+
+        assertThat(seams).isNotEmpty();
+        assertThat(seams.get(0)).isEqualTo(serviceLayer.findLowestEnergySeam());
+
+        Set<PixelNode> seen = new HashSet<>();
+        for (List<PixelNode> seam : seams) {
+            assertThat(seam).hasSize(3);
+            assertThat(seam.get(0).up).isNull();
+
+            for (PixelNode node : seam) {
+                assertThat(seen.add(node)).isTrue();
+            }
+        }
+    }
+
+    @Test
+    void removeLowestEnergySeamsAndUndo() {
+        serviceLayer.removeLowestEnergySeams(2);
+
+        assertThat(serviceLayer.getImageRep().getImage().getWidth()).isEqualTo(1);
+
+        while (!serviceLayer.getEditHistory().isEmpty()) {
+            serviceLayer.undoLastEdit();
+        }
+
+        assertThat(serviceLayer.getImageRep().getImage().getWidth()).isEqualTo(3);
+        for (int y = 0; y < 3; y++) {
+            for (int x = 0; x < 3; x++) {
+                assertThat(serviceLayer.getImageRep().getImage().getRGB(x, y)).isEqualTo(testImage.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    void removeRunOfSeamsMatchesBatchedRemoval() throws IOException {
+        ServiceLayer run = randomService(30, 20, 32);
+        ServiceLayer batched = randomService(30, 20, 32);
+        ServiceLayer pairs = randomService(30, 20, 32);
+        run.getImageRep().setPreviewSaving(false);
+        batched.getImageRep().setPreviewSaving(false);
+        pairs.getImageRep().setPreviewSaving(false);
+
+        run.removeLowestEnergySeam(6);
+        batched.removeLowestEnergySeams(6);
+        pairs.findAndHighlightSeam(true);
+        pairs.removeSeam();
+
+        assertSameImage(run.getImageRep().getImage(), batched.getImageRep().getImage());
+        assertThat(run.getEditHistory()).hasSize(6);
+        assertThat(run.getImageRep().getDirtyTileRatio()).isZero();
+
+        run.undoTo(1);
+        assertSameImage(run.getImageRep().getImage(), pairs.getImageRep().getImage());
+
+        run.redoTo(6);
+        assertSameImage(run.getImageRep().getImage(), batched.getImageRep().getImage());
+    }
+
+    @Test
+    void historyPixelsCountUndoAndRedoSeams() {
+        assertThat(serviceLayer.getHistoryPixels()).isZero();
+
+        serviceLayer.removeLowestEnergySeams(2);
+        serviceLayer.enlargeToWidth(2);
+        assertThat(serviceLayer.getHistoryPixels()).isEqualTo(9);
+
+        serviceLayer.undoLastEdit();
+        assertThat(serviceLayer.getHistoryPixels()).isEqualTo(9);
+
+        serviceLayer.enlargeToWidth(3);
+        assertThat(serviceLayer.getHistoryPixels()).isEqualTo(12);
+    }
+
+    @Test
+    void enlargeToWidthAndUndo() {
+        serviceLayer.enlargeToWidth(5);
+
+        assertThat(serviceLayer.getImageRep().getImage().getWidth()).isEqualTo(5);
+        assertThat(serviceLayer.getImageRep().getImage().getHeight()).isEqualTo(3);
+
+        while (!serviceLayer.getEditHistory().isEmpty()) {
+            serviceLayer.undoLastEdit();
+        }
+
+        assertThat(serviceLayer.getImageRep().getImage().getWidth()).isEqualTo(3);
+        for (int y = 0; y < 3; y++) {
+            for (int x = 0; x < 3; x++) {
+                assertThat(serviceLayer.getImageRep().getImage().getRGB(x, y)).isEqualTo(testImage.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    void undoToAndRedoToJumpThroughHistory() {
+        serviceLayer.findAndHighlightSeam(true);
+        serviceLayer.removeSeam();
+        serviceLayer.findAndHighlightSeam(true);
+        serviceLayer.removeSeam();
+
+        serviceLayer.undoTo(0);
+
+        assertThat(serviceLayer.getEditHistory()).isEmpty();
+        assertThat(serviceLayer.getRedoHistory()).hasSize(2);
+        for (int y = 0; y < 3; y++) {
+            for (int x = 0; x < 3; x++) {
+                assertThat(serviceLayer.getImageRep().getImage().getRGB(x, y)).isEqualTo(testImage.getRGB(x, y));
+            }
+        }
+
+        serviceLayer.redoTo(2);
+
+        assertThat(serviceLayer.getImageRep().getImage().getWidth()).isEqualTo(1);
+        assertThat(serviceLayer.getRedoHistory()).isEmpty();
+
+        serviceLayer.undoLastEdit();
+        serviceLayer.enlargeToWidth(3);
+
+        assertThat(serviceLayer.getRedoHistory()).isEmpty();
+        assertThat(serviceLayer.getImageRep().getImage().getWidth()).isEqualTo(3);
+    }
+
+    @Test
+    void redoWithoutUndos() {
+        serviceLayer.redoLastEdit();
+        assertThat(serviceLayer.getEditHistory()).isEmpty();
+    }
+
+    @Test
+    void removeObjectErasesMaskedPixels() throws IOException {
+        Path imagePath = Files.createTempFile("object", ".png");
+        BufferedImage image = new BufferedImage(30, 12, BufferedImage.TYPE_INT_RGB);
+        BufferedImage mask = new BufferedImage(30, 12, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(5);
+
+        for (int y = 0; y < 12; y++) {
+            for (int x = 0; x < 30; x++) {
+                boolean inObject = x >= 12 + y / 4 && x < 16 + y / 4;
+                image.setRGB(x, y, inObject ? Color.MAGENTA.getRGB() : random.nextInt(0x10000));
+                mask.setRGB(x, y, inObject ? Color.WHITE.getRGB() : Color.BLACK.getRGB());
+            }
+        }
+
+        ImageIO.write(image, "png", imagePath.toFile());
+        ServiceLayer objectService = new ServiceLayer(imagePath.toString());
+        List<int[]> progress = new ArrayList<>();
+
+        objectService.removeObject(mask, (done, total) -> progress.add(new int[] {done, total}));
+
+        BufferedImage result = objectService.getImageRep().getImage();
+        assertThat(result.getWidth()).isEqualTo(26);
+        for (int y = 0; y < 12; y++) {
+            for (int x = 0; x < 26; x++) {
+                assertThat(result.getRGB(x, y)).isNotEqualTo(Color.MAGENTA.getRGB());
+            }
+        }
+
+        assertThat(progress).hasSize(4);
+        assertThat(progress.get(3)).containsExactly(48, 48);
+        assertThat(objectService.getEditHistory()).hasSize(1);
+        assertThat(objectService.getImageRep().getEnergies()).isEqualTo(new ImageRepresentation(result).getEnergies());
+
+        objectService.undoLastEdit();
+        for (int y = 0; y < 12; y++) {
+            for (int x = 0; x < 30; x++) {
+                assertThat(objectService.getImageRep().getImage().getRGB(x, y)).isEqualTo(image.getRGB(x, y));
+            }
+        }
+
+        Files.delete(imagePath);
+    }
+
+    @Test
+    void cancelledRemovalRollsBackEveryPass() throws IOException {
+        ServiceLayer service = randomService(40, 30, 8);
+        BufferedImage original = service.getImageRep().deepCopyImage();
+        CancellationToken token = new CancellationToken();
+        List<Long> estimates = new ArrayList<>();
+        int[] searches = {0};
+
+        ProgressListener listener = new ProgressListener() {
+            @Override
+            public void onProgress(int done, int total) {
+            }
+
+            @Override
+            public void onProgress(int done, int total, long remainingNanos) {
+                estimates.add(remainingNanos);
+            }
+
+            @Override
+            public void onRowsScored(int rows, int totalRows) {
+                if (rows == 1) {
+                    searches[0]++;
+                }
+                if (searches[0] == 2 && rows == totalRows / 2) {
+                    token.cancel();
+                }
+            }
+        };
+
+        assertThatThrownBy(() -> service.removeLowestEnergySeams(39, listener, token)).isInstanceOf(CancellationException.class);
+
+        assertThat(estimates).hasSize(1);
+        assertThat(estimates.get(0)).isPositive();
+        assertThat(service.getEditHistory()).isEmpty();
+        assertThat(service.getRedoHistory()).hasSize(1);
+        assertSameImage(service.getImageRep().getImage(), original);
+        assertThat(service.getImageRep().getEnergies()).isEqualTo(new ImageRepresentation(original).getEnergies());
+
+        service.removeLowestEnergySeams(3, null, new CancellationToken());
+        assertThat(service.getImageRep().getImage().getWidth()).isEqualTo(37);
+    }
+
+    @Test
+    void cancelledObjectRemovalRestoresSeams() throws IOException {
+        ServiceLayer service = randomService(20, 10, 6);
+        BufferedImage original = service.getImageRep().deepCopyImage();
+        BufferedImage mask = new BufferedImage(20, 10, BufferedImage.TYPE_INT_RGB);
+        CancellationToken token = new CancellationToken();
+
+        for (int y = 0; y < 10; y++) {
+            for (int x = 8; x < 12; x++) {
+                mask.setRGB(x, y, Color.WHITE.getRGB());
+            }
+        }
+
+        assertThatThrownBy(() -> service.removeObject(mask, (done, total) -> token.cancel(), token)).isInstanceOf(CancellationException.class);
+
+        assertThat(service.getEditHistory()).isEmpty();
+        assertSameImage(service.getImageRep().getImage(), original);
+        service.getImageRep().updateImage();
+        assertSameImage(service.getImageRep().getImage(), original);
+        assertThat(service.getImageRep().getEnergies()).isEqualTo(new ImageRepresentation(original).getEnergies());
+    }
+
+    @Test
+    void expiredBudgetStopsSeamSearch() {
+        assertThatThrownBy(() -> serviceLayer.findSeam(SeamScorer.lowestEnergy(), null, new CancellationToken(Duration.ZERO)))
+                .isInstanceOf(CancellationException.class);
+        assertThat(serviceLayer.findSeam(SeamScorer.lowestEnergy(), null, null)).isEqualTo(serviceLayer.findLowestEnergySeam());
+    }
+
+    private ServiceLayer randomService(int width, int height, long seed) throws IOException {
+        Path imagePath = Files.createTempFile("random", ".png");
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(seed);
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+
+        ImageIO.write(image, "png", imagePath.toFile());
+        ServiceLayer service = new ServiceLayer(imagePath.toString());
+        Files.delete(imagePath);
+        return service;
+    }
+
+    private void assertSameImage(BufferedImage actual, BufferedImage expected) {
+        assertThat(actual.getWidth()).isEqualTo(expected.getWidth());
+        assertThat(actual.getHeight()).isEqualTo(expected.getHeight());
+
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertThat(actual.getRGB(x, y)).isEqualTo(expected.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    void seamsAreCachedByGridVersion() throws IOException {
+        ServiceLayer service = randomService(12, 10, 4);
+        int[] rows = {0};
+        ProgressListener countRows = new ProgressListener() {
+            @Override
+            public void onProgress(int done, int total) {
+            }
+
+            @Override
+            public void onRowsScored(int scored, int totalRows) {
+                rows[0]++;
+            }
+        };
+
+        List<PixelNode> original = service.findSeam(SeamScorer.lowestEnergy(), countRows, null);
+        assertThat(rows[0]).isEqualTo(10);
+        assertThat(service.findSeam(SeamScorer.lowestEnergy(), countRows, null)).isEqualTo(original);
+        assertThat(rows[0]).isEqualTo(10);
+
+        long originalVersion = service.getImageRep().getVersion();
+        service.findAndHighlightSeam(true);
+        service.removeSeam();
+        long editedVersion = service.getImageRep().getVersion();
+        assertThat(editedVersion).isNotEqualTo(originalVersion);
+
+        List<PixelNode> edited = service.findSeam(SeamScorer.lowestEnergy(), countRows, null);
+        assertThat(rows[0]).isEqualTo(20);
+
+        service.undoLastEdit();
+        assertThat(service.getImageRep().getVersion()).isEqualTo(originalVersion);
+        assertThat(service.findSeam(SeamScorer.lowestEnergy(), countRows, null)).isEqualTo(original);
+        assertThat(service.findSeam(SeamScorer.bluest(), countRows, null)).isEqualTo(service.findBluestSeam());
+        assertThat(rows[0]).isEqualTo(30);
+
+        service.redoLastEdit();
+        assertThat(service.getImageRep().getVersion()).isEqualTo(editedVersion);
+        assertThat(service.findSeam(SeamScorer.lowestEnergy(), countRows, null)).isEqualTo(edited);
+        assertThat(rows[0]).isEqualTo(30);
+    }
+
+    @Test
+    void reinsertedSeamsGetNewVersion() throws IOException {
+        ServiceLayer service = randomService(8, 6, 12);
+        service.getImageRep().setPreviewSaving(false);
+
+        service.enlargeToWidth(9);
+        long firstVersion = service.getImageRep().getVersion();
+        service.findSeam(SeamScorer.bluest());
+        service.undoLastEdit();
+        service.enlargeToWidth(9);
+        List<PixelNode> second = service.findSeam(SeamScorer.bluest());
+
+        Set<PixelNode> nodes = new HashSet<>();
+        for (PixelNode[] row : service.getImageRep().getNodeRows()) {
+            nodes.addAll(List.of(row));
+        }
+
+        assertThat(service.getImageRep().getVersion()).isNotEqualTo(firstVersion);
+        assertThat(nodes).containsAll(second);
+        assertThat(second).isEqualTo(new SeamEngine().findSeam(service.getImageRep().getRoot(), SeamScorer.bluest()));
+    }
+
+    @Test
+    void highlightSeamsSideBySide() {
+        serviceLayer.findAndHighlightSeams(Arrays.asList(SeamScorer.lowestEnergy(), SeamScorer.bluest()),
+                Arrays.asList(Color.RED, Color.BLUE));
+
+        assertThat(serviceLayer.getLastFoundSeam()).isEqualTo(serviceLayer.findLowestEnergySeam());
+        assertThat(serviceLayer.findSeams(Arrays.asList(SeamScorer.bluest(), SeamScorer.lowestEnergy())))
+                .containsExactly(serviceLayer.findBluestSeam(), serviceLayer.findLowestEnergySeam());
+
+        serviceLayer.removeSeam();
+        assertThat(serviceLayer.getImageRep().getImage().getWidth()).isEqualTo(2);
+    }
 }
@@ -0,0 +1,177 @@
+package henrycaldwell;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.assertj.core.api.Assertions.assertThat;
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+public class SessionStoreTest {
+    private BufferedImage originalImage;
+    private String imagePath;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        originalImage = new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(7);
+
+        for (int y = 0; y < originalImage.getHeight(); y++) {
+            for (int x = 0; x < originalImage.getWidth(); x++) {
+                originalImage.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+
+        imagePath = tempDir.resolve("original.png").toString();
+        ImageIO.write(originalImage, "png", tempDir.resolve("original.png").toFile());
+    }
+
+    @Test
+    void resumedSessionMatchesAndUndoesToOriginal() {
+        Path sessionDir = tempDir.resolve("session");
+        ServiceLayer original = new ServiceLayer(imagePath);
+        original.startSession(new SessionStore(sessionDir, 3));
+
+        original.removeLowestEnergySeams(5);
+        original.insertLowestEnergySeams(3);
+        original.findAndHighlightSeam(false);
+        original.removeSeam();
+        original.undoLastEdit();
+        original.findAndHighlightSeam(true);
+        original.removeSeam();
+        original.removeLowestEnergySeams(2);
+        original.undoTo(1);
+        original.redoTo(2);
+        original.closeSession();
+
+        ServiceLayer resumed = new ServiceLayer(new SessionStore(sessionDir, 3));
+
+        assertSameImage(resumed.getImageRep().getImage(), original.getImageRep().getImage());
+        assertThat(resumed.getEditHistory()).hasSameSizeAs(original.getEditHistory());
+        assertThat(resumed.getImageRep().getEditCounter()).isEqualTo(original.getImageRep().getEditCounter());
+        assertThat(resumed.getImageRep().getEnergies()).isEqualTo(original.getImageRep().getEnergies());
+        assertThat(resumed.getImageRep().getEnergies()).isEqualTo(new ImageRepresentation(resumed.getImageRep().getImage()).getEnergies());
+
+        while (!resumed.getEditHistory().isEmpty()) {
+            resumed.undoLastEdit();
+        }
+
+        assertSameImage(resumed.getImageRep().getImage(), originalImage);
+    }
+
+    @Test
+    void resumedHistoryUndoesLikeTheOriginalAtEveryStep() {
+        Path sessionDir = tempDir.resolve("session");
+        ServiceLayer original = new ServiceLayer(imagePath);
+        original.startSession(new SessionStore(sessionDir, 4));
+
+        for (int i = 0; i < 4; i++) {
+            original.removeLowestEnergySeams(3);
+            original.insertLowestEnergySeams(2);
+            original.findAndHighlightSeam(false);
+            original.removeSeam();
+        }
+
+        original.closeSession();
+        ServiceLayer resumed = new ServiceLayer(new SessionStore(sessionDir, 4));
+
+        while (!original.getEditHistory().isEmpty()) {
+            original.undoLastEdit();
+            resumed.undoLastEdit();
+
+            assertSameImage(resumed.getImageRep().getImage(), original.getImageRep().getImage());
+            assertThat(resumed.getImageRep().getEnergies()).isEqualTo(original.getImageRep().getEnergies());
+        }
+
+        assertThat(resumed.getEditHistory()).isEmpty();
+        assertSameImage(resumed.getImageRep().getImage(), originalImage);
+    }
+
+    @Test
+    void resumedObjectRemovalUndoesToOriginal() {
+        Path sessionDir = tempDir.resolve("session");
+        BufferedImage mask = new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB);
+
+        for (int y = 5; y < 25; y++) {
+            for (int x = 10 + y / 5; x < 15 + y / 5; x++) {
+                mask.setRGB(x, y, 0xFFFFFF);
+            }
+        }
+
+        ServiceLayer original = new ServiceLayer(imagePath);
+        original.startSession(new SessionStore(sessionDir));
+        original.removeObject(mask, null);
+        original.closeSession();
+
+        ServiceLayer resumed = new ServiceLayer(new SessionStore(sessionDir));
+
+        assertSameImage(resumed.getImageRep().getImage(), original.getImageRep().getImage());
+        assertThat(resumed.getImageRep().getEnergies()).isEqualTo(original.getImageRep().getEnergies());
+
+        resumed.undoLastEdit();
+        original.undoLastEdit();
+
+        assertSameImage(resumed.getImageRep().getImage(), originalImage);
+        assertSameImage(original.getImageRep().getImage(), originalImage);
+    }
+
+    @Test
+    void reloadingCountsOnlyTheCurrentJournal() throws IOException {
+        Path sessionDir = tempDir.resolve("session");
+        ServiceLayer original = new ServiceLayer(imagePath);
+        original.startSession(new SessionStore(sessionDir, 10));
+
+        for (int i = 0; i < 3; i++) {
+            original.findAndHighlightSeam(true);
+            original.removeSeam();
+        }
+        original.closeSession();
+
+        SessionStore store = new SessionStore(sessionDir, 5);
+        store.load();
+        store.load();
+
+        assertThat(store.needsCompaction()).isFalse();
+        store.close();
+    }
+
+    @Test
+    void tornJournalRecordIsIgnored() throws IOException {
+        Path sessionDir = tempDir.resolve("session");
+        ServiceLayer original = new ServiceLayer(imagePath);
+        original.startSession(new SessionStore(sessionDir));
+
+        original.removeLowestEnergySeams(4);
+        original.closeSession();
+        Files.write(sessionDir.resolve("session.journal"), new byte[] {0, 0, 1, 0, 42, 42}, StandardOpenOption.APPEND);
+
+        ServiceLayer resumed = new ServiceLayer(new SessionStore(sessionDir));
+        resumed.findAndHighlightSeam(true);
+        resumed.removeSeam();
+        resumed.closeSession();
+
+        ServiceLayer resumedAgain = new ServiceLayer(new SessionStore(sessionDir));
+
+        assertSameImage(resumedAgain.getImageRep().getImage(), resumed.getImageRep().getImage());
+        assertThat(resumedAgain.getImageRep().getImage().getWidth()).isEqualTo(35);
+    }
+
+    private void assertSameImage(BufferedImage actual, BufferedImage expected) {
+        assertThat(actual.getWidth()).isEqualTo(expected.getWidth());
+        assertThat(actual.getHeight()).isEqualTo(expected.getHeight());
+
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertThat(actual.getRGB(x, y)).isEqualTo(expected.getRGB(x, y));
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package henrycaldwell;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Starts fresh JVMs that carve a small image once through plain pixel buffers and once through BufferedImage, the way
+ * a short-lived batch job would, and prints how long each JVM takes from launch to exit. It is not part of the test
+ * suite and is run by hand with no arguments. Launched JVMs get "core" or "awt" as their argument and print a
+ * checksum of the carved image instead.
+ */
+public class StartupBenchmark {
+    // The size of the carved image and how many seams are removed from it.
+    private static final int SIZE = 256, SEAMS = 16;
+    // Launches of each kind, of which the fastest counts.
+    private static final int RUNS = 3;
+
+    /**
+     * Times both kinds of launch, or carves a random image and prints a checksum of the result when given "core" to
+     * stay on pixel buffers or "awt" to go through BufferedImage like the file based entry points.
+     * @param args Nothing to time the launches, otherwise the kind of carve.
+     * @throws IOException If a JVM can not be launched.
+     * @throws InterruptedException If interrupted while waiting for a JVM to exit.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 0) {
+            System.out.println("checksum " + carve(args[0].equals("awt")));
+            return;
+        }
+
+        long coreNanos = Long.MAX_VALUE, awtNanos = Long.MAX_VALUE;
+
+        for (int run = 0; run < RUNS; run++) {
+            Launch core = launch("core");
+            Launch awt = launch("awt");
+
+            if (core.exitCode != 0 || awt.exitCode != 0 || !core.checksum.equals(awt.checksum)) {
+                throw new IllegalStateException("The launched carves failed or disagree.");
+            }
+
+            coreNanos = Math.min(coreNanos, core.nanos);
+            awtNanos = Math.min(awtNanos, awt.nanos);
+        }
+
+        System.out.println("Startup to exit: pixel buffers " + coreNanos / 1_000_000 + " ms, BufferedImage " + awtNanos / 1_000_000 + " ms");
+    }
+
+    /**
+     * Carves a random image and checksums the result.
+     * @param awt If true, the image goes through BufferedImage, otherwise it stays on pixel buffers.
+     * @return The checksum of the carved pixels.
+     */
+    static int carve(boolean awt) {
+        Random random = new Random(5);
+        PixelBuffer pixels = new PixelBuffer(SIZE, SIZE);
+
+        for (int i = 0; i < pixels.getPixels().length; i++) {
+            pixels.getPixels()[i] = random.nextInt(0x1000000);
+        }
+
+        ImageRepresentation imageRep;
+        if (awt) {
+            BufferedImage image = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB);
+            image.setRGB(0, 0, SIZE, SIZE, pixels.getPixels(), 0, SIZE);
+            imageRep = new ImageRepresentation(image);
+        } else {
+            imageRep = new ImageRepresentation(pixels);
+        }
+
+        SeamEngine seamEngine = new SeamEngine();
+        for (int i = 0; i < SEAMS; i++) {
+            imageRep.removeSeam(seamEngine.findSeam(imageRep.getRoot(), SeamScorer.lowestEnergy()));
+        }
+        imageRep.updateImage();
+
+        int[] result = awt
+                ? imageRep.getImage().getRGB(0, 0, SIZE - SEAMS, SIZE, null, 0, SIZE - SEAMS)
+                : imageRep.getPixels().getPixels();
+        int checksum = 0;
+
+        for (int rgb : result) {
+            checksum = 31 * checksum + (rgb & 0xFFFFFF);
+        }
+
+        return checksum;
+    }
+
+    /**
+     * Runs a carve in a fresh JVM that logs every class it loads.
+     * @param kind "core" or "awt".
+     * @return What the JVM reported.
+     * @throws IOException If the JVM can not be launched.
+     * @throws InterruptedException If interrupted while waiting for the JVM to exit.
+     */
+    static Launch launch(String kind) throws IOException, InterruptedException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<String> command = new ArrayList<>(Arrays.asList(java, "-verbose:class",
+                "-cp", System.getProperty("java.class.path"), StartupBenchmark.class.getName(), kind));
+        Launch launch = new Launch();
+
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                if (line.contains(" java.awt.")) {
+                    launch.awtClasses.add(line);
+                } else if (line.startsWith("checksum ")) {
+                    launch.checksum = line;
+                }
+            }
+        }
+
+        launch.exitCode = process.waitFor();
+        launch.nanos = System.nanoTime() - start;
+        return launch;
+    }
+
+    /**
+     * What one launched JVM reported.
+     */
+    static class Launch {
+        final List<String> awtClasses = new ArrayList<>();
+        String checksum;
+        int exitCode;
+        long nanos;
+    }
+}